@@ -9,10 +9,6 @@ package com.pheelicks.app;
 import java.io.IOException;
 
 import android.app.Activity;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.PorterDuff.Mode;
-import android.graphics.PorterDuffXfermode;
 import android.media.MediaPlayer;
 import android.os.Bundle;
 import android.view.View;
@@ -20,6 +16,8 @@ import android.view.View;
 import com.pheelicks.utils.TunnelPlayerWorkaround;
 import com.pheelicks.visualizer.R;
 import com.pheelicks.visualizer.VisualizerView;
+import com.pheelicks.visualizer.graphics.BlendMode;
+import com.pheelicks.visualizer.graphics.Brush;
 import com.pheelicks.visualizer.renderer.BarGraphRenderer;
 import com.pheelicks.visualizer.renderer.CircleBarRenderer;
 import com.pheelicks.visualizer.renderer.CircleRenderer;
@@ -114,53 +112,53 @@ public class MainActivity extends Activity {
   // Methods for adding renderers to visualizer
   private void addBarGraphRenderers()
   {
-    Paint paint = new Paint();
+    Brush paint = new Brush();
     paint.setStrokeWidth(50f);
     paint.setAntiAlias(true);
-    paint.setColor(Color.argb(200, 56, 138, 252));
+    paint.setColor(Brush.argb(200, 56, 138, 252));
     BarGraphRenderer barGraphRendererBottom = new BarGraphRenderer(16, paint, false);
     mVisualizerView.addRenderer(barGraphRendererBottom);
 
-    Paint paint2 = new Paint();
+    Brush paint2 = new Brush();
     paint2.setStrokeWidth(12f);
     paint2.setAntiAlias(true);
-    paint2.setColor(Color.argb(200, 181, 111, 233));
+    paint2.setColor(Brush.argb(200, 181, 111, 233));
     BarGraphRenderer barGraphRendererTop = new BarGraphRenderer(4, paint2, true);
     mVisualizerView.addRenderer(barGraphRendererTop);
   }
 
   private void addCircleBarRenderer()
   {
-    Paint paint = new Paint();
+    Brush paint = new Brush();
     paint.setStrokeWidth(8f);
     paint.setAntiAlias(true);
-    paint.setXfermode(new PorterDuffXfermode(Mode.LIGHTEN));
-    paint.setColor(Color.argb(255, 222, 92, 143));
+    paint.setBlendMode(BlendMode.LIGHTEN);
+    paint.setColor(Brush.argb(255, 222, 92, 143));
     CircleBarRenderer circleBarRenderer = new CircleBarRenderer(paint, 32, true);
     mVisualizerView.addRenderer(circleBarRenderer);
   }
 
   private void addCircleRenderer()
   {
-    Paint paint = new Paint();
+    Brush paint = new Brush();
     paint.setStrokeWidth(3f);
     paint.setAntiAlias(true);
-    paint.setColor(Color.argb(255, 222, 92, 143));
+    paint.setColor(Brush.argb(255, 222, 92, 143));
     CircleRenderer circleRenderer = new CircleRenderer(paint, true);
     mVisualizerView.addRenderer(circleRenderer);
   }
 
   private void addLineRenderer()
   {
-    Paint linePaint = new Paint();
+    Brush linePaint = new Brush();
     linePaint.setStrokeWidth(1f);
     linePaint.setAntiAlias(true);
-    linePaint.setColor(Color.argb(88, 0, 128, 255));
+    linePaint.setColor(Brush.argb(88, 0, 128, 255));
 
-    Paint lineFlashPaint = new Paint();
+    Brush lineFlashPaint = new Brush();
     lineFlashPaint.setStrokeWidth(5f);
     lineFlashPaint.setAntiAlias(true);
-    lineFlashPaint.setColor(Color.argb(188, 255, 255, 255));
+    lineFlashPaint.setColor(Brush.argb(188, 255, 255, 255));
     LineRenderer lineRenderer = new LineRenderer(linePaint, lineFlashPaint, true);
     mVisualizerView.addRenderer(lineRenderer);
   }
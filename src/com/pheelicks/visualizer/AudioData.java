@@ -6,7 +6,9 @@
  */
 package com.pheelicks.visualizer;
 
-// Data class to explicitly indicate that these bytes are raw audio data
+// Data class to explicitly indicate that these bytes are raw audio data.
+// The bytes field is mutable, so that a single instance can be reused
+// for every frame rather than allocating a new one
 public class AudioData
 {
   public AudioData(byte[] bytes)
@@ -14,5 +16,95 @@ public class AudioData
     this.bytes = bytes;
   }
 
+  /**
+   * Copies bytes into this frame. The existing array is reused when the
+   * length matches, so repeated calls with one capture size don't allocate
+   * @param src - Bytes to copy
+   * @param timestamp - System.nanoTime() at which the bytes were captured
+   */
+  public void set(byte[] src, long timestamp)
+  {
+    if (bytes == null || bytes.length != src.length) {
+      bytes = new byte[src.length];
+    }
+    System.arraycopy(src, 0, bytes, 0, src.length);
+    timestampNanos = timestamp;
+    analyzed = false;
+    // Converted from the bytes by FrameAnalyzer
+    sampleCount = 0;
+  }
+
+  /**
+   * Copies full resolution samples into this frame, for sources which have
+   * PCM rather than 8-bit captures. The bytes are filled in too, quantized,
+   * for code which only reads them
+   * @param src - Samples normalized to [-1, 1]
+   * @param offset - Index of the first sample to copy
+   * @param count - Number of samples to copy
+   * @param timestamp - System.nanoTime() at which the samples were captured
+   */
+  public void setSamples(float[] src, int offset, int count, long timestamp)
+  {
+    if (bytes == null || bytes.length != count) {
+      bytes = new byte[count];
+    }
+    ensureSampleCapacity(count);
+    System.arraycopy(src, offset, samples, 0, count);
+    for (int i = 0; i < count; i++) {
+      int value = Math.round(src[offset + i] * 128);
+      value = value < -128 ? -128 : (value > 127 ? 127 : value);
+      bytes[i] = (byte) (value + 128);
+    }
+    sampleCount = count;
+    timestampNanos = timestamp;
+    analyzed = false;
+  }
+
+  /**
+   * Makes sure samples can hold count samples, reallocating if needed
+   */
+  public void ensureSampleCapacity(int count)
+  {
+    if (samples == null || samples.length < count) {
+      samples = new float[count];
+    }
+  }
+
+  /**
+   * Copies another frame into this one, including the results of analysis,
+   * so a frame analyzed once can be handed to several views
+   * @param src - Frame to copy
+   */
+  public void copyFrom(AudioData src)
+  {
+    set(src.bytes, src.timestampNanos);
+    if (src.sampleCount > 0) {
+      ensureSampleCapacity(src.sampleCount);
+      System.arraycopy(src.samples, 0, samples, 0, src.sampleCount);
+      sampleCount = src.sampleCount;
+    }
+    analyzed = src.analyzed;
+    rms = src.rms;
+    peak = src.peak;
+    beat = src.beat;
+  }
+
+  // Unsigned 8-bit samples, 128 being silence
   public byte[] bytes;
+  public long timestampNanos;
+
+  // Samples normalized to [-1, 1], which renderers should draw rather than
+  // the bytes. Either set at full resolution with setSamples, or converted
+  // from the bytes once per frame by FrameAnalyzer. May be longer than
+  // sampleCount, which is 0 until the samples are filled in
+  public float[] samples;
+  public int sampleCount;
+
+  // Features computed once per frame by FrameAnalyzer
+  public boolean analyzed;
+  public float rms;
+  public float peak;
+  // Set by VisualizerView when the FFT frame drawn alongside this waveform
+  // was detected as a beat, for renderers which only look at the waveform
+  public boolean beat;
 }
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer;
+
+import java.util.ArrayList;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+/**
+ * Keeps bitmaps which are no longer needed, so that the next view, or the
+ * same view after a resize, can reuse them rather than allocate. Bitmaps over
+ * the size limit are recycled, oldest first. Thread safe.
+ */
+public class BitmapPool
+{
+  private static final BitmapPool sDefault = new BitmapPool(8 * 1024 * 1024);
+
+  /**
+   * @return The pool shared by all VisualizerViews
+   */
+  public static BitmapPool getDefault()
+  {
+    return sDefault;
+  }
+
+  private final ArrayList<Bitmap> mBitmaps = new ArrayList<Bitmap>();
+  private long mMaxBytes;
+  private long mPooledBytes = 0;
+
+  /**
+   * @param maxBytes - Most memory to hold in unused bitmaps
+   */
+  public BitmapPool(long maxBytes)
+  {
+    mMaxBytes = maxBytes;
+  }
+
+  /**
+   * @return A mutable, transparent bitmap, reused from the pool if possible
+   */
+  public synchronized Bitmap acquire(int width, int height, Config config)
+  {
+    for(int i = 0; i < mBitmaps.size(); i++)
+    {
+      Bitmap bitmap = mBitmaps.get(i);
+      if(bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config)
+      {
+        mBitmaps.remove(i);
+        mPooledBytes -= getBytes(bitmap);
+        bitmap.eraseColor(0);
+        return bitmap;
+      }
+    }
+    return Bitmap.createBitmap(width, height, config);
+  }
+
+  /**
+   * Hands a bitmap back. It mustn't be drawn or drawn onto afterwards
+   * @param bitmap - Bitmap from acquire, or null
+   */
+  public synchronized void release(Bitmap bitmap)
+  {
+    if(bitmap == null || bitmap.isRecycled())
+    {
+      return;
+    }
+    mBitmaps.add(bitmap);
+    mPooledBytes += getBytes(bitmap);
+    trimTo(mMaxBytes);
+  }
+
+  /**
+   * @param maxBytes - Most memory to hold in unused bitmaps. 0 disables pooling
+   */
+  public synchronized void setMaxBytes(long maxBytes)
+  {
+    mMaxBytes = maxBytes;
+    trimTo(maxBytes);
+  }
+
+  /**
+   * Recycles every pooled bitmap, e.g. from onTrimMemory
+   */
+  public synchronized void clear()
+  {
+    trimTo(0);
+  }
+
+  /**
+   * @return Memory held in unused bitmaps
+   */
+  public synchronized long getPooledBytes()
+  {
+    return mPooledBytes;
+  }
+
+  /**
+   * @return Memory used by the pixels of a bitmap. Same as getByteCount,
+   * which needs API 12
+   */
+  public static long getBytes(Bitmap bitmap)
+  {
+    return bitmap == null ? 0 : (long) bitmap.getRowBytes() * bitmap.getHeight();
+  }
+
+  private void trimTo(long maxBytes)
+  {
+    while(mPooledBytes > maxBytes && !mBitmaps.isEmpty())
+    {
+      Bitmap oldest = mBitmaps.remove(0);
+      mPooledBytes -= getBytes(oldest);
+      oldest.recycle();
+    }
+  }
+}
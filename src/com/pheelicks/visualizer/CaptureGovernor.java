@@ -0,0 +1,301 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer;
+
+/**
+ * Adjusts the capture size and capture rate to what the device can draw.
+ *
+ * Frames are reported with {@link #onFrame(long, long, long)}. Once per
+ * window the governor compares the average render time with the frame
+ * budget of the target frame rate, and counts captures which were dropped
+ * because they arrived faster than frames were drawn:
+ * <ul>
+ * <li>Over budget: the capture size is halved, or once it is at its minimum
+ * the capture rate is lowered</li>
+ * <li>Dropping captures: the capture rate is lowered</li>
+ * <li>Well under budget with no drops for a few windows in a row: the
+ * capture size is doubled, or once it is at its maximum the rate is raised</li>
+ * </ul>
+ * While hidden the minimum size and rate are used, and while thermally
+ * throttled both are capped at half of their maximum.
+ *
+ * Time only comes from the arguments, so the loop can be driven with
+ * simulated timings.
+ */
+public class CaptureGovernor
+{
+  /**
+   * Told when the capture size or rate should change
+   */
+  public interface Listener
+  {
+    /**
+     * @param captureSize - Capture size in samples, a power of two
+     * @param captureRate - Capture rate in milliHertz, as used by
+     * android.media.audiofx.Visualizer
+     */
+    void onCaptureChanged(int captureSize, int captureRate);
+  }
+
+  // Fractions of the frame budget at which to step down or up
+  private static final float HIGH_LOAD = 0.8f;
+  private static final float LOW_LOAD = 0.4f;
+  // Fraction of captures dropped at which the rate is lowered
+  private static final float HIGH_DROPS = 0.25f;
+  // Quiet windows needed before stepping up, so it doesn't oscillate
+  private static final int RAISE_AFTER_WINDOWS = 3;
+
+  private final int mMinSize;
+  private final int mMaxSize;
+  private final int mMinRate;
+  private final int mMaxRate;
+
+  private volatile long mBudgetNanos = 1000000000L / 60;
+  private volatile long mWindowNanos = 500000000L;
+  private volatile Listener mListener;
+
+  // Settings as chosen by the control loop, before hiding and throttling
+  private int mSize;
+  private int mRate;
+  private boolean mVisible = true;
+  private boolean mThrottled = false;
+  // What was last reported to the listener
+  private int mEffectiveSize;
+  private int mEffectiveRate;
+
+  // Current window
+  private boolean mWindowStarted = false;
+  private long mWindowStartNanos;
+  private long mWindowDroppedStart;
+  private int mWindowFrames;
+  private long mWindowRenderNanos;
+  private int mQuietWindows;
+
+  /**
+   * Starts at the largest size and the middle of the rate range
+   * @param minSize - Smallest capture size, a power of two
+   * @param maxSize - Largest capture size, a power of two
+   * @param minRate - Lowest capture rate in milliHertz
+   * @param maxRate - Highest capture rate in milliHertz
+   */
+  public CaptureGovernor(int minSize, int maxSize, int minRate, int maxRate)
+  {
+    if(minSize <= 0 || minSize > maxSize || Integer.bitCount(minSize) != 1
+        || Integer.bitCount(maxSize) != 1)
+    {
+      throw new IllegalArgumentException("Invalid capture size range " + minSize + "-" + maxSize);
+    }
+    if(minRate <= 0 || minRate > maxRate)
+    {
+      throw new IllegalArgumentException("Invalid capture rate range " + minRate + "-" + maxRate);
+    }
+    mMinSize = minSize;
+    mMaxSize = maxSize;
+    mMinRate = minRate;
+    mMaxRate = maxRate;
+    mSize = maxSize;
+    mRate = (minRate + maxRate) / 2;
+    mEffectiveSize = getCaptureSize();
+    mEffectiveRate = getCaptureRate();
+  }
+
+  public void setListener(Listener listener)
+  {
+    mListener = listener;
+  }
+
+  /**
+   * @param framesPerSecond - Frame rate to hold, which sets the time each
+   * frame may take to render
+   */
+  public void setTargetFrameRate(int framesPerSecond)
+  {
+    if(framesPerSecond <= 0)
+    {
+      throw new IllegalArgumentException("Frame rate must be positive");
+    }
+    mBudgetNanos = 1000000000L / framesPerSecond;
+  }
+
+  /**
+   * @param windowNanos - How long to measure for before each adjustment
+   */
+  public void setWindow(long windowNanos)
+  {
+    mWindowNanos = windowNanos;
+  }
+
+  /**
+   * Sets the size and rate to start from, clamped to the ranges
+   */
+  public synchronized void setCapture(int captureSize, int captureRate)
+  {
+    int size = mMinSize;
+    while(size < captureSize && size < mMaxSize)
+    {
+      size *= 2;
+    }
+    mSize = size;
+    mRate = clamp(captureRate, mMinRate, mMaxRate);
+    mQuietWindows = 0;
+    notifyIfChanged();
+  }
+
+  /**
+   * @param visible - false to drop to the minimum size and rate, for
+   * instance while the view is hidden
+   */
+  public synchronized void setVisible(boolean visible)
+  {
+    mVisible = visible;
+    // Frames stop while hidden, so don't count the gap as one window
+    mWindowStarted = false;
+    notifyIfChanged();
+  }
+
+  /**
+   * @param throttled - true while the device is thermally throttled, to cap
+   * the size and rate at half of their maximum
+   */
+  public synchronized void setThermalThrottled(boolean throttled)
+  {
+    mThrottled = throttled;
+    notifyIfChanged();
+  }
+
+  /**
+   * Reports a drawn frame
+   * @param nowNanos - Time the frame was drawn
+   * @param renderNanos - How long the frame took to render
+   * @param droppedCaptures - Total number of captures dropped so far, as from
+   * {@link VisualizerView#getDroppedFrameCount()}
+   */
+  public synchronized void onFrame(long nowNanos, long renderNanos, long droppedCaptures)
+  {
+    if(!mWindowStarted)
+    {
+      startWindow(nowNanos, droppedCaptures);
+    }
+    mWindowFrames++;
+    mWindowRenderNanos += renderNanos;
+
+    if(nowNanos - mWindowStartNanos < mWindowNanos)
+    {
+      return;
+    }
+
+    float load = mWindowRenderNanos / (float) mWindowFrames / mBudgetNanos;
+    long dropped = droppedCaptures - mWindowDroppedStart;
+    float drops = dropped / (float) (dropped + mWindowFrames);
+    startWindow(nowNanos, droppedCaptures);
+
+    if(load > HIGH_LOAD)
+    {
+      mQuietWindows = 0;
+      if(mSize > mMinSize)
+      {
+        mSize /= 2;
+      }
+      else
+      {
+        mRate = lowerRate(mRate);
+      }
+    }
+    else if(drops > HIGH_DROPS)
+    {
+      mQuietWindows = 0;
+      mRate = lowerRate(mRate);
+    }
+    else if(load < LOW_LOAD && dropped == 0)
+    {
+      if(++mQuietWindows >= RAISE_AFTER_WINDOWS)
+      {
+        mQuietWindows = 0;
+        if(mSize < getMaxSize())
+        {
+          mSize *= 2;
+        }
+        else
+        {
+          mRate = Math.min(mRate + mRate / 4, getMaxRate());
+        }
+      }
+    }
+    else
+    {
+      mQuietWindows = 0;
+    }
+    notifyIfChanged();
+  }
+
+  /**
+   * @return Capture size to use now, in samples
+   */
+  public synchronized int getCaptureSize()
+  {
+    return mVisible ? Math.min(mSize, getMaxSize()) : mMinSize;
+  }
+
+  /**
+   * @return Capture rate to use now, in milliHertz
+   */
+  public synchronized int getCaptureRate()
+  {
+    return mVisible ? Math.min(mRate, getMaxRate()) : mMinRate;
+  }
+
+  private void startWindow(long nowNanos, long droppedCaptures)
+  {
+    mWindowStarted = true;
+    mWindowStartNanos = nowNanos;
+    mWindowDroppedStart = droppedCaptures;
+    mWindowFrames = 0;
+    mWindowRenderNanos = 0;
+  }
+
+  private int getMaxSize()
+  {
+    return mThrottled ? Math.max(mMaxSize / 2, mMinSize) : mMaxSize;
+  }
+
+  private int getMaxRate()
+  {
+    return mThrottled ? Math.max(mMaxRate / 2, mMinRate) : mMaxRate;
+  }
+
+  private int lowerRate(int rate)
+  {
+    return Math.max(rate - rate / 4, mMinRate);
+  }
+
+  private void notifyIfChanged()
+  {
+    // Keep the chosen values within a throttled range too, so that raising
+    // starts from what is actually in use
+    mSize = Math.min(mSize, getMaxSize());
+    mRate = Math.min(mRate, getMaxRate());
+
+    int size = getCaptureSize();
+    int rate = getCaptureRate();
+    if(size == mEffectiveSize && rate == mEffectiveRate)
+    {
+      return;
+    }
+    mEffectiveSize = size;
+    mEffectiveRate = rate;
+    Listener listener = mListener;
+    if(listener != null)
+    {
+      listener.onCaptureChanged(size, rate);
+    }
+  }
+
+  private static int clamp(int value, int min, int max)
+  {
+    return Math.max(min, Math.min(max, value));
+  }
+}
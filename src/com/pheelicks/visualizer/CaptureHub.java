@@ -0,0 +1,311 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.media.MediaPlayer;
+import android.media.audiofx.Visualizer;
+
+import com.pheelicks.visualizer.source.AudioSource;
+import com.pheelicks.visualizer.renderer.Renderer;
+import com.pheelicks.visualizer.source.FrameDispatcher;
+
+/**
+ * Source for an audio session, sharing one {@link Visualizer} between
+ * everything that visualizes the session. Each captured frame is analyzed
+ * once by the hub's {@link FrameAnalyzer} and then handed to every
+ * {@link AudioSource.Sink}, so several views of one stream cost a single
+ * capture and a single analysis pass. Some devices also refuse to create
+ * more than one Visualizer per session.
+ *
+ * Hubs are reference counted: {@link #acquire(int)} returns the hub for a
+ * session, creating it if needed, and the Visualizer is released when the
+ * last holder calls {@link #release()}. Only the data kinds the sinks want
+ * are captured, and capture is paused while no sinks want anything.
+ */
+public class CaptureHub implements AudioSource
+{
+  private static final Map<Integer, CaptureHub> sHubs = new HashMap<Integer, CaptureHub>();
+
+  private final int mAudioSessionId;
+  private final Visualizer mVisualizer;
+  private final Visualizer.OnDataCaptureListener mCaptureListener;
+  private int mCaptureSize;
+  private int mCaptureRate;
+  private boolean mCaptureWaveform = true;
+  private boolean mCaptureFFT = true;
+  private int mReferences = 0;
+
+  private final FrameDispatcher mDispatcher = new FrameDispatcher();
+  private boolean mEnabled = true;
+  private boolean mCapturing = false;
+  private boolean mReleased = false;
+
+  /**
+   * Returns the hub for an audio session, creating it and its Visualizer if
+   * this is the first holder. Each call must be matched by a call to
+   * {@link #release()}
+   * @param audioSessionId - Session to capture, as from
+   * MediaPlayer.getAudioSessionId(), or 0 for the output mix
+   */
+  public static CaptureHub acquire(int audioSessionId)
+  {
+    synchronized (sHubs)
+    {
+      CaptureHub hub = sHubs.get(audioSessionId);
+      if(hub == null)
+      {
+        hub = new CaptureHub(audioSessionId);
+        sHubs.put(audioSessionId, hub);
+      }
+      hub.mReferences++;
+      return hub;
+    }
+  }
+
+  private CaptureHub(int audioSessionId)
+  {
+    mAudioSessionId = audioSessionId;
+
+    mVisualizer = new Visualizer(audioSessionId);
+    mCaptureSize = Visualizer.getCaptureSizeRange()[1];
+    mCaptureRate = Visualizer.getMaxCaptureRate() / 2;
+    mVisualizer.setCaptureSize(mCaptureSize);
+    mCaptureListener = new Visualizer.OnDataCaptureListener()
+    {
+      @Override
+      public void onWaveFormDataCapture(Visualizer visualizer, byte[] bytes,
+          int samplingRate)
+      {
+        mDispatcher.dispatchWaveform(bytes, System.nanoTime());
+      }
+
+      @Override
+      public void onFftDataCapture(Visualizer visualizer, byte[] bytes,
+          int samplingRate)
+      {
+        // Visualizer reports the sampling rate in milliHertz
+        mDispatcher.dispatchFFT(bytes, samplingRate / 1000, System.nanoTime());
+      }
+    };
+    mVisualizer.setDataCaptureListener(mCaptureListener, mCaptureRate, true, true);
+  }
+
+  /**
+   * Creates a governor bounded by what the device's Visualizer supports, see
+   * {@link VisualizerView#setCaptureGovernor}
+   */
+  public static CaptureGovernor createGovernor()
+  {
+    int[] sizes = Visualizer.getCaptureSizeRange();
+    int maxRate = Visualizer.getMaxCaptureRate();
+    return new CaptureGovernor(sizes[0], sizes[1], Math.max(maxRate / 8, 1), maxRate);
+  }
+
+  /**
+   * Returns the hub for the output mix, session 0, which visualizes all
+   * audio played on the device. Needs the MODIFY_AUDIO_SETTINGS permission
+   */
+  public static CaptureHub acquireOutputMix()
+  {
+    return acquire(0);
+  }
+
+  /**
+   * Gives up a reference taken by {@link #acquire(int)}. The Visualizer is
+   * released along with the last reference, after which this hub must not
+   * be used
+   */
+  @Override
+  public void release()
+  {
+    synchronized (sHubs)
+    {
+      if(mReferences == 0)
+      {
+        throw new IllegalStateException("CaptureHub released too many times");
+      }
+      if(--mReferences > 0)
+      {
+        return;
+      }
+      sHubs.remove(mAudioSessionId);
+    }
+
+    synchronized (this)
+    {
+      mReleased = true;
+      mDispatcher.clearSinks();
+      mCapturing = false;
+      mVisualizer.setEnabled(false);
+      mVisualizer.release();
+    }
+  }
+
+  /**
+   * Starts sending frames to a sink. Adding a sink twice has no effect
+   */
+  @Override
+  public synchronized void addSink(Sink sink)
+  {
+    if(!mReleased && mDispatcher.addSink(sink))
+    {
+      updateDataKinds();
+    }
+  }
+
+  /**
+   * Stops sending frames to a sink. Capture pauses when the last one goes
+   */
+  @Override
+  public synchronized void removeSink(Sink sink)
+  {
+    if(mDispatcher.removeSink(sink))
+    {
+      updateDataKinds();
+    }
+  }
+
+  /**
+   * Turns waveform and FFT capture on or off to match what the sinks want
+   */
+  @Override
+  public synchronized void updateDataKinds()
+  {
+    int kinds = mDispatcher.getDataKinds();
+    boolean waveform = (kinds & Renderer.WAVEFORM) != 0;
+    boolean fft = (kinds & Renderer.FFT) != 0;
+    if(!mReleased && (waveform || fft)
+        && (waveform != mCaptureWaveform || fft != mCaptureFFT))
+    {
+      // The listener can't be changed while capturing
+      if(mCapturing)
+      {
+        mVisualizer.setEnabled(false);
+        mCapturing = false;
+      }
+      mVisualizer.setDataCaptureListener(mCaptureListener, mCaptureRate, waveform, fft);
+      mCaptureWaveform = waveform;
+      mCaptureFFT = fft;
+    }
+    updateCapture();
+  }
+
+  @Override
+  public long getSkippedFrameCount()
+  {
+    return mDispatcher.getSkippedFrameCount();
+  }
+
+  /**
+   * Turns capture on or off for every sink, for instance when playback ends.
+   * Capture also needs at least one sink to run
+   */
+  public synchronized void setEnabled(boolean enabled)
+  {
+    mEnabled = enabled;
+    updateCapture();
+  }
+
+  /**
+   * Disables capture when the player finishes. A player has a single
+   * completion listener, so this replaces any that is already set
+   */
+  public void disableOnCompletion(MediaPlayer player)
+  {
+    player.setOnCompletionListener(new MediaPlayer.OnCompletionListener()
+    {
+      @Override
+      public void onCompletion(MediaPlayer mediaPlayer)
+      {
+        setEnabled(false);
+      }
+    });
+  }
+
+  /**
+   * Changes the capture size and rate for every sink. The Visualizer only
+   * accepts a new size while disabled, so capture is briefly stopped
+   * @param captureSize - Capture size in samples, a power of two within
+   * Visualizer.getCaptureSizeRange()
+   * @param captureRate - Capture rate in milliHertz, at most
+   * Visualizer.getMaxCaptureRate()
+   */
+  public synchronized void setCapture(int captureSize, int captureRate)
+  {
+    if(mReleased || (captureSize == mCaptureSize && captureRate == mCaptureRate))
+    {
+      return;
+    }
+
+    boolean capturing = mCapturing;
+    if(capturing)
+    {
+      mVisualizer.setEnabled(false);
+    }
+    if(captureSize != mCaptureSize)
+    {
+      mVisualizer.setCaptureSize(captureSize);
+      mCaptureSize = captureSize;
+    }
+    if(captureRate != mCaptureRate)
+    {
+      mVisualizer.setDataCaptureListener(mCaptureListener, captureRate,
+          mCaptureWaveform, mCaptureFFT);
+      mCaptureRate = captureRate;
+    }
+    if(capturing)
+    {
+      mVisualizer.setEnabled(true);
+    }
+  }
+
+  public synchronized int getCaptureSize()
+  {
+    return mCaptureSize;
+  }
+
+  /**
+   * @return Capture rate in milliHertz
+   */
+  public synchronized int getCaptureRate()
+  {
+    return mCaptureRate;
+  }
+
+  private void updateCapture()
+  {
+    boolean capture = mEnabled && mDispatcher.getDataKinds() != 0 && !mReleased;
+    if(capture != mCapturing)
+    {
+      mCapturing = capture;
+      mVisualizer.setEnabled(capture);
+    }
+  }
+
+  /**
+   * Analysis shared by all sinks. Configure smoothing and beat detection
+   * here, as frames reach the sinks already analyzed. Call updateDataKinds
+   * after setting a spectrum analyzer, so the waveform is captured for it
+   */
+  public FrameAnalyzer getAnalyzer()
+  {
+    return mDispatcher.getAnalyzer();
+  }
+
+  public int getAudioSessionId()
+  {
+    return mAudioSessionId;
+  }
+
+  public int getSinkCount()
+  {
+    return mDispatcher.getSinkCount();
+  }
+}
@@ -6,7 +6,9 @@
  */
 package com.pheelicks.visualizer;
 
-// Data class to explicitly indicate that these bytes are the FFT of audio data
+// Data class to explicitly indicate that these bytes are the FFT of audio data.
+// The bytes field is mutable, so that a single instance can be reused
+// for every frame rather than allocating a new one
 public class FFTData
 {
   public FFTData(byte[] bytes)
@@ -14,5 +16,137 @@ public class FFTData
     this.bytes = bytes;
   }
 
+  /**
+   * Copies bytes into this frame. The existing array is reused when the
+   * length matches, so repeated calls with one capture size don't allocate
+   * @param src - Bytes to copy
+   * @param timestamp - System.nanoTime() at which the bytes were captured
+   */
+  public void set(byte[] src, long timestamp)
+  {
+    if (bytes == null || bytes.length != src.length) {
+      bytes = new byte[src.length];
+    }
+    System.arraycopy(src, 0, bytes, 0, src.length);
+    timestampNanos = timestamp;
+    analyzed = false;
+  }
+
+  /**
+   * Copies another frame into this one, including the results of analysis,
+   * so a frame analyzed once can be handed to several views. Arrays are
+   * reused when they are long enough
+   * @param src - Frame to copy
+   */
+  public void copyFrom(FFTData src)
+  {
+    set(src.bytes, src.timestampNanos);
+    samplingRate = src.samplingRate;
+    analyzed = src.analyzed;
+    if (!analyzed) {
+      return;
+    }
+
+    bins = src.bins;
+    magnitudes = copy(src.magnitudes, magnitudes, bins);
+    decibels = copy(src.decibels, decibels, bins);
+    bands = src.bands;
+    bandEnergies = copy(src.bandEnergies, bandEnergies, bands);
+    spectrumBins = src.spectrumBins;
+    if (spectrumBins > 0) {
+      spectrumDecibels = copy(src.spectrumDecibels, spectrumDecibels, spectrumBins);
+    }
+    smoothed = src.smoothed;
+    if (smoothed) {
+      int levelBins = levelBins();
+      smoothedDecibels = copy(src.smoothedDecibels, smoothedDecibels, levelBins);
+      peakDecibels = copy(src.peakDecibels, peakDecibels, levelBins);
+      averageDecibels = copy(src.averageDecibels, averageDecibels, levelBins);
+    }
+    beat = src.beat;
+    beatStrength = src.beatStrength;
+  }
+
+  private static float[] copy(float[] src, float[] dst, int length)
+  {
+    if (dst == null || dst.length < length) {
+      dst = new float[length];
+    }
+    System.arraycopy(src, 0, dst, 0, length);
+    return dst;
+  }
+
   public byte[] bytes;
+  public long timestampNanos;
+  // Sample rate of the audio the FFT was taken from in Hz, 0 if unknown
+  public int samplingRate;
+
+  // Assumed when samplingRate is unknown
+  public static final int DEFAULT_SAMPLING_RATE = 44100;
+
+  /**
+   * @return samplingRate, or DEFAULT_SAMPLING_RATE if it isn't known
+   */
+  public int getSamplingRateOrDefault()
+  {
+    return samplingRate > 0 ? samplingRate : DEFAULT_SAMPLING_RATE;
+  }
+
+  // Features computed once per frame by FrameAnalyzer, so that renderers
+  // don't each have to derive them from the bytes. Bin k is made up of
+  // bytes[2k] and bytes[2k + 1]. The arrays may be longer than bins
+  public boolean analyzed;
+  public int bins;
+  // re * re + im * im of each bin
+  public float[] magnitudes;
+  // 10 * log10 of each magnitude
+  public float[] decibels;
+  // Total magnitude in octave wide bands: bins [0, 2), [2, 4), [4, 8)...
+  public int bands;
+  public float[] bandEnergies;
+  // Decibels of a floating point spectrum of the waveform, on the same
+  // scale as decibels but without the steps and floor of 8-bit bins. Bin k
+  // is at k / spectrumBins of half the sampling rate. Only filled in if the
+  // analyzer has a SpectrumAnalyzer, otherwise spectrumBins is 0
+  public int spectrumBins;
+  public float[] spectrumDecibels;
+  // Decibels after temporal smoothing, of the float spectrum if there is
+  // one. Only filled in if the analyzer has a SpectrumSmoother, in which
+  // case smoothed is true
+  public boolean smoothed;
+  public float[] smoothedDecibels;
+  public float[] peakDecibels;
+  public float[] averageDecibels;
+  // Onset detection. Only filled in if the analyzer has a BeatDetector
+  public boolean beat;
+  public float beatStrength;
+
+  /**
+   * @return Smoothed decibels if available, otherwise the decibels of the
+   * float spectrum if there is one, otherwise the raw decibels. Has
+   * levelBins() bins
+   */
+  public float[] levels()
+  {
+    if (smoothed) {
+      return smoothedDecibels;
+    }
+    return spectrumBins > 0 ? spectrumDecibels : decibels;
+  }
+
+  /**
+   * @return Number of bins in levels(), spanning 0 to half the sampling rate
+   */
+  public int levelBins()
+  {
+    return spectrumBins > 0 ? spectrumBins : bins;
+  }
+
+  /**
+   * @return Index into levels() of the frequency of bin of the bytes
+   */
+  public int levelIndex(int bin)
+  {
+    return spectrumBins > 0 ? (int) ((long) bin * spectrumBins / bins) : bin;
+  }
 }
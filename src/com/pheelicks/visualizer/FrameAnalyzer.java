@@ -0,0 +1,232 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer;
+
+import com.pheelicks.visualizer.dsp.BeatDetector;
+import com.pheelicks.visualizer.dsp.SpectralMath;
+import com.pheelicks.visualizer.dsp.SpectrumAnalyzer;
+import com.pheelicks.visualizer.dsp.SpectrumSmoother;
+
+/**
+ * Analysis stage of the render pipeline. Computes the per-frame features of
+ * {@link AudioData} and {@link FFTData} once, before they are handed to the
+ * renderers, so that adding renderers only adds the cost of drawing.
+ *
+ * Feature arrays live on the data objects and are only reallocated when the
+ * capture size changes.
+ */
+public class FrameAnalyzer
+{
+  // A full scale sine has a magnitude of 1 from SpectrumAnalyzer, and of
+  // about 64 in FFT bytes. Adding this puts the float spectrum on the
+  // bytes' scale, which renderers are tuned for
+  private static final float SPECTRUM_OFFSET_DECIBELS = (float) (20 * Math.log10(64));
+
+  private volatile SpectrumSmoother mSmoother;
+  private volatile BeatDetector mBeatDetector;
+  private volatile SpectrumAnalyzer mSpectrumAnalyzer;
+
+  /**
+   * Smooths the decibels of each FFT frame over time. The results are put in
+   * {@link FFTData#smoothedDecibels} and friends
+   * @param smoother - Smoother to use, or null to stop smoothing
+   */
+  public void setSmoother(SpectrumSmoother smoother)
+  {
+    mSmoother = smoother;
+  }
+
+  /**
+   * Runs onset detection on each FFT frame. The results are put in
+   * {@link FFTData#beat} and {@link FFTData#beatStrength}
+   * @param detector - Detector to use, or null to stop detecting beats
+   */
+  public void setBeatDetector(BeatDetector detector)
+  {
+    mBeatDetector = detector;
+  }
+
+  public BeatDetector getBeatDetector()
+  {
+    return mBeatDetector;
+  }
+
+  public SpectrumSmoother getSmoother()
+  {
+    return mSmoother;
+  }
+
+  /**
+   * Computes a floating point spectrum from the samples of each waveform,
+   * which is put in {@link FFTData#spectrumDecibels} of the FFT frames
+   * analyzed after it. It keeps the dynamic range of the samples rather
+   * than that of 8-bit FFT bytes, most of all for full resolution samples.
+   * Needs the waveform analyzed before the FFT of each capture. Sized like
+   * the captures with no overlap, each waveform makes one spectrum
+   * @param analyzer - Analyzer to use, or null to only use the FFT bytes
+   */
+  public void setSpectrumAnalyzer(SpectrumAnalyzer analyzer)
+  {
+    mSpectrumAnalyzer = analyzer;
+  }
+
+  public SpectrumAnalyzer getSpectrumAnalyzer()
+  {
+    return mSpectrumAnalyzer;
+  }
+
+  /**
+   * Converts the bytes of a waveform to samples, unless they were set at full
+   * resolution, and computes the RMS and peak level. Does nothing if the
+   * frame has already been analyzed
+   * @param data - Waveform to analyze
+   */
+  public void analyze(AudioData data)
+  {
+    if (data.analyzed || data.bytes == null) {
+      return;
+    }
+
+    if (data.sampleCount == 0) {
+      byte[] bytes = data.bytes;
+      data.ensureSampleCapacity(bytes.length);
+      float[] samples = data.samples;
+      for (int i = 0; i < bytes.length; i++) {
+        samples[i] = ((bytes[i] & 0xff) - 128) / 128f;
+      }
+      data.sampleCount = bytes.length;
+    }
+
+    float[] samples = data.samples;
+    int count = data.sampleCount;
+    float sum = 0;
+    float peak = 0;
+    for (int i = 0; i < count; i++) {
+      float sample = samples[i];
+      sum += sample * sample;
+      peak = Math.max(peak, Math.abs(sample));
+    }
+
+    data.rms = count > 0 ? (float) Math.sqrt(sum / count) : 0;
+    data.peak = peak;
+    SpectrumAnalyzer spectrum = mSpectrumAnalyzer;
+    if (spectrum != null) {
+      spectrum.process(samples, 0, count);
+    }
+    data.analyzed = true;
+  }
+
+  /**
+   * Computes magnitudes, decibels and band energies of an FFT, and adds the
+   * latest float spectrum if there is one. Does nothing if the frame has
+   * already been analyzed
+   * @param data - FFT to analyze
+   */
+  public void analyze(FFTData data)
+  {
+    if (data.analyzed || data.bytes == null) {
+      return;
+    }
+
+    byte[] bytes = data.bytes;
+    int bins = bytes.length / 2;
+    int bands = bins > 2 ? bandOf(bins - 1) + 1 : Math.min(bins, 1);
+    if (data.magnitudes == null || data.magnitudes.length < bins) {
+      data.magnitudes = new float[bins];
+      data.decibels = new float[bins];
+    }
+    if (data.bandEnergies == null || data.bandEnergies.length < bands) {
+      data.bandEnergies = new float[bands];
+    }
+
+    float[] magnitudes = data.magnitudes;
+    float[] decibels = data.decibels;
+    float[] bandEnergies = data.bandEnergies;
+    for (int b = 0; b < bands; b++) {
+      bandEnergies[b] = 0;
+    }
+
+    for (int k = 0; k < bins; k++) {
+      byte rfk = bytes[2 * k];
+      byte ifk = bytes[2 * k + 1];
+      magnitudes[k] = SpectralMath.magnitudeSquared(rfk, ifk);
+      decibels[k] = SpectralMath.decibels(rfk, ifk);
+      bandEnergies[bandOf(k)] += magnitudes[k];
+    }
+
+    data.bins = bins;
+    data.bands = bands;
+    fillSpectrum(data);
+    smooth(data);
+    detectBeat(data);
+    data.analyzed = true;
+  }
+
+  private void fillSpectrum(FFTData data)
+  {
+    SpectrumAnalyzer analyzer = mSpectrumAnalyzer;
+    if (analyzer == null || !analyzer.hasSpectrum()) {
+      data.spectrumBins = 0;
+      return;
+    }
+
+    // Without the Nyquist bin, so the bins span [0, fs / 2) like the bytes
+    int bins = analyzer.getSize() / 2;
+    if (data.spectrumDecibels == null || data.spectrumDecibels.length < bins) {
+      data.spectrumDecibels = new float[bins];
+    }
+    float[] magnitudes = analyzer.getMagnitudes();
+    float[] decibels = data.spectrumDecibels;
+    for (int k = 0; k < bins; k++) {
+      decibels[k] = SpectralMath.decibels(magnitudes[k] * magnitudes[k]) + SPECTRUM_OFFSET_DECIBELS;
+    }
+    data.spectrumBins = bins;
+  }
+
+  private void smooth(FFTData data)
+  {
+    SpectrumSmoother smoother = mSmoother;
+    data.smoothed = smoother != null;
+    if (smoother == null) {
+      return;
+    }
+
+    int bins = data.levelBins();
+    smoother.process(data.spectrumBins > 0 ? data.spectrumDecibels : data.decibels,
+        bins, data.timestampNanos);
+    if (data.smoothedDecibels == null || data.smoothedDecibels.length < bins) {
+      data.smoothedDecibels = new float[bins];
+      data.peakDecibels = new float[bins];
+      data.averageDecibels = new float[bins];
+    }
+    // Copied, as the smoother's arrays change with the next frame
+    System.arraycopy(smoother.getSmoothed(), 0, data.smoothedDecibels, 0, bins);
+    System.arraycopy(smoother.getPeaks(), 0, data.peakDecibels, 0, bins);
+    System.arraycopy(smoother.getAverage(), 0, data.averageDecibels, 0, bins);
+  }
+
+  private void detectBeat(FFTData data)
+  {
+    BeatDetector detector = mBeatDetector;
+    if (detector == null) {
+      data.beat = false;
+      data.beatStrength = 0;
+      return;
+    }
+
+    // Use the raw levels, smoothing would blur the onsets
+    data.beat = detector.process(data.decibels, data.bins,
+        data.getSamplingRateOrDefault(), data.timestampNanos);
+    data.beatStrength = detector.getBeatStrength();
+  }
+
+  // Bins 0 and 1 share band 0, after that each band is an octave
+  private static int bandOf(int bin)
+  {
+    return bin < 2 ? 0 : 31 - Integer.numberOfLeadingZeros(bin);
+  }
+}
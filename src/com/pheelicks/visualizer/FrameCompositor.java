@@ -0,0 +1,411 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer;
+
+import com.pheelicks.visualizer.graphics.BlendMode;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.Brush;
+import com.pheelicks.visualizer.graphics.DirtyTrackingCanvas;
+import com.pheelicks.visualizer.graphics.RecordingCanvas;
+import com.pheelicks.visualizer.graphics.VisualizerCanvas;
+import com.pheelicks.visualizer.renderer.Renderer;
+
+/**
+ * Draws one frame of the visualization: analyzes the latest captures, runs
+ * the renderers over them and applies the fade and flash effects.
+ *
+ * This is everything VisualizerView does per frame which doesn't depend on
+ * Android, so the same frames can be produced off device, e.g. by
+ * {@link com.pheelicks.visualizer.offline.OfflineRenderer}. The canvas has to
+ * keep its contents between frames for the fade to leave trails.
+ *
+ * With dirty tracking on, the fade is only applied to the area drawn in over
+ * the last few frames, as long as it takes the fade to clear a pixel, and
+ * {@link #getDirtyBounds(Bounds)} reports the area which changed.
+ */
+public class FrameCompositor
+{
+  /**
+   * How older frames are made to fade away
+   */
+  public enum TrailMode
+  {
+    /**
+     * The canvas is faded by the fade brush every frame, before drawing the
+     * next one over it. Costs a read and write of every pixel per frame
+     */
+    FADE,
+    /**
+     * The drawing of the last few frames is recorded, and every frame the
+     * canvas is cleared and they are redrawn, older ones more transparent.
+     * Costs drawing the renderers' geometry several times over instead, so
+     * suits large canvases with little drawn on them
+     */
+    GEOMETRY
+  }
+
+  private final FrameAnalyzer mAnalyzer;
+  private final Brush mFlashBrush = new Brush();
+  private final Brush mFadeBrush = new Brush();
+
+  private volatile boolean mFlashOnBeat = false;
+  private volatile boolean mFlash = false;
+
+  private volatile boolean mDirtyTrackingRequested = false;
+  private boolean mDirtyTracking = false;
+  private final DirtyTrackingCanvas mTracker = new DirtyTrackingCanvas();
+  // Bounds drawn in each of the last mTrail.length frames, oldest first
+  private Bounds[] mTrail = new Bounds[0];
+  private int mTrailStart = 0;
+  private int mTrailFadeVersion = -1;
+  private final Bounds mLastBounds = new Bounds();
+  private final Bounds mDirty = new Bounds();
+
+  private volatile TrailMode mTrailModeRequested = TrailMode.FADE;
+  private volatile int mTrailFramesRequested = 8;
+  private TrailMode mTrailMode = TrailMode.FADE;
+  // Recordings of the last frames in GEOMETRY mode, oldest at mHistoryStart
+  private RecordingCanvas[] mHistory = new RecordingCanvas[0];
+  private int mHistoryStart = 0;
+  // Area drawn in by the last frame in GEOMETRY mode, which has to be cleared
+  private final Bounds mDrawn = new Bounds();
+  private final Brush mClearBrush = new Brush();
+
+  public FrameCompositor()
+  {
+    this(new FrameAnalyzer());
+  }
+
+  /**
+   * @param analyzer - Analyzer to run over each frame before rendering
+   */
+  public FrameCompositor(FrameAnalyzer analyzer)
+  {
+    mAnalyzer = analyzer;
+    mFlashBrush.setColor(Brush.argb(122, 255, 255, 255));
+    mFadeBrush.setColor(Brush.argb(238, 255, 255, 255)); // Adjust alpha to change how quickly the image fades
+    mFadeBrush.setBlendMode(BlendMode.MULTIPLY);
+    mClearBrush.setBlendMode(BlendMode.CLEAR);
+  }
+
+  public FrameAnalyzer getAnalyzer()
+  {
+    return mAnalyzer;
+  }
+
+  /**
+   * @return Brush drawn over the whole frame after rendering, to fade out
+   * older frames
+   */
+  public Brush getFadeBrush()
+  {
+    return mFadeBrush;
+  }
+
+  /**
+   * @return Brush drawn over the whole frame to flash it
+   */
+  public Brush getFlashBrush()
+  {
+    return mFlashBrush;
+  }
+
+  /**
+   * @param flashOnBeat - If true the frame flashes on every beat
+   */
+  public void setFlashOnBeat(boolean flashOnBeat)
+  {
+    mFlashOnBeat = flashOnBeat;
+  }
+
+  /**
+   * Flashes the next frame. Safe to call from any thread
+   */
+  public void flash()
+  {
+    mFlash = true;
+  }
+
+  /**
+   * Chooses how older frames fade away. Takes effect from the next frame
+   * @param mode - How to fade. Default FADE
+   * @param frames - Number of frames kept in GEOMETRY mode. Ignored by FADE,
+   * which fades by the alpha of the fade brush
+   */
+  public void setTrailMode(TrailMode mode, int frames)
+  {
+    mTrailFramesRequested = Math.max(1, frames);
+    mTrailModeRequested = mode;
+  }
+
+  public TrailMode getTrailMode()
+  {
+    return mTrailModeRequested;
+  }
+
+  /**
+   * @return Whether the canvas passed to composite has to hold the previous
+   * frame. If not, the caller needn't preserve it
+   */
+  public boolean needsPreviousFrame()
+  {
+    // Dirty tracking only clears or fades what it knows has been drawn
+    return mTrailModeRequested == TrailMode.FADE || mDirtyTrackingRequested;
+  }
+
+  /**
+   * @param enabled - If true, only fade the area recently drawn in and keep
+   * track of what changed in each frame. Takes effect from the next frame
+   */
+  public void setDirtyTracking(boolean enabled)
+  {
+    mDirtyTrackingRequested = enabled;
+  }
+
+  /**
+   * @param out - Receives the area changed by the last frame. The whole
+   * frame if dirty tracking is off
+   */
+  public void getDirtyBounds(Bounds out)
+  {
+    out.set(mDirty);
+  }
+
+  /**
+   * Draws a frame
+   * @param canvas - Canvas holding the previous frame, to draw into. See
+   * {@link #needsPreviousFrame()}
+   * @param bounds - Bounds to render into
+   * @param renderers - Renderers to run, in order
+   * @param audioData - Latest waveform capture, its bytes may be null
+   * @param fftData - Latest FFT capture, its bytes may be null
+   * @param newFFT - Whether fftData hasn't been drawn before. Beats are only
+   * reported the first time their frame is drawn
+   * @return Whether there was a beat in this frame
+   */
+  public boolean composite(VisualizerCanvas canvas, Bounds bounds, Renderer[] renderers,
+      AudioData audioData, FFTData fftData, boolean newFFT)
+  {
+    boolean tracking = mDirtyTrackingRequested;
+    TrailMode mode = mTrailModeRequested;
+    if(tracking != mDirtyTracking || mode != mTrailMode || !bounds.equals(mLastBounds))
+    {
+      // Anything could be on the canvas, so it all has to fade
+      mDirtyTracking = tracking;
+      mTrailMode = mode;
+      mLastBounds.set(bounds);
+      resetTrail(bounds);
+      mDrawn.set(bounds);
+      for(int i = 0; i < mHistory.length; i++)
+      {
+        mHistory[i].reset(bounds.width(), bounds.height());
+      }
+    }
+
+    VisualizerCanvas target = canvas;
+    if(mode == TrailMode.GEOMETRY)
+    {
+      // Draw into a recording, which is then replayed along with older ones
+      canvas = nextHistoryFrame(bounds);
+    }
+    else if(tracking)
+    {
+      mTracker.setCanvas(canvas);
+      mTracker.reset();
+      canvas = mTracker;
+    }
+
+    // The waveform first, as the FFT takes the float spectrum made from it
+    if (audioData.bytes != null) {
+      mAnalyzer.analyze(audioData);
+    }
+    if (fftData.bytes != null) {
+      mAnalyzer.analyze(fftData);
+    }
+    boolean beat = newFFT && fftData.bytes != null && fftData.beat;
+
+    if (audioData.bytes != null) {
+      audioData.beat = beat;
+
+      // Render all audio renderers
+      for(int i = 0; i < renderers.length; i++)
+      {
+        renderers[i].render(canvas, audioData, bounds);
+      }
+    }
+
+    if (fftData.bytes != null) {
+      // Render all FFT renderers
+      for(int i = 0; i < renderers.length; i++)
+      {
+        renderers[i].render(canvas, fftData, bounds);
+      }
+    }
+
+    if(beat && mFlashOnBeat)
+    {
+      mFlash = true;
+    }
+
+    if(mode == TrailMode.GEOMETRY)
+    {
+      if(mFlash)
+      {
+        // Recorded, so the flash fades like everything else
+        mFlash = false;
+        canvas.drawPaint(mFlashBrush);
+      }
+      drawHistory(target, bounds, tracking);
+      return beat;
+    }
+
+    if(!tracking)
+    {
+      // Fade out old contents
+      canvas.drawPaint(mFadeBrush);
+      mDirty.set(bounds);
+    }
+    else
+    {
+      // Fade out old contents, wherever there can be any
+      addToTrail(mTracker.getDirtyBounds());
+      mDirty.setEmpty();
+      for(int i = 0; i < mTrail.length; i++)
+      {
+        mDirty.union(mTrail[i]);
+      }
+      if(!mDirty.isEmpty())
+      {
+        canvas.drawRect(mDirty, mFadeBrush);
+      }
+    }
+
+    if(mFlash)
+    {
+      mFlash = false;
+      canvas.drawPaint(mFlashBrush);
+      if(tracking)
+      {
+        addToTrail(bounds);
+      }
+      mDirty.set(bounds);
+    }
+    return beat;
+  }
+
+  private RecordingCanvas nextHistoryFrame(Bounds bounds)
+  {
+    int frames = mTrailFramesRequested;
+    if(mHistory.length != frames)
+    {
+      mHistory = new RecordingCanvas[frames];
+      for(int i = 0; i < frames; i++)
+      {
+        mHistory[i] = new RecordingCanvas();
+      }
+      mHistoryStart = 0;
+    }
+
+    // The oldest recording is replaced by the new frame
+    RecordingCanvas frame = mHistory[mHistoryStart];
+    mHistoryStart = (mHistoryStart + 1) % frames;
+    frame.reset(bounds.width(), bounds.height());
+    return frame;
+  }
+
+  // Clears the canvas and replays the recorded frames, oldest and faintest first
+  private void drawHistory(VisualizerCanvas canvas, Bounds bounds, boolean tracking)
+  {
+    if(tracking)
+    {
+      if(!mDrawn.isEmpty())
+      {
+        canvas.drawRect(mDrawn, mClearBrush);
+      }
+      mTracker.setCanvas(canvas);
+      mTracker.reset();
+      canvas = mTracker;
+    }
+    else
+    {
+      canvas.drawPaint(mClearBrush);
+    }
+
+    int frames = mHistory.length;
+    for(int i = 0; i < frames; i++)
+    {
+      RecordingCanvas frame = mHistory[(mHistoryStart + i) % frames];
+      if(!frame.isEmpty())
+      {
+        frame.replay(canvas, (i + 1) / (float) frames);
+      }
+    }
+
+    if(tracking)
+    {
+      // Changed: what was cleared, and what was drawn
+      mDirty.set(mDrawn);
+      mDrawn.set(mTracker.getDirtyBounds());
+      mDirty.union(mDrawn);
+    }
+    else
+    {
+      mDirty.set(bounds);
+    }
+  }
+
+  private void resetTrail(Bounds bounds)
+  {
+    mTrailFadeVersion = -1;
+    ensureTrail();
+    for(int i = 0; i < mTrail.length; i++)
+    {
+      mTrail[i].set(bounds);
+    }
+  }
+
+  // Sizes the trail for how many frames the fade takes to clear a pixel
+  private void ensureTrail()
+  {
+    if(mTrailFadeVersion == mFadeBrush.getVersion())
+    {
+      return;
+    }
+    mTrailFadeVersion = mFadeBrush.getVersion();
+
+    // Each fade scales a pixel by alpha / 255, a bright pixel has gone
+    // after log(1 / 255) / log(alpha / 255) of them
+    double keep = Math.max(1, mFadeBrush.getAlpha()) / 255.0;
+    int frames = keep >= 1 ? 256 : (int) Math.ceil(Math.log(1 / 255.0) / Math.log(keep));
+    frames = Math.max(1, Math.min(256, frames));
+
+    if(frames != mTrail.length)
+    {
+      Bounds[] trail = new Bounds[frames];
+      Bounds all = new Bounds();
+      for(int i = 0; i < mTrail.length; i++)
+      {
+        all.union(mTrail[i]);
+      }
+      for(int i = 0; i < frames; i++)
+      {
+        // When resizing keep everything which might still be fading
+        trail[i] = new Bounds();
+        trail[i].set(all);
+      }
+      mTrail = trail;
+      mTrailStart = 0;
+    }
+  }
+
+  private void addToTrail(Bounds drawn)
+  {
+    ensureTrail();
+    mTrail[mTrailStart].set(drawn);
+    mTrailStart = (mTrailStart + 1) % mTrail.length;
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turns requests for frames, which may come from several threads and at any
+ * rate, into at most one frame per frame interval, in the manner of
+ * android.view.Choreographer (which needs API 16).
+ *
+ * The first request after a frame posts a callback timed for one interval
+ * after that frame; any more requests before the callback runs are merged
+ * into it. Time comes from a {@link Clock}, so the scheduling can be driven
+ * by a fake clock.
+ */
+public class FrameScheduler
+{
+  public interface Clock
+  {
+    long nanoTime();
+  }
+
+  /**
+   * Runs frames for the scheduler
+   */
+  public interface Host
+  {
+    /**
+     * Arrange for {@link FrameScheduler#doFrame()} and the drawing to be run
+     * after a delay, on the thread which draws. Called from any thread
+     */
+    void postFrame(long delayNanos);
+  }
+
+  public static final Clock SYSTEM_CLOCK = new Clock() {
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+  };
+
+  private final Clock mClock;
+  private final Host mHost;
+  private volatile long mFrameIntervalNanos = 1000000000L / 60;
+
+  private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+  private volatile long mLastFrameNanos;
+  private final AtomicLong mRequests = new AtomicLong();
+  private final AtomicLong mFrames = new AtomicLong();
+
+  public FrameScheduler(Clock clock, Host host)
+  {
+    mClock = clock;
+    mHost = host;
+    // So the first request is run straight away
+    mLastFrameNanos = clock.nanoTime() - mFrameIntervalNanos;
+  }
+
+  /**
+   * @param framesPerSecond - Most frames to run per second. Default 60,
+   * which is the refresh rate of most displays
+   */
+  public void setFrameRate(float framesPerSecond)
+  {
+    mFrameIntervalNanos = (long) (1e9 / framesPerSecond);
+  }
+
+  public long getFrameIntervalNanos()
+  {
+    return mFrameIntervalNanos;
+  }
+
+  /**
+   * Asks for a frame. Safe to call from any thread
+   */
+  public void requestFrame()
+  {
+    mRequests.incrementAndGet();
+    if(mScheduled.compareAndSet(false, true))
+    {
+      long delay = mLastFrameNanos + mFrameIntervalNanos - mClock.nanoTime();
+      mHost.postFrame(Math.max(0, delay));
+    }
+  }
+
+  /**
+   * Call from the posted callback, before drawing. Requests made from now on
+   * are for the next frame
+   * @return Time of the frame
+   */
+  public long doFrame()
+  {
+    long now = mClock.nanoTime();
+    mLastFrameNanos = now;
+    mFrames.incrementAndGet();
+    mScheduled.set(false);
+    return now;
+  }
+
+  /**
+   * Call if the host drops a posted callback without running it, e.g. when
+   * the view is detached, so later requests aren't ignored
+   */
+  public void cancel()
+  {
+    mScheduled.set(false);
+  }
+
+  /**
+   * @return Whether a frame has been posted and not yet run
+   */
+  public boolean isFrameScheduled()
+  {
+    return mScheduled.get();
+  }
+
+  /**
+   * @return Number of calls to requestFrame
+   */
+  public long getRequestCount()
+  {
+    return mRequests.get();
+  }
+
+  /**
+   * @return Number of frames run. Requests minus frames is the number of
+   * requests merged into another one
+   */
+  public long getFrameCount()
+  {
+    return mFrames.get();
+  }
+}
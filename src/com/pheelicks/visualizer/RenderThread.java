@@ -0,0 +1,179 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+import com.pheelicks.visualizer.graphics.AndroidCanvas;
+
+/**
+ * Renders frames for a {@link VisualizerView} away from the UI thread.
+ *
+ * Two bitmaps are used: the front buffer is the one shown by onDraw, the back
+ * buffer is the one being rendered into. When a frame is complete the buffers
+ * are swapped by flipping an atomic index, so neither thread ever blocks on
+ * the other. A new frame is only started once the UI thread has shown the
+ * previous one, which guarantees the back buffer is never being displayed.
+ *
+ * That also makes the back buffer the one to replace when the size or format
+ * changes: it goes straight back to the {@link BitmapPool}, and the other is
+ * replaced the frame after, once it has been swapped to the back.
+ */
+class RenderThread extends Thread
+{
+  private final VisualizerView mView;
+
+  private final Bitmap[] mBitmaps = new Bitmap[2];
+  private final AndroidCanvas[] mCanvases = new AndroidCanvas[2];
+  // Reused for carrying the previous frame over
+  private final Rect mSource = new Rect();
+  private final Rect mDestination = new Rect();
+
+  // Index of the buffer which is currently displayed
+  private final AtomicInteger mFront = new AtomicInteger(0);
+  // Set when a frame has been swapped in, but not yet drawn by the UI thread
+  private final AtomicBoolean mFramePending = new AtomicBoolean(false);
+  // Set when new data has arrived which hasn't been rendered yet
+  private final AtomicBoolean mRenderRequested = new AtomicBoolean(false);
+
+  private volatile boolean mRunning = true;
+
+  RenderThread(VisualizerView view)
+  {
+    super("VisualizerRenderThread");
+    mView = view;
+  }
+
+  /**
+   * Asks for a new frame to be rendered. Safe to call from any thread
+   */
+  void requestRender()
+  {
+    mRenderRequested.set(true);
+    LockSupport.unpark(this);
+  }
+
+  /**
+   * Stops the thread. Safe to call from any thread
+   */
+  void quit()
+  {
+    mRunning = false;
+    LockSupport.unpark(this);
+  }
+
+  /**
+   * Called from onDraw on the UI thread to show the latest complete frame
+   * @param canvas - Canvas of the view
+   */
+  void drawFrontBuffer(Canvas canvas)
+  {
+    int index = mFront.get();
+    Bitmap front = mBitmaps[index];
+    if(front != null)
+    {
+      mView.drawBuffer(canvas, front);
+    }
+
+    // The back buffer is free to be drawn into again, unless the buffers
+    // were swapped during the draw, which then used what is now the back
+    // buffer. The swap invalidated the view, so the next draw will free it
+    if(mFront.get() == index)
+    {
+      mFramePending.set(false);
+      LockSupport.unpark(this);
+    }
+  }
+
+  @Override
+  public void run()
+  {
+    while(mRunning)
+    {
+      if(mFramePending.get() || !mRenderRequested.getAndSet(false))
+      {
+        LockSupport.park(this);
+        continue;
+      }
+
+      int width = mView.getWidth();
+      int height = mView.getHeight();
+      if(width <= 0 || height <= 0)
+      {
+        continue;
+      }
+
+      int front = mFront.get();
+      int back = 1 - front;
+      ensureBackBuffer(back, width, height);
+
+      // Carry the previous frame over, so the fade effect has something to
+      // fade. After a resize only the back buffer has the new size, so the
+      // previous frame is stretched to it
+      AndroidCanvas canvas = mCanvases[back];
+      Bitmap previous = mBitmaps[front];
+      if(mView.needsPreviousFrame() && previous != null)
+      {
+        // The canvas is scaled to the view, the bitmaps aren't
+        Canvas backCanvas = canvas.getCanvas();
+        float scale = canvas.getScale();
+        backCanvas.save();
+        backCanvas.scale(1 / scale, 1 / scale);
+        mSource.set(0, 0, previous.getWidth(), previous.getHeight());
+        mDestination.set(0, 0, mBitmaps[back].getWidth(), mBitmaps[back].getHeight());
+        backCanvas.drawBitmap(previous, mSource, mDestination, null);
+        backCanvas.restore();
+      }
+      mView.renderFrame(canvas, width, height);
+
+      mFramePending.set(true);
+      mFront.set(back);
+      mView.postInvalidate();
+    }
+
+    // The UI thread has stopped drawing from this thread's buffers
+    for(int i = 0; i < mBitmaps.length; i++)
+    {
+      BitmapPool.getDefault().release(mBitmaps[i]);
+      mBitmaps[i] = null;
+    }
+  }
+
+  /**
+   * @return Bytes used by both buffers
+   */
+  long getBitmapMemoryBytes()
+  {
+    return BitmapPool.getBytes(mBitmaps[0]) + BitmapPool.getBytes(mBitmaps[1]);
+  }
+
+  // Replaces the back buffer if the size, format or scale has changed. The
+  // UI thread isn't drawing it, so the old one can be reused straight away
+  private void ensureBackBuffer(int back, int width, int height)
+  {
+    float scale = mView.getRenderScale();
+    Config config = mView.getBitmapConfig();
+    int scaledWidth = VisualizerView.getScaledSize(width, scale);
+    int scaledHeight = VisualizerView.getScaledSize(height, scale);
+    Bitmap bitmap = mBitmaps[back];
+    if(bitmap == null || bitmap.getWidth() != scaledWidth || bitmap.getHeight() != scaledHeight
+        || bitmap.getConfig() != config || mCanvases[back].getScale() != scale)
+    {
+      BitmapPool.getDefault().release(bitmap);
+      mBitmaps[back] = BitmapPool.getDefault().acquire(scaledWidth, scaledHeight, config);
+      mCanvases[back] = new AndroidCanvas();
+      mCanvases[back].setCanvas(new Canvas(mBitmaps[back]), scale);
+    }
+  }
+}
@@ -0,0 +1,318 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer;
+
+import com.pheelicks.visualizer.renderer.Renderer;
+
+/**
+ * Ordered set of renderers, safe to change from any thread while frames are
+ * being drawn.
+ *
+ * Renderers are drawn in order of z, lowest first so the highest ends up on
+ * top, and in the order they were added within the same z. Every change
+ * builds new arrays and publishes them with a volatile write, so the thread
+ * drawing only ever walks a complete array, never waits for a change and
+ * doesn't allocate. Changes are serialized with each other.
+ */
+public class RendererList
+{
+  /**
+   * Told after every change, on the thread which made it
+   */
+  public interface OnChangeListener
+  {
+    void onRenderersChanged(RendererList list);
+  }
+
+  private static final Renderer[] NONE = new Renderer[0];
+
+  private static final class Entry
+  {
+    final Renderer renderer;
+    final int z;
+    final long sequence;
+    final boolean enabled;
+
+    Entry(Renderer renderer, int z, long sequence, boolean enabled)
+    {
+      this.renderer = renderer;
+      this.z = z;
+      this.sequence = sequence;
+      this.enabled = enabled;
+    }
+
+    boolean drawsBefore(Entry other)
+    {
+      return z < other.z || (z == other.z && sequence < other.sequence);
+    }
+  }
+
+  // Sorted in drawing order. Only replaced, never modified, once published
+  private volatile Entry[] mEntries = new Entry[0];
+  // Enabled renderers in drawing order, for the thread drawing
+  private volatile Renderer[] mActive = NONE;
+  private volatile int mDataKinds = 0;
+  private long mNextSequence = 0;
+  private volatile OnChangeListener mListener;
+
+  public void setOnChangeListener(OnChangeListener listener)
+  {
+    mListener = listener;
+  }
+
+  /**
+   * Adds a renderer at z 0. Adding a renderer which is already in the list
+   * has no effect
+   */
+  public synchronized void add(Renderer renderer)
+  {
+    if(!contains(renderer))
+    {
+      add(renderer, 0);
+    }
+  }
+
+  /**
+   * Adds a renderer, or moves it if it is already in the list
+   * @param z - Renderers with a higher z are drawn over those with a lower z
+   */
+  public synchronized void add(Renderer renderer, int z)
+  {
+    if(renderer == null)
+    {
+      return;
+    }
+
+    int index = indexOf(renderer);
+    if(index >= 0)
+    {
+      if(mEntries[index].z != z)
+      {
+        setZOrder(renderer, z);
+      }
+      return;
+    }
+
+    Entry[] entries = mEntries;
+    Entry[] added = new Entry[entries.length + 1];
+    System.arraycopy(entries, 0, added, 0, entries.length);
+    added[entries.length] = new Entry(renderer, z, mNextSequence++, true);
+    publish(added);
+  }
+
+  /**
+   * @return true if the renderer was in the list
+   */
+  public synchronized boolean remove(Renderer renderer)
+  {
+    int index = indexOf(renderer);
+    if(index < 0)
+    {
+      return false;
+    }
+
+    Entry[] entries = mEntries;
+    Entry[] removed = new Entry[entries.length - 1];
+    System.arraycopy(entries, 0, removed, 0, index);
+    System.arraycopy(entries, index + 1, removed, index, entries.length - index - 1);
+    publish(removed);
+    return true;
+  }
+
+  public synchronized void clear()
+  {
+    publish(new Entry[0]);
+  }
+
+  /**
+   * Replaces every renderer in one step, so no frame is drawn with a mix of
+   * the old and new renderers. They are all enabled at z 0, in the given order
+   */
+  public synchronized void setAll(Renderer... renderers)
+  {
+    Entry[] entries = new Entry[renderers.length];
+    int count = 0;
+    for(Renderer renderer : renderers)
+    {
+      boolean duplicate = renderer == null;
+      for(int i = 0; i < count && !duplicate; i++)
+      {
+        duplicate = entries[i].renderer == renderer;
+      }
+      if(!duplicate)
+      {
+        entries[count++] = new Entry(renderer, 0, mNextSequence++, true);
+      }
+    }
+
+    Entry[] trimmed = new Entry[count];
+    System.arraycopy(entries, 0, trimmed, 0, count);
+    publish(trimmed);
+  }
+
+  /**
+   * Moves a renderer to a new z, after any renderers already at that z
+   * @return false if the renderer isn't in the list
+   */
+  public synchronized boolean setZOrder(Renderer renderer, int z)
+  {
+    int index = indexOf(renderer);
+    if(index < 0)
+    {
+      return false;
+    }
+
+    Entry[] entries = mEntries.clone();
+    entries[index] = new Entry(renderer, z, mNextSequence++, entries[index].enabled);
+    publish(entries);
+    return true;
+  }
+
+  /**
+   * Disabled renderers stay in the list, in place, but aren't drawn
+   * @return false if the renderer isn't in the list
+   */
+  public synchronized boolean setEnabled(Renderer renderer, boolean enabled)
+  {
+    int index = indexOf(renderer);
+    if(index < 0)
+    {
+      return false;
+    }
+
+    Entry[] entries = mEntries.clone();
+    Entry entry = entries[index];
+    entries[index] = new Entry(renderer, entry.z, entry.sequence, enabled);
+    publish(entries);
+    return true;
+  }
+
+  public boolean isEnabled(Renderer renderer)
+  {
+    Entry[] entries = mEntries;
+    for(Entry entry : entries)
+    {
+      if(entry.renderer == renderer)
+      {
+        return entry.enabled;
+      }
+    }
+    return false;
+  }
+
+  public boolean contains(Renderer renderer)
+  {
+    Entry[] entries = mEntries;
+    for(Entry entry : entries)
+    {
+      if(entry.renderer == renderer)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return Enabled renderers in drawing order. The array is shared and
+   * must not be modified, but it never changes once returned
+   */
+  public Renderer[] getActive()
+  {
+    return mActive;
+  }
+
+  /**
+   * @return Every renderer in drawing order, enabled or not. A new array
+   */
+  public Renderer[] getAll()
+  {
+    Entry[] entries = mEntries;
+    Renderer[] renderers = new Renderer[entries.length];
+    for(int i = 0; i < entries.length; i++)
+    {
+      renderers[i] = entries[i].renderer;
+    }
+    return renderers;
+  }
+
+  /**
+   * @return Kinds of data used by the enabled renderers, combined from their
+   * {@link Renderer#getDataKinds()} as they were when last added or enabled
+   */
+  public int getDataKinds()
+  {
+    return mDataKinds;
+  }
+
+  public int size()
+  {
+    return mEntries.length;
+  }
+
+  private int indexOf(Renderer renderer)
+  {
+    Entry[] entries = mEntries;
+    for(int i = 0; i < entries.length; i++)
+    {
+      if(entries[i].renderer == renderer)
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // Sorts a new array of entries and swaps it in. Renderer lists are short,
+  // so an insertion sort is plenty
+  private void publish(Entry[] entries)
+  {
+    for(int i = 1; i < entries.length; i++)
+    {
+      Entry entry = entries[i];
+      int j = i - 1;
+      while(j >= 0 && entry.drawsBefore(entries[j]))
+      {
+        entries[j + 1] = entries[j];
+        j--;
+      }
+      entries[j + 1] = entry;
+    }
+
+    int enabled = 0;
+    int kinds = 0;
+    for(Entry entry : entries)
+    {
+      if(entry.enabled)
+      {
+        enabled++;
+        kinds |= entry.renderer.getDataKinds();
+      }
+    }
+    Renderer[] active = enabled == 0 ? NONE : new Renderer[enabled];
+    int i = 0;
+    for(Entry entry : entries)
+    {
+      if(entry.enabled)
+      {
+        active[i++] = entry.renderer;
+      }
+    }
+
+    // Entries first, so anything which sees the new active array also sees
+    // the entries it came from
+    mEntries = entries;
+    mActive = active;
+    mDataKinds = kinds;
+
+    OnChangeListener listener = mListener;
+    if(listener != null)
+    {
+      listener.onRenderersChanged(this);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free handoff of frames from a single producer thread to a single
+ * consumer thread, using three preallocated slots.
+ *
+ * The producer fills the back slot and publishes it, the consumer picks up
+ * the most recently published slot as its front slot. The third slot sits in
+ * the middle, so neither side ever waits for the other or sees a slot which
+ * is still being written. If the producer publishes faster than the consumer
+ * picks up, older frames are dropped, so the consumer always gets the latest
+ * frame and latency stays bounded.
+ */
+public class TripleBuffer<T>
+{
+  private static final int INDEX_MASK = 0x3;
+  // Set on the middle index when it holds a frame the consumer hasn't seen
+  private static final int FRESH = 0x4;
+
+  private final Object[] mSlots;
+  private final AtomicInteger mMiddle = new AtomicInteger(1);
+  private int mBack = 0;  // Only touched by the producer
+  private int mFront = 2; // Only touched by the consumer
+
+  // Each counter has a single writer, so volatile is enough
+  private volatile long mPublishedFrames = 0;
+  private volatile long mDroppedFrames = 0;
+  private volatile long mStaleFrames = 0;
+
+  public TripleBuffer(T first, T second, T third)
+  {
+    mSlots = new Object[] { first, second, third };
+  }
+
+  /**
+   * Producer only. Slot to write the next frame into
+   */
+  @SuppressWarnings("unchecked")
+  public T getBack()
+  {
+    return (T) mSlots[mBack];
+  }
+
+  /**
+   * Producer only. Hands the back slot over to the consumer and takes a new
+   * back slot. If the previous frame was never picked up it is dropped
+   */
+  public void publish()
+  {
+    int previous = mMiddle.getAndSet(mBack | FRESH);
+    if ((previous & FRESH) != 0) {
+      mDroppedFrames++;
+    }
+    mBack = previous & INDEX_MASK;
+    mPublishedFrames++;
+  }
+
+  /**
+   * Consumer only. Swaps in the most recently published frame, if there is one
+   * @return true if the front slot now holds a new frame, false if it is stale
+   */
+  public boolean update()
+  {
+    if ((mMiddle.get() & FRESH) == 0) {
+      // Only the producer can set the flag, so nothing new to pick up
+      mStaleFrames++;
+      return false;
+    }
+    mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+    return true;
+  }
+
+  /**
+   * Consumer only. Slot holding the latest frame picked up by {@link #update()}
+   */
+  @SuppressWarnings("unchecked")
+  public T getFront()
+  {
+    return (T) mSlots[mFront];
+  }
+
+  /**
+   * Any thread. If a published frame is still waiting to be picked up, the
+   * next publish will drop it
+   * @return true if the consumer hasn't picked up the latest frame
+   */
+  public boolean isPending()
+  {
+    return (mMiddle.get() & FRESH) != 0;
+  }
+
+  public long getPublishedFrameCount()
+  {
+    return mPublishedFrames;
+  }
+
+  /**
+   * @return Number of frames which were overwritten before being consumed
+   */
+  public long getDroppedFrameCount()
+  {
+    return mDroppedFrames;
+  }
+
+  /**
+   * @return Number of updates which found no new frame to pick up
+   */
+  public long getStaleFrameCount()
+  {
+    return mStaleFrames;
+  }
+}
@@ -6,9 +6,6 @@
  */
 package com.pheelicks.visualizer;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
@@ -16,15 +13,25 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.PorterDuff.Mode;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.Rect;
 import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.Looper;
 import android.media.audiofx.Visualizer;
 import android.util.AttributeSet;
 import android.view.View;
 
+import com.pheelicks.visualizer.dsp.BeatDetector;
+import com.pheelicks.visualizer.dsp.SpectrumAnalyzer;
+import com.pheelicks.visualizer.dsp.SpectrumSmoother;
+import com.pheelicks.visualizer.graphics.AndroidCanvas;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.VisualizerCanvas;
+import com.pheelicks.visualizer.record.CaptureRecorder;
+import com.pheelicks.visualizer.record.CaptureReplayer;
 import com.pheelicks.visualizer.renderer.Renderer;
+import com.pheelicks.visualizer.source.AudioSource;
+import com.pheelicks.visualizer.stats.FrameStats;
+import com.pheelicks.visualizer.stats.TimingHistogram;
 
 /**
  * A class that draws visualizations of data received from a
@@ -34,15 +41,85 @@ import com.pheelicks.visualizer.renderer.Renderer;
 public class VisualizerView extends View {
   private static final String TAG = "VisualizerView";
 
-  private byte[] mBytes;
-  private byte[] mFFTBytes;
-  private Rect mRect = new Rect();
-  private Visualizer mVisualizer;
+  // Captured frames are copied into these, so the capture callback can reuse
+  // its arrays while a frame is still being rendered
+  private TripleBuffer<AudioData> mAudioBuffer = new TripleBuffer<AudioData>(
+      new AudioData(null), new AudioData(null), new AudioData(null));
+  private TripleBuffer<FFTData> mFFTBuffer = new TripleBuffer<FFTData>(
+      new FFTData(null), new FFTData(null), new FFTData(null));
+  private Bounds mRect = new Bounds();
+  private volatile AudioSource mAudioSource;
+  // Whether mAudioSource was acquired by link(int), and so is ours to release
+  private boolean mOwnsAudioSource;
+  // Frames skipped by sources while every sink was backlogged, which count
+  // as dropped: from sources linked before, and the linked one when linked
+  private volatile long mSkippedBeforeLink = 0;
+  private volatile long mSkippedAtLink = 0;
 
-  private Set<Renderer> mRenderers;
+  // Copies frames from the source, which are already analyzed
+  private final AudioSource.Sink mCaptureSink = new AudioSource.Sink()
+  {
+    @Override
+    public void onWaveform(AudioData data)
+    {
+      CaptureRecorder recorder = mCaptureRecorder;
+      if(recorder != null)
+      {
+        recorder.recordWaveform(data.bytes, data.timestampNanos);
+      }
+      mAudioBuffer.getBack().copyFrom(data);
+      mAudioBuffer.publish();
+      requestFrame();
+    }
 
-  private Paint mFlashPaint = new Paint();
-  private Paint mFadePaint = new Paint();
+    @Override
+    public void onFFT(FFTData data)
+    {
+      CaptureRecorder recorder = mCaptureRecorder;
+      if(recorder != null)
+      {
+        recorder.recordFFT(data.bytes, data.samplingRate, data.timestampNanos);
+      }
+      mFFTBuffer.getBack().copyFrom(data);
+      mFFTBuffer.publish();
+      requestFrame();
+    }
+
+    @Override
+    public boolean isBacklogged()
+    {
+      // Anything published now would replace a frame that hasn't been drawn
+      int kinds = mDataKinds;
+      return ((kinds & Renderer.WAVEFORM) == 0 || mAudioBuffer.isPending())
+          && ((kinds & (Renderer.FFT | Renderer.BEATS)) == 0 || mFFTBuffer.isPending());
+    }
+
+    @Override
+    public int getDataKinds()
+    {
+      return mDataKinds;
+    }
+  };
+
+  // Records captures as they arrive, if set
+  private volatile CaptureRecorder mCaptureRecorder;
+
+  // Data wanted by the renderers, and FFTs for beats if anything listens
+  // for them
+  private volatile int mDataKinds = 0;
+  private volatile boolean mFlashOnBeat = false;
+
+  // Copy on write, so renderers can be changed from any thread and drawing
+  // walks a consistent array without allocating
+  private final RendererList mRenderers = new RendererList();
+
+  // Reused every frame so that drawing doesn't allocate
+  private Matrix mMatrix = new Matrix();
+
+  // Computes features shared by all renderers, once per frame
+  private FrameAnalyzer mAnalyzer = new FrameAnalyzer();
+  // Analyzes, renders and applies the fade and flash effects
+  private FrameCompositor mCompositor = new FrameCompositor(mAnalyzer);
 
   public VisualizerView(Context context, AttributeSet attrs, int defStyle)
   {
@@ -61,18 +138,44 @@ public class VisualizerView extends View {
   }
 
   private void init() {
-    mBytes = null;
-    mFFTBytes = null;
-
-    mFlashPaint.setColor(Color.argb(122, 255, 255, 255));
-    mFadePaint.setColor(Color.argb(238, 255, 255, 255)); // Adjust alpha to change how quickly the image fades
-    mFadePaint.setXfermode(new PorterDuffXfermode(Mode.MULTIPLY));
+    mAnalyzer.setBeatDetector(new BeatDetector(6));
+    mRenderers.setOnChangeListener(new RendererList.OnChangeListener()
+    {
+      @Override
+      public void onRenderersChanged(RendererList list)
+      {
+        updateDataKinds();
+      }
+    });
+  }
 
-    mRenderers = new HashSet<Renderer>();
+  // Tells the source when the data wanted changes, so it only captures that
+  private void updateDataKinds()
+  {
+    int kinds = mRenderers.getDataKinds();
+    if(mFlashOnBeat || mOnBeatListener != null)
+    {
+      kinds |= Renderer.BEATS;
+    }
+    if((kinds & Renderer.FFT) != 0 && mAnalyzer.getSpectrumAnalyzer() != null)
+    {
+      // The float spectrum is computed from the waveform
+      kinds |= Renderer.WAVEFORM;
+    }
+    if(kinds != mDataKinds)
+    {
+      mDataKinds = kinds;
+      AudioSource source = mAudioSource;
+      if(source != null)
+      {
+        source.updateDataKinds();
+      }
+    }
   }
 
   /**
-   * Links the visualizer to a player
+   * Links the visualizer to a player. Views linked to the same player share
+   * one capture, see {@link CaptureHub}
    * @param player - MediaPlayer instance to link to
    */
   public void link(MediaPlayer player)
@@ -82,145 +185,960 @@ public class VisualizerView extends View {
       throw new NullPointerException("Cannot link to null MediaPlayer");
     }
 
-    // Create the Visualizer object and attach it to our media player.
-    mVisualizer = new Visualizer(player.getAudioSessionId());
-    mVisualizer.setCaptureSize(Visualizer.getCaptureSizeRange()[1]);
+    link(player.getAudioSessionId());
+    // Disable capture when we're done with the stream
+    ((CaptureHub) mAudioSource).disableOnCompletion(player);
+  }
 
-    // Pass through Visualizer data to VisualizerView
-    Visualizer.OnDataCaptureListener captureListener = new Visualizer.OnDataCaptureListener()
+  /**
+   * Links the visualizer to an audio session, through the {@link CaptureHub}
+   * for that session. Frames arrive already analyzed by the hub, so smoothing
+   * and beat detection are configured with {@link CaptureHub#getAnalyzer()}
+   * rather than {@link #setSmoother} and {@link #setBeatDetector}
+   * @param audioSessionId - Session to capture, or 0 for the output mix
+   */
+  public void link(int audioSessionId)
+  {
+    CaptureHub hub = CaptureHub.acquire(audioSessionId);
+    CaptureGovernor governor = mCaptureGovernor;
+    if(governor != null)
     {
-      @Override
-      public void onWaveFormDataCapture(Visualizer visualizer, byte[] bytes,
-          int samplingRate)
-      {
-        updateVisualizer(bytes);
-      }
+      hub.setCapture(governor.getCaptureSize(), governor.getCaptureRate());
+    }
+    hub.setEnabled(true);
+    link(hub);
+    mOwnsAudioSource = true;
+  }
 
-      @Override
-      public void onFftDataCapture(Visualizer visualizer, byte[] bytes,
-          int samplingRate)
+  /**
+   * Links the visualizer to a source, such as a
+   * {@link com.pheelicks.visualizer.source.MicrophoneSource} or
+   * {@link com.pheelicks.visualizer.source.PcmSource}. The source stays owned
+   * by the caller, who releases it once done. As with {@link #link(int)},
+   * analysis is configured on the source
+   * @param source - Source to take frames from
+   */
+  public void link(AudioSource source)
+  {
+    if(source == null)
+    {
+      throw new NullPointerException("Cannot link to null AudioSource");
+    }
+
+    unlink();
+    mSkippedAtLink = source.getSkippedFrameCount();
+    mAudioSource = source;
+    mOwnsAudioSource = false;
+    source.addSink(mCaptureSink);
+  }
+
+  /**
+   * Stops receiving frames from the linked source. A session linked with
+   * {@link #link(int)} has its Visualizer released if no other view is
+   * linked to it
+   */
+  public void unlink()
+  {
+    AudioSource source = mAudioSource;
+    if(source != null)
+    {
+      source.removeSink(mCaptureSink);
+      mSkippedBeforeLink += source.getSkippedFrameCount() - mSkippedAtLink;
+      mAudioSource = null;
+      if(mOwnsAudioSource)
       {
-        updateVisualizerFFT(bytes);
+        source.release();
       }
-    };
+    }
+  }
 
-    mVisualizer.setDataCaptureListener(captureListener,
-        Visualizer.getMaxCaptureRate() / 2, true, true);
+  /**
+   * @return Source this view is linked to, or null if it isn't linked
+   */
+  public AudioSource getAudioSource()
+  {
+    return mAudioSource;
+  }
+
+  private volatile CaptureGovernor mCaptureGovernor;
+
+  /**
+   * Lets a governor adjust the capture size and rate of the linked session
+   * to what this view manages to draw, see {@link CaptureHub#createGovernor()}.
+   * Only one of the views sharing a session should have a governor. Has no
+   * effect on sources other than CaptureHub
+   * @param governor - Governor to use, or null to keep the capture settings
+   * as they are
+   */
+  public void setCaptureGovernor(CaptureGovernor governor)
+  {
+    CaptureGovernor previous = mCaptureGovernor;
+    if(previous != null)
+    {
+      previous.setListener(null);
+    }
 
-    // Enabled Visualizer and disable when we're done with the stream
-    mVisualizer.setEnabled(true);
-    player.setOnCompletionListener(new MediaPlayer.OnCompletionListener()
+    mCaptureGovernor = governor;
+    if(governor != null)
     {
-      @Override
-      public void onCompletion(MediaPlayer mediaPlayer)
+      governor.setVisible(getWindowVisibility() == VISIBLE);
+      governor.setListener(new CaptureGovernor.Listener()
       {
-        mVisualizer.setEnabled(false);
-      }
-    });
+        @Override
+        public void onCaptureChanged(int captureSize, int captureRate)
+        {
+          applyCapture(captureSize, captureRate);
+        }
+      });
+      applyCapture(governor.getCaptureSize(), governor.getCaptureRate());
+    }
   }
 
-  public void addRenderer(Renderer renderer)
+  private void applyCapture(int captureSize, int captureRate)
   {
-    if(renderer != null)
+    AudioSource source = mAudioSource;
+    if(source instanceof CaptureHub)
     {
-      mRenderers.add(renderer);
+      ((CaptureHub) source).setCapture(captureSize, captureRate);
     }
   }
 
+  /**
+   * Adds a renderer, drawn over the renderers added before it. Safe to call
+   * from any thread
+   */
+  public void addRenderer(Renderer renderer)
+  {
+    mRenderers.add(renderer);
+  }
+
+  /**
+   * Adds a renderer at a z order, see {@link RendererList}
+   * @param z - Renderers with a higher z are drawn over those with a lower z
+   */
+  public void addRenderer(Renderer renderer, int z)
+  {
+    mRenderers.add(renderer, z);
+  }
+
+  public void removeRenderer(Renderer renderer)
+  {
+    mRenderers.remove(renderer);
+  }
+
   public void clearRenderers()
   {
     mRenderers.clear();
   }
 
+  /**
+   * Replaces all renderers at once, so that no frame is drawn with some of
+   * the old set and some of the new
+   */
+  public void setRenderers(Renderer... renderers)
+  {
+    mRenderers.setAll(renderers);
+  }
+
+  /**
+   * @param enabled - false to stop drawing a renderer, keeping its place
+   */
+  public void setRendererEnabled(Renderer renderer, boolean enabled)
+  {
+    mRenderers.setEnabled(renderer, enabled);
+  }
+
+  /**
+   * @return Renderers of this view, for changing z orders and such
+   */
+  public RendererList getRenderers()
+  {
+    return mRenderers;
+  }
+
   /**
    * Call to release the resources used by VisualizerView. Like with the
    * MediaPlayer it is good practice to call this method
    */
   public void release()
   {
-    mVisualizer.release();
+    stopRenderThread();
+    releaseBitmap();
+    unlink();
   }
 
   /**
    * Pass data to the visualizer. Typically this will be obtained from the
    * Android Visualizer.OnDataCaptureListener call back. See
    * {@link Visualizer.OnDataCaptureListener#onWaveFormDataCapture }
+   * The bytes are copied, so the caller is free to reuse the array. Should
+   * always be called from the same thread
    * @param bytes
    */
   public void updateVisualizer(byte[] bytes) {
-    mBytes = bytes;
-    invalidate();
+    updateVisualizer(bytes, System.nanoTime());
+  }
+
+  // As updateVisualizer(byte[]), with the time the capture was taken
+  void updateVisualizer(byte[] bytes, long timestampNanos) {
+    CaptureRecorder recorder = mCaptureRecorder;
+    if(recorder != null)
+    {
+      recorder.recordWaveform(bytes, timestampNanos);
+    }
+    mAudioBuffer.getBack().set(bytes, timestampNanos);
+    mAudioBuffer.publish();
+    requestFrame();
+  }
+
+  /**
+   * Pass full resolution waveform data to the visualizer, for instance PCM
+   * from a decoder. The samples are copied. A recorder set with
+   * setCaptureRecorder gets them quantized to 8-bit, as the Visualizer would
+   * @param samples - Samples normalized to [-1, 1]
+   * @param offset - Index of the first sample
+   * @param count - Number of samples
+   */
+  public void updateVisualizer(float[] samples, int offset, int count) {
+    AudioData data = mAudioBuffer.getBack();
+    data.setSamples(samples, offset, count, System.nanoTime());
+    CaptureRecorder recorder = mCaptureRecorder;
+    if(recorder != null)
+    {
+      recorder.recordWaveform(data.bytes, data.timestampNanos);
+    }
+    mAudioBuffer.publish();
+    requestFrame();
   }
 
   /**
    * Pass FFT data to the visualizer. Typically this will be obtained from the
    * Android Visualizer.OnDataCaptureListener call back. See
    * {@link Visualizer.OnDataCaptureListener#onFftDataCapture }
+   * The bytes are copied, so the caller is free to reuse the array. Should
+   * always be called from the same thread
    * @param bytes
    */
   public void updateVisualizerFFT(byte[] bytes) {
-    mFFTBytes = bytes;
-    invalidate();
+    updateVisualizerFFT(bytes, 0);
+  }
+
+  /**
+   * Pass FFT data to the visualizer, along with the sampling rate of the
+   * audio it was computed from. This lets renderers map bins to frequencies
+   * @param bytes
+   * @param samplingRate - Sampling rate in Hz, or 0 if unknown
+   */
+  public void updateVisualizerFFT(byte[] bytes, int samplingRate) {
+    updateVisualizerFFT(bytes, samplingRate, System.nanoTime());
+  }
+
+  // As updateVisualizerFFT(byte[], int), with the time the capture was taken
+  void updateVisualizerFFT(byte[] bytes, int samplingRate, long timestampNanos) {
+    CaptureRecorder recorder = mCaptureRecorder;
+    if(recorder != null)
+    {
+      recorder.recordFFT(bytes, samplingRate, timestampNanos);
+    }
+    FFTData data = mFFTBuffer.getBack();
+    data.set(bytes, timestampNanos);
+    data.samplingRate = samplingRate;
+    mFFTBuffer.publish();
+    requestFrame();
+  }
+
+  /**
+   * Records every capture passed to the view from now on, whether through
+   * updateVisualizer and updateVisualizerFFT or a linked source, so it can
+   * be replayed later with {@link CaptureReplayer}.
+   * The view doesn't close the recorder
+   * @param recorder - Recorder to use, or null to stop recording
+   */
+  public void setCaptureRecorder(CaptureRecorder recorder)
+  {
+    mCaptureRecorder = recorder;
+  }
+
+  /**
+   * @return Target for a {@link CaptureReplayer}, which passes the replayed
+   * captures to updateVisualizer and updateVisualizerFFT, as the
+   * Visualizer's capture listener would. Their timestamps keep the recorded
+   * spacing, moved to start now, so smoothing and beat detection run on the
+   * recorded timing. Captures must all come from one thread, so the view
+   * can't be linked to a source while replaying
+   * @throws IllegalStateException if the view is linked to a source, here
+   * or when a capture is replayed
+   */
+  public CaptureReplayer.Target getReplayTarget()
+  {
+    checkNotLinked();
+    return new CaptureReplayer.Target()
+    {
+      // Added to recorded timestamps to move them to now
+      private long mOffset;
+      private boolean mStarted = false;
+
+      @Override
+      public void onWaveform(byte[] bytes, long timestampNanos)
+      {
+        checkNotLinked();
+        updateVisualizer(bytes, toNow(timestampNanos));
+      }
+
+      @Override
+      public void onFFT(byte[] bytes, int samplingRate, long timestampNanos)
+      {
+        checkNotLinked();
+        updateVisualizerFFT(bytes, samplingRate, toNow(timestampNanos));
+      }
+
+      private long toNow(long timestampNanos)
+      {
+        if(!mStarted)
+        {
+          mOffset = System.nanoTime() - timestampNanos;
+          mStarted = true;
+        }
+        return timestampNanos + mOffset;
+      }
+    };
   }
 
-  boolean mFlash = false;
+  // A linked source publishes into the same triple buffers, which only
+  // take one producer
+  private void checkNotLinked()
+  {
+    if(mAudioSource != null)
+    {
+      throw new IllegalStateException("Can't replay into a view linked to a source, unlink it first");
+    }
+  }
+
+  /**
+   * Smooths FFT levels over time before they reach the renderers, so bars and
+   * circles move fluidly rather than jumping from capture to capture
+   * @param smoother - Smoother to use, or null to draw the raw levels
+   */
+  public void setSmoother(SpectrumSmoother smoother)
+  {
+    mAnalyzer.setSmoother(smoother);
+  }
+
+  /**
+   * Draws FFT renderers from a floating point spectrum of the waveform,
+   * rather than the 8-bit FFT bytes, so quiet parts of the spectrum don't
+   * fall into steps or under the floor. The waveform is then captured as
+   * well. A linked source's analyzer is configured instead, see
+   * {@link #link(int)}
+   * @param analyzer - Analyzer to use, or null to draw the FFT bytes. Sized
+   * like the captures with no overlap, each capture makes one spectrum
+   */
+  public void setSpectrumAnalyzer(SpectrumAnalyzer analyzer)
+  {
+    mAnalyzer.setSpectrumAnalyzer(analyzer);
+    updateDataKinds();
+  }
+
+  /**
+   * Interface for being told about beats detected in the FFT data
+   */
+  public interface OnBeatListener
+  {
+    /**
+     * Called when a frame containing a beat is drawn. This is on the render
+     * thread if it is enabled, otherwise the UI thread
+     * @param strength - How far above the adaptive threshold the beat was
+     */
+    void onBeat(float strength);
+  }
+
+  private volatile OnBeatListener mOnBeatListener;
+
+  public void setOnBeatListener(OnBeatListener listener)
+  {
+    mOnBeatListener = listener;
+    updateDataKinds();
+  }
+
+  /**
+   * @param flashOnBeat - If true the view flashes on every detected beat
+   */
+  public void setFlashOnBeat(boolean flashOnBeat)
+  {
+    mFlashOnBeat = flashOnBeat;
+    mCompositor.setFlashOnBeat(flashOnBeat);
+    updateDataKinds();
+  }
+
+  /**
+   * Replaces the beat detector, for instance to tune its threshold
+   * @param detector - Detector to use, or null to turn beat detection off
+   */
+  public void setBeatDetector(BeatDetector detector)
+  {
+    mAnalyzer.setBeatDetector(detector);
+  }
+
+  /**
+   * @return Number of captured frames (waveform and FFT) which were replaced
+   * by a newer capture before they could be drawn, or skipped by the source
+   * because the previous one hadn't been drawn
+   */
+  public long getDroppedFrameCount()
+  {
+    long skipped = mSkippedBeforeLink;
+    AudioSource source = mAudioSource;
+    if(source != null)
+    {
+      skipped += source.getSkippedFrameCount() - mSkippedAtLink;
+    }
+    return mAudioBuffer.getDroppedFrameCount() + mFFTBuffer.getDroppedFrameCount() + skipped;
+  }
+
+  /**
+   * @return Number of times a frame was drawn without new waveform or FFT
+   * data having arrived since the previous frame
+   */
+  public long getStaleFrameCount()
+  {
+    return mAudioBuffer.getStaleFrameCount() + mFFTBuffer.getStaleFrameCount();
+  }
 
   /**
    * Call this to make the visualizer flash. Useful for flashing at the start
    * of a song/loop etc...
    */
   public void flash() {
-    mFlash = true;
-    invalidate();
+    mCompositor.flash();
+    requestFrame();
+  }
+
+  /**
+   * Moves rendering off the UI thread. When enabled, renderers draw into one
+   * of two back buffers on a dedicated thread, and onDraw only blits the most
+   * recently completed buffer. Renderers are called from that thread, so they
+   * should not touch any other views.
+   * @param enabled - true to render on a background thread
+   */
+  public void setRenderThreadEnabled(boolean enabled)
+  {
+    mRenderThreadEnabled = enabled;
+    if(enabled)
+    {
+      startRenderThread();
+    }
+    else
+    {
+      stopRenderThread();
+    }
+    requestFrame();
+  }
+
+  public boolean isRenderThreadEnabled()
+  {
+    return mRenderThreadEnabled;
+  }
+
+  private boolean mRenderThreadEnabled = false;
+  // Read by capture threads in requestFrame
+  private volatile RenderThread mRenderThread;
+
+  private void startRenderThread()
+  {
+    if(mRenderThread == null)
+    {
+      mRenderThread = new RenderThread(this);
+      mRenderThread.start();
+    }
+  }
+
+  // Waits for the thread to finish its frame, so the UI thread never renders
+  // while it is still using the buffers, compositor and renderers
+  private void stopRenderThread()
+  {
+    RenderThread thread = mRenderThread;
+    if(thread == null)
+    {
+      return;
+    }
+
+    thread.quit();
+    mRenderThread = null;
+    boolean interrupted = false;
+    while(thread.isAlive())
+    {
+      try
+      {
+        thread.join();
+      }
+      catch(InterruptedException e)
+      {
+        interrupted = true;
+      }
+    }
+    if(interrupted)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Schedules a new frame, either on the render thread or the UI thread
+  private void requestFrame()
+  {
+    RenderThread renderThread = mRenderThread;
+    if(renderThread != null)
+    {
+      renderThread.requestRender();
+    }
+    else
+    {
+      mFrameScheduler.requestFrame();
+    }
+  }
+
+  // Waveform and FFT captures, and anything else asking for a frame, are
+  // merged into at most one frame per display refresh
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final Runnable mFrameCallback = new Runnable() {
+    public void run() {
+      drawFrame();
+    }
+  };
+  private final FrameScheduler mFrameScheduler = new FrameScheduler(FrameScheduler.SYSTEM_CLOCK,
+      new FrameScheduler.Host() {
+    public void postFrame(long delayNanos) {
+      // Rounded up, so frames are never closer together than the interval
+      mHandler.postDelayed(mFrameCallback, (delayNanos + 999999) / 1000000);
+    }
+  });
+  private boolean mDirtyRegionsEnabled = false;
+  private final Bounds mDirty = new Bounds();
+
+  /**
+   * @param framesPerSecond - Most frames to draw per second when rendering
+   * on the UI thread. Default 60
+   */
+  public void setMaxFrameRate(float framesPerSecond)
+  {
+    mFrameScheduler.setFrameRate(framesPerSecond);
+  }
+
+  /**
+   * Only fades, and invalidates, the part of the view renderers have drawn
+   * in recently, rather than the whole view. Saves time when renderers only
+   * cover a small part of the view, without hardware acceleration. Only
+   * applies when rendering on the UI thread
+   * @param enabled - true to track dirty regions
+   */
+  public void setDirtyRegionsEnabled(boolean enabled)
+  {
+    mDirtyRegionsEnabled = enabled;
+    mCompositor.setDirtyTracking(enabled);
+  }
+
+  /**
+   * Chooses how older frames fade away. FADE darkens the whole bitmap every
+   * frame; GEOMETRY instead redraws the last few frames' lines with
+   * decreasing alpha, which is cheaper on large views with sparse renderers
+   * @param mode - How to fade. Default FADE
+   * @param frames - Number of frames redrawn in GEOMETRY mode
+   */
+  public void setTrailMode(FrameCompositor.TrailMode mode, int frames)
+  {
+    mCompositor.setTrailMode(mode, frames);
+  }
+
+  // Whether renderFrame has to be given the previous frame
+  boolean needsPreviousFrame()
+  {
+    return mCompositor.needsPreviousFrame();
+  }
+
+  // Renders a frame on the UI thread, then has the changed part redrawn
+  private void drawFrame()
+  {
+    mFrameScheduler.doFrame();
+    if(mRenderThread != null || getWidth() <= 0 || getHeight() <= 0)
+    {
+      return;
+    }
+
+    // Create canvas once we're ready to draw, and again if the size or
+    // format has changed
+    float scale = mRenderScale;
+    int width = getScaledSize(getWidth(), scale);
+    int height = getScaledSize(getHeight(), scale);
+    Config config = mBitmapConfig;
+    if(mCanvasBitmap == null || mCanvasBitmap.getWidth() != width || mCanvasBitmap.getHeight() != height
+        || mCanvasBitmap.getConfig() != config || mAndroidCanvas.getScale() != scale)
+    {
+      releaseBitmap();
+      mCanvasBitmap = BitmapPool.getDefault().acquire(width, height, config);
+      mCanvas = new Canvas(mCanvasBitmap);
+      mAndroidCanvas.setCanvas(mCanvas, scale);
+    }
+
+    renderFrame(mAndroidCanvas, getWidth(), getHeight());
+
+    if(mDirtyRegionsEnabled && !mDebugOverlayEnabled)
+    {
+      mCompositor.getDirtyBounds(mDirty);
+      if(!mDirty.isEmpty())
+      {
+        invalidate(mDirty.left, mDirty.top, mDirty.right, mDirty.bottom);
+      }
+    }
+    else
+    {
+      invalidate();
+    }
+  }
+
+  @Override
+  protected void onAttachedToWindow()
+  {
+    super.onAttachedToWindow();
+    AudioSource source = mAudioSource;
+    if(source != null)
+    {
+      source.addSink(mCaptureSink);
+    }
+    if(mRenderThreadEnabled)
+    {
+      startRenderThread();
+    }
+  }
+
+  @Override
+  protected void onDetachedFromWindow()
+  {
+    // Stays linked, but the source can pause capture until we're back
+    AudioSource source = mAudioSource;
+    if(source != null)
+    {
+      source.removeSink(mCaptureSink);
+    }
+    stopRenderThread();
+    mHandler.removeCallbacks(mFrameCallback);
+    mFrameScheduler.cancel();
+    releaseBitmap();
+    super.onDetachedFromWindow();
+  }
+
+  @Override
+  protected void onWindowVisibilityChanged(int visibility)
+  {
+    super.onWindowVisibilityChanged(visibility);
+    CaptureGovernor governor = mCaptureGovernor;
+    if(governor != null)
+    {
+      governor.setVisible(visibility == VISIBLE);
+    }
+  }
+
+  @Override
+  protected void onSizeChanged(int w, int h, int oldw, int oldh)
+  {
+    super.onSizeChanged(w, h, oldw, oldh);
+    // Reallocated at the new size by the next frame
+    releaseBitmap();
+    requestFrame();
   }
 
   Bitmap mCanvasBitmap;
   Canvas mCanvas;
+  AndroidCanvas mAndroidCanvas = new AndroidCanvas();
+
+  private volatile float mRenderScale = 1;
+  private volatile Config mBitmapConfig = Config.ARGB_8888;
+  // Used to scale bitmaps up to the view, and to color ALPHA_8 bitmaps
+  private Paint mBlitPaint = new Paint();
+
+  /**
+   * Renders at a lower resolution than the view, and scales the result up.
+   * Saves fill rate and memory on large views, at the cost of sharpness;
+   * 0.5 renders a quarter of the pixels
+   * @param scale - Resolution relative to the view, in (0, 1]. Default 1
+   */
+  public void setRenderScale(float scale)
+  {
+    mRenderScale = Math.max(0.05f, Math.min(1, scale));
+    requestFrame();
+  }
+
+  public float getRenderScale()
+  {
+    return mRenderScale;
+  }
+
+  public Config getBitmapConfig()
+  {
+    return mBitmapConfig;
+  }
+
+  /**
+   * Chooses the format of the bitmap renderers draw into. RGB_565 takes
+   * half the memory of ARGB_8888, but has no alpha and less color depth.
+   * ALPHA_8 takes a quarter, and suits renderers which all draw in one
+   * color: only how opaque each pixel is is kept, and it is shown in color
+   * @param config - ARGB_8888 (the default), RGB_565 or ALPHA_8
+   * @param color - Color ALPHA_8 bitmaps are shown in. Ignored otherwise
+   */
+  public void setBitmapConfig(Config config, int color)
+  {
+    mBitmapConfig = config;
+    mBlitPaint.setColor(config == Config.ALPHA_8 ? color : Color.BLACK);
+    requestFrame();
+  }
+
+  /**
+   * @return Bytes used by the bitmaps this view renders into. Doesn't
+   * include bitmaps held by {@link BitmapPool}
+   */
+  public long getBitmapMemoryBytes()
+  {
+    RenderThread renderThread = mRenderThread;
+    return BitmapPool.getBytes(mCanvasBitmap)
+        + (renderThread != null ? renderThread.getBitmapMemoryBytes() : 0);
+  }
+
+  // Size of a buffer for a view dimension at a render scale
+  static int getScaledSize(int size, float scale)
+  {
+    return Math.max(1, Math.round(size * scale));
+  }
+
+  // Draws a bitmap, whatever its resolution, over the whole view
+  void drawBuffer(Canvas canvas, Bitmap bitmap)
+  {
+    if(bitmap.getWidth() == getWidth() && bitmap.getHeight() == getHeight())
+    {
+      mMatrix.reset();
+      mBlitPaint.setFilterBitmap(false);
+    }
+    else
+    {
+      mMatrix.setScale(getWidth() / (float) bitmap.getWidth(), getHeight() / (float) bitmap.getHeight());
+      mBlitPaint.setFilterBitmap(true);
+    }
+    canvas.drawBitmap(bitmap, mMatrix, mBlitPaint);
+  }
+
+  private void releaseBitmap()
+  {
+    if(mCanvasBitmap != null)
+    {
+      BitmapPool.getDefault().release(mCanvasBitmap);
+      mCanvasBitmap = null;
+      mCanvas = null;
+    }
+  }
 
 
   @Override
   protected void onDraw(Canvas canvas) {
     super.onDraw(canvas);
 
-    // Create canvas once we're ready to draw
-    mRect.set(0, 0, getWidth(), getHeight());
+    RenderThread renderThread = mRenderThread;
+    if(renderThread != null)
+    {
+      // Frame has already been rendered, just show it
+      renderThread.drawFrontBuffer(canvas);
+    }
+    else if(mCanvasBitmap != null)
+    {
+      // Frame has already been rendered by drawFrame. When only part of the
+      // view was invalidated the canvas is clipped to it
+      drawBuffer(canvas, mCanvasBitmap);
+    }
+
+    if(mDebugOverlayEnabled)
+    {
+      drawDebugOverlay(canvas);
+    }
+  }
+
+  /**
+   * Runs all renderers over the latest data and applies the fade and flash
+   * effects. Called from drawFrame, or from the render thread if it is enabled
+   * @param canvas - Canvas backed by the persistent bitmap to draw into
+   */
+  void renderFrame(VisualizerCanvas canvas, int width, int height)
+  {
+    long frameStart = System.nanoTime();
+    if(mResetStatsRequested)
+    {
+      resetStats(frameStart);
+    }
+
+    mRect.set(0, 0, width, height);
+    Renderer[] renderers = mRenderers.getActive();
+
+    // Pick up the latest captures. If nothing new has arrived the previous
+    // frame is drawn again
+    boolean newAudio = mAudioBuffer.update();
+    boolean newFFT = mFFTBuffer.update();
 
-    if(mCanvasBitmap == null)
+    AudioData audioData = mAudioBuffer.getFront();
+    FFTData fftData = mFFTBuffer.getFront();
+    if(newAudio)
     {
-      mCanvasBitmap = Bitmap.createBitmap(canvas.getWidth(), canvas.getHeight(), Config.ARGB_8888);
+      mCaptureLatency.record(frameStart - audioData.timestampNanos);
     }
-    if(mCanvas == null)
+    if(newFFT)
     {
-      mCanvas = new Canvas(mCanvasBitmap);
+      mCaptureLatency.record(frameStart - fftData.timestampNanos);
+    }
+    if(!newAudio && !newFFT)
+    {
+      mDuplicatedFrames++;
     }
 
-    if (mBytes != null) {
-      // Render all audio renderers
-      AudioData audioData = new AudioData(mBytes);
-      for(Renderer r : mRenderers)
+    if(mCompositor.composite(canvas, mRect, renderers, audioData, fftData, newFFT))
+    {
+      OnBeatListener listener = mOnBeatListener;
+      if(listener != null)
       {
-        r.render(mCanvas, audioData, mRect);
+        listener.onBeat(fftData.beatStrength);
       }
     }
 
-    if (mFFTBytes != null) {
-      // Render all FFT renderers
-      FFTData fftData = new FFTData(mFFTBytes);
-      for(Renderer r : mRenderers)
-      {
-        r.render(mCanvas, fftData, mRect);
-      }
+    long frameEnd = System.nanoTime();
+    mFrameTimes.record(frameEnd - frameStart);
+    mFramesDrawn++;
+
+    CaptureGovernor governor = mCaptureGovernor;
+    if(governor != null)
+    {
+      governor.onFrame(frameEnd, frameEnd - frameStart, getDroppedFrameCount());
     }
+  }
 
-    // Fade out old contents
-    mCanvas.drawPaint(mFadePaint);
+  // Frame timing. Written only by whichever thread renders, other threads
+  // read it through getFrameStats
+  private final TimingHistogram mFrameTimes = new TimingHistogram();
+  private final TimingHistogram mCaptureLatency = new TimingHistogram();
+  private volatile long mFramesDrawn = 0;
+  private volatile long mDuplicatedFrames = 0;
+  // Values of the cumulative counters when the stats were last reset
+  private volatile long mStatsStartNanos = System.nanoTime();
+  private volatile long mWaveformCapturesAtReset = 0;
+  private volatile long mFFTCapturesAtReset = 0;
+  private volatile long mDroppedFramesAtReset = 0;
+  private volatile boolean mResetStatsRequested = false;
+
+  /**
+   * Fills in a snapshot of frame timing: how long frames and each renderer
+   * take, how old captures are by the time they are drawn, and how often
+   * captures arrive compared to frames being drawn. Safe to call from any
+   * thread, though values may be slightly inconsistent while a frame is
+   * being rendered
+   * @param stats - Snapshot to fill in, reuse it to avoid allocating
+   */
+  public void getFrameStats(FrameStats stats)
+  {
+    stats.elapsedNanos = System.nanoTime() - mStatsStartNanos;
+    stats.waveformCaptures = mAudioBuffer.getPublishedFrameCount() - mWaveformCapturesAtReset;
+    stats.fftCaptures = mFFTBuffer.getPublishedFrameCount() - mFFTCapturesAtReset;
+    stats.droppedFrames = getDroppedFrameCount() - mDroppedFramesAtReset;
+    stats.framesDrawn = mFramesDrawn;
+    stats.duplicatedFrames = mDuplicatedFrames;
+    mFrameTimes.copyInto(stats.frameTimes);
+    mCaptureLatency.copyInto(stats.captureLatency);
+    stats.bitmapBytes = getBitmapMemoryBytes();
 
-    if(mFlash)
+    Renderer[] renderers = mRenderers.getActive();
+    stats.ensureRendererCapacity(renderers.length);
+    stats.rendererCount = renderers.length;
+    for(int i = 0; i < renderers.length; i++)
     {
-      mFlash = false;
-      mCanvas.drawPaint(mFlashPaint);
+      stats.rendererNames[i] = renderers[i].getClass().getSimpleName();
+      renderers[i].getRenderTimes().copyInto(stats.renderTimes[i]);
     }
+  }
 
-    canvas.drawBitmap(mCanvasBitmap, new Matrix(), null);
+  /**
+   * Starts collecting frame stats afresh. The reset happens at the start of
+   * the next frame, on the thread which renders
+   */
+  public void resetFrameStats()
+  {
+    mResetStatsRequested = true;
+    requestFrame();
+  }
+
+  private void resetStats(long now)
+  {
+    mResetStatsRequested = false;
+    mFrameTimes.reset();
+    mCaptureLatency.reset();
+    Renderer[] renderers = mRenderers.getAll();
+    for(int i = 0; i < renderers.length; i++)
+    {
+      renderers[i].getRenderTimes().reset();
+    }
+    mFramesDrawn = 0;
+    mDuplicatedFrames = 0;
+    mWaveformCapturesAtReset = mAudioBuffer.getPublishedFrameCount();
+    mFFTCapturesAtReset = mFFTBuffer.getPublishedFrameCount();
+    mDroppedFramesAtReset = getDroppedFrameCount();
+    mStatsStartNanos = now;
+  }
+
+  private boolean mDebugOverlayEnabled = false;
+  private Paint mDebugPaint;
+  private FrameStats mDebugStats;
+  private String[] mDebugLines = new String[0];
+  private long mDebugUpdatedNanos = 0;
+  // Formatting text allocates, so the overlay is only refreshed this often
+  private static final long DEBUG_REFRESH_NANOS = 500000000L;
+
+  /**
+   * Draws frame rates, frame times and capture latency over the
+   * visualization. Useful when tuning renderers
+   * @param enabled - true to show the overlay
+   */
+  public void setDebugOverlayEnabled(boolean enabled)
+  {
+    mDebugOverlayEnabled = enabled;
+    invalidate();
+  }
+
+  private void drawDebugOverlay(Canvas canvas)
+  {
+    if(mDebugPaint == null)
+    {
+      mDebugPaint = new Paint();
+      mDebugPaint.setColor(Color.WHITE);
+      mDebugPaint.setAntiAlias(true);
+      mDebugPaint.setTextSize(24);
+      mDebugStats = new FrameStats();
+    }
+
+    long now = System.nanoTime();
+    if(now - mDebugUpdatedNanos > DEBUG_REFRESH_NANOS)
+    {
+      mDebugUpdatedNanos = now;
+      FrameStats stats = mDebugStats;
+      getFrameStats(stats);
+      mDebugLines = new String[3 + stats.rendererCount];
+      mDebugLines[0] = String.format("draw %.1f/s  capture %.1f/s  dropped %d  duplicated %d",
+          stats.getDrawRate(), stats.getCaptureRate(), stats.droppedFrames, stats.duplicatedFrames);
+      mDebugLines[1] = String.format("frame p50 %.2f ms  p99 %.2f ms  bitmaps %.1f MB",
+          stats.frameTimes.getValueAtPercentile(50) / 1e6, stats.frameTimes.getValueAtPercentile(99) / 1e6,
+          stats.bitmapBytes / 1048576.0);
+      mDebugLines[2] = String.format("latency p50 %.1f ms  p99 %.1f ms",
+          stats.captureLatency.getValueAtPercentile(50) / 1e6, stats.captureLatency.getValueAtPercentile(99) / 1e6);
+      for(int i = 0; i < stats.rendererCount; i++)
+      {
+        mDebugLines[3 + i] = String.format("%s p50 %.2f ms  p99 %.2f ms", stats.rendererNames[i],
+            stats.renderTimes[i].getValueAtPercentile(50) / 1e6, stats.renderTimes[i].getValueAtPercentile(99) / 1e6);
+      }
+    }
+
+    for(int i = 0; i < mDebugLines.length; i++)
+    {
+      canvas.drawText(mDebugLines[i], 10, 30 * (i + 1), mDebugPaint);
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.dsp;
+
+/**
+ * Groups FFT bins into a smaller number of bands, spaced on a perceptual
+ * frequency scale, by summing the energy of the bins in each band.
+ *
+ * The range of bins belonging to each band is worked out once, and only again
+ * if the number of bins or the sample rate changes, so aggregating is a
+ * single pass over the bins with no allocation.
+ */
+public class BandAggregator
+{
+  public enum Scale
+  {
+    LINEAR,
+    LOG,
+    // Traunmuller's approximation of the Bark scale
+    BARK,
+    MEL;
+
+    double fromHz(double hz)
+    {
+      switch (this) {
+        case LOG:
+          return Math.log(hz);
+        case BARK:
+          return 26.81 * hz / (1960 + hz) - 0.53;
+        case MEL:
+          return 2595 * Math.log10(1 + hz / 700);
+        default:
+          return hz;
+      }
+    }
+
+    double toHz(double value)
+    {
+      switch (this) {
+        case LOG:
+          return Math.exp(value);
+        case BARK:
+          return 1960 * (value + 0.53) / (26.28 - value);
+        case MEL:
+          return 700 * (Math.pow(10, value / 2595) - 1);
+        default:
+          return value;
+      }
+    }
+  }
+
+  private final int mBands;
+  private final Scale mScale;
+  private final float mMinFrequency;
+  private final float mMaxFrequency;
+
+  // Band b covers bins [mBandStart[b], mBandEnd[b])
+  private final int[] mBandStart;
+  private final int[] mBandEnd;
+  private int mBins = -1;
+  private int mSampleRate = -1;
+
+  /**
+   * @param bands - Number of bands to aggregate into
+   * @param scale - Scale on which the bands are evenly spaced
+   * @param minFrequency - Lower edge of the first band, in Hz. Must be above
+   * 0 for the LOG scale
+   * @param maxFrequency - Upper edge of the last band, in Hz. Limited to half
+   * the sample rate
+   */
+  public BandAggregator(int bands, Scale scale, float minFrequency, float maxFrequency)
+  {
+    if(bands < 1)
+    {
+      throw new IllegalArgumentException("Need at least one band, got " + bands);
+    }
+    if(minFrequency < 0 || maxFrequency <= minFrequency || (scale == Scale.LOG && minFrequency == 0))
+    {
+      throw new IllegalArgumentException("Invalid frequency range " + minFrequency + " - " + maxFrequency);
+    }
+
+    mBands = bands;
+    mScale = scale;
+    mMinFrequency = minFrequency;
+    mMaxFrequency = maxFrequency;
+    mBandStart = new int[bands];
+    mBandEnd = new int[bands];
+  }
+
+  public int getBandCount()
+  {
+    return mBands;
+  }
+
+  /**
+   * Sums the energy of each band
+   * @param energies - Energy of each bin, bin k being centered on
+   * k * sampleRate / (2 * bins) Hz
+   * @param bins - Number of bins in energies
+   * @param sampleRate - Sample rate of the audio, in Hz
+   * @param out - Receives the energy of each band, must hold getBandCount()
+   */
+  public void aggregate(float[] energies, int bins, int sampleRate, float[] out)
+  {
+    prepare(bins, sampleRate);
+
+    for (int b = 0; b < mBands; b++) {
+      float sum = 0;
+      for (int k = mBandStart[b]; k < mBandEnd[b]; k++) {
+        sum += energies[k];
+      }
+      out[b] = sum;
+    }
+  }
+
+  /**
+   * Sums the energy of each band, from the energies in decibels, such as
+   * smoothed levels. Converts through tables rather than Math.log10
+   * @param decibels - 10 * log10 of the energy of each bin, bin k being
+   * centered on k * sampleRate / (2 * bins) Hz
+   * @param bins - Number of bins in decibels
+   * @param sampleRate - Sample rate of the audio, in Hz
+   * @param out - Receives the energy of each band in decibels, negative
+   * infinity if it has none. Must hold getBandCount()
+   */
+  public void aggregateDecibels(float[] decibels, int bins, int sampleRate, float[] out)
+  {
+    prepare(bins, sampleRate);
+
+    for (int b = 0; b < mBands; b++) {
+      float sum = 0;
+      for (int k = mBandStart[b]; k < mBandEnd[b]; k++) {
+        sum += SpectralMath.power(decibels[k]);
+      }
+      out[b] = SpectralMath.decibels(sum);
+    }
+  }
+
+  /**
+   * @return First bin of band, as of the last call to aggregate
+   */
+  public int getBandStart(int band)
+  {
+    return mBandStart[band];
+  }
+
+  /**
+   * @return One past the last bin of band, as of the last call to aggregate
+   */
+  public int getBandEnd(int band)
+  {
+    return mBandEnd[band];
+  }
+
+  /**
+   * Works out the bin range of each band, if bins or sampleRate have changed
+   * since the last call. Only needed before using getBandStart/getBandEnd
+   * without calling aggregate
+   */
+  public void prepare(int bins, int sampleRate)
+  {
+    if (bins != mBins || sampleRate != mSampleRate) {
+      computeRanges(bins, sampleRate);
+    }
+  }
+
+  private void computeRanges(int bins, int sampleRate)
+  {
+    mBins = bins;
+    mSampleRate = sampleRate;
+
+    double binWidth = sampleRate / (2.0 * bins);
+    double maxFrequency = Math.min(mMaxFrequency, sampleRate / 2.0);
+    double low = mScale.fromHz(mMinFrequency);
+    double high = mScale.fromHz(maxFrequency);
+
+    // Bin 0 holds DC, so start from bin 1 at the earliest
+    int end = Math.max(1, (int) Math.round(mMinFrequency / binWidth));
+    for (int b = 0; b < mBands; b++) {
+      double upper = mScale.toHz(low + (high - low) * (b + 1) / mBands);
+      int start = end;
+      // Each band gets at least one bin while there are bins left, so
+      // narrow low bands don't end up empty
+      end = Math.min(bins, Math.max(start + 1, (int) Math.round(upper / binWidth)));
+      if (start >= bins) {
+        start = bins;
+        end = bins;
+      }
+      mBandStart[b] = start;
+      mBandEnd[b] = end;
+    }
+  }
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.dsp;
+
+/**
+ * Detects onsets (beats) in a stream of spectra using spectral flux.
+ *
+ * The flux of a band is how much the level of its bins rose since the last
+ * frame, ignoring bins which fell. Working on decibels rather than raw
+ * magnitudes means a sudden rise counts the same whether the track is quiet
+ * or loudly mastered. Each band, plus the spectrum as a whole, keeps a
+ * running mean and variance of its flux, and an onset is reported when the
+ * flux rises well above that adaptive threshold.
+ *
+ * Statistics decay with time constants in seconds, using frame timestamps,
+ * so detection doesn't depend on the capture or frame rate. Nothing is
+ * allocated once the bin count has settled.
+ */
+public class BeatDetector
+{
+  // Levels below this are treated as silence, which also catches the
+  // negative infinity of empty bins
+  private static final float FLOOR_DB = 0;
+  private static final float MAX_STEP_SECONDS = 0.25f;
+
+  private final BandAggregator mBands;
+  private final int mBandCount;
+
+  private float mSensitivity = 1.5f;
+  private float mMinimumFlux = 0.2f;
+  private float mHistorySeconds = 1;
+  private float mRefractorySeconds = 0.1f;
+
+  private float[] mPrevious;
+  private int mBins = -1;
+  private long mLastTimestamp;
+
+  // Index mBandCount holds the whole spectrum
+  private final float[] mFlux;
+  private final float[] mMean;
+  private final float[] mMeanSquare;
+  private final float[] mSinceOnset;
+  private final boolean[] mOnset;
+  private final float[] mStrength;
+
+  /**
+   * @param bands - Number of log spaced bands to detect onsets in
+   */
+  public BeatDetector(int bands)
+  {
+    mBands = new BandAggregator(bands, BandAggregator.Scale.LOG, 30, 16000);
+    mBandCount = bands;
+    mFlux = new float[bands + 1];
+    mMean = new float[bands + 1];
+    mMeanSquare = new float[bands + 1];
+    mSinceOnset = new float[bands + 1];
+    mOnset = new boolean[bands + 1];
+    mStrength = new float[bands + 1];
+  }
+
+  /**
+   * @param sensitivity - Number of standard deviations above the mean flux
+   * needed for an onset. Lower values detect more onsets
+   * @param minimumFlux - Flux, in average decibels per bin, which must be
+   * exceeded regardless of the statistics. Stops noise in quiet passages
+   * registering
+   */
+  public void setThreshold(float sensitivity, float minimumFlux)
+  {
+    mSensitivity = sensitivity;
+    mMinimumFlux = minimumFlux;
+  }
+
+  /**
+   * @param historySeconds - Time constant of the running flux statistics
+   * @param refractorySeconds - Shortest time between two onsets in a band
+   */
+  public void setTiming(float historySeconds, float refractorySeconds)
+  {
+    mHistorySeconds = historySeconds;
+    mRefractorySeconds = refractorySeconds;
+  }
+
+  public int getBandCount()
+  {
+    return mBandCount;
+  }
+
+  /**
+   * Copies the settings and history of another detector, so this one carries
+   * on exactly as src would
+   * @param src - Detector with the same number of bands
+   */
+  public void copyFrom(BeatDetector src)
+  {
+    if (src.mBandCount != mBandCount) {
+      throw new IllegalArgumentException("Can't copy " + src.mBandCount + " bands into " + mBandCount);
+    }
+    mSensitivity = src.mSensitivity;
+    mMinimumFlux = src.mMinimumFlux;
+    mHistorySeconds = src.mHistorySeconds;
+    mRefractorySeconds = src.mRefractorySeconds;
+    mPrevious = src.mPrevious == null ? null : src.mPrevious.clone();
+    mBins = src.mBins;
+    mLastTimestamp = src.mLastTimestamp;
+    System.arraycopy(src.mFlux, 0, mFlux, 0, mFlux.length);
+    System.arraycopy(src.mMean, 0, mMean, 0, mMean.length);
+    System.arraycopy(src.mMeanSquare, 0, mMeanSquare, 0, mMeanSquare.length);
+    System.arraycopy(src.mSinceOnset, 0, mSinceOnset, 0, mSinceOnset.length);
+    System.arraycopy(src.mOnset, 0, mOnset, 0, mOnset.length);
+    System.arraycopy(src.mStrength, 0, mStrength, 0, mStrength.length);
+  }
+
+  /**
+   * Processes one frame
+   * @param decibels - Level of each bin
+   * @param bins - Number of bins
+   * @param sampleRate - Sample rate in Hz, used to place the bands
+   * @param timestampNanos - Capture time of the frame, from System.nanoTime()
+   * @return true if the frame is a beat, i.e. an onset across the spectrum
+   */
+  public boolean process(float[] decibels, int bins, int sampleRate, long timestampNanos)
+  {
+    mBands.prepare(bins, sampleRate);
+
+    if (bins != mBins) {
+      // First frame, or the layout changed. There's nothing to compare with
+      if (mPrevious == null || mPrevious.length < bins) {
+        mPrevious = new float[bins];
+      }
+      for (int k = 0; k < bins; k++) {
+        mPrevious[k] = Math.max(FLOOR_DB, decibels[k]);
+      }
+      for (int b = 0; b <= mBandCount; b++) {
+        mMean[b] = 0;
+        mMeanSquare[b] = 0;
+        mSinceOnset[b] = mRefractorySeconds;
+        mOnset[b] = false;
+        mStrength[b] = 0;
+      }
+      mBins = bins;
+      mLastTimestamp = timestampNanos;
+      return false;
+    }
+
+    float dt = Math.min(MAX_STEP_SECONDS, Math.max(0, (timestampNanos - mLastTimestamp) / 1e9f));
+    mLastTimestamp = timestampNanos;
+    float decay = mHistorySeconds <= 0 ? 1 : 1 - (float) Math.exp(-dt / mHistorySeconds);
+
+    float totalFlux = 0;
+    for (int b = 0; b < mBandCount; b++) {
+      int start = mBands.getBandStart(b);
+      int end = mBands.getBandEnd(b);
+      float flux = 0;
+      for (int k = start; k < end; k++) {
+        float level = Math.max(FLOOR_DB, decibels[k]);
+        float rise = level - mPrevious[k];
+        if (rise > 0) {
+          flux += rise;
+        }
+        mPrevious[k] = level;
+      }
+      mFlux[b] = end > start ? flux / (end - start) : 0;
+      totalFlux += mFlux[b];
+    }
+    // Every band counts equally towards the whole spectrum, otherwise the
+    // wide treble bands would drown out a kick drum
+    mFlux[mBandCount] = totalFlux / mBandCount;
+
+    for (int b = 0; b <= mBandCount; b++) {
+      detect(b, dt, decay);
+    }
+    return mOnset[mBandCount];
+  }
+
+  private void detect(int band, float dt, float decay)
+  {
+    float flux = mFlux[band];
+    float mean = mMean[band];
+    float deviation = (float) Math.sqrt(Math.max(0, mMeanSquare[band] - mean * mean));
+    float threshold = Math.max(mMinimumFlux, mean + mSensitivity * deviation);
+
+    mSinceOnset[band] += dt;
+    boolean onset = flux > threshold && mSinceOnset[band] >= mRefractorySeconds;
+    mOnset[band] = onset;
+    mStrength[band] = onset ? (flux - mean) / Math.max(deviation, 1e-3f) : 0;
+    if (onset) {
+      mSinceOnset[band] = 0;
+    }
+
+    // Statistics are updated after the test, so an onset doesn't raise its
+    // own threshold
+    mMean[band] = mean + (flux - mean) * decay;
+    mMeanSquare[band] += (flux * flux - mMeanSquare[band]) * decay;
+  }
+
+  /**
+   * @return true if the last frame was an onset across the whole spectrum
+   */
+  public boolean isBeat()
+  {
+    return mOnset[mBandCount];
+  }
+
+  /**
+   * @return Strength of the last beat, in standard deviations above the mean
+   * flux. 0 if the last frame wasn't a beat
+   */
+  public float getBeatStrength()
+  {
+    return mStrength[mBandCount];
+  }
+
+  /**
+   * @return true if the last frame was an onset in band
+   */
+  public boolean isOnset(int band)
+  {
+    return mOnset[band];
+  }
+
+  public float getOnsetStrength(int band)
+  {
+    return mStrength[band];
+  }
+
+  /**
+   * @return Spectral flux of band in the last frame, in average decibels of
+   * rise per bin
+   */
+  public float getFlux(int band)
+  {
+    return mFlux[band];
+  }
+}
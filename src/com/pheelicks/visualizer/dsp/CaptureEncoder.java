@@ -0,0 +1,68 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.dsp;
+
+/**
+ * Turns blocks of PCM samples into the same byte formats the platform
+ * Visualizer delivers, so that audio which doesn't come from a Visualizer can
+ * be fed through the same analysis and renderers:
+ *
+ * - waveform: unsigned 8-bit samples, 128 being silence
+ * - FFT: signed 8-bit (re, im) pairs in the packed layout described in
+ *   {@link FFT}, scaled so a full scale sine peaks at about 64
+ */
+public class CaptureEncoder
+{
+  private final int mCaptureSize;
+  private final FFT mFFT;
+  private final float[] mWork;
+
+  /**
+   * @param captureSize - Samples per capture, a power of 2
+   */
+  public CaptureEncoder(int captureSize)
+  {
+    mCaptureSize = captureSize;
+    mFFT = new FFT(captureSize);
+    mWork = new float[captureSize];
+  }
+
+  public int getCaptureSize()
+  {
+    return mCaptureSize;
+  }
+
+  /**
+   * Encodes captureSize samples
+   * @param samples - Samples normalized to [-1, 1]
+   * @param offset - Index of the first sample to encode
+   * @param waveform - Receives the waveform bytes, or null to skip them
+   * @param fft - Receives the FFT bytes, or null to skip them
+   */
+  public void encode(float[] samples, int offset, byte[] waveform, byte[] fft)
+  {
+    if (waveform != null) {
+      for (int i = 0; i < mCaptureSize; i++) {
+        waveform[i] = (byte) (clamp(Math.round(samples[offset + i] * 128)) + 128);
+      }
+    }
+
+    if (fft != null) {
+      System.arraycopy(samples, offset, mWork, 0, mCaptureSize);
+      mFFT.realForward(mWork);
+      float scale = 128f / mCaptureSize;
+      for (int i = 0; i < mCaptureSize; i++) {
+        fft[i] = (byte) clamp(Math.round(mWork[i] * scale));
+      }
+    }
+  }
+
+  private static int clamp(int value)
+  {
+    return value < -128 ? -128 : (value > 127 ? 127 : value);
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.dsp;
+
+/**
+ * In-place radix-2 FFT of real valued data, working on a preallocated float[].
+ *
+ * A real FFT of n samples is computed as a complex FFT of n/2 points, where
+ * even samples are treated as the real part and odd samples as the imaginary
+ * part, followed by a pass which separates the two. All twiddle factors and
+ * the bit reversal permutation are computed once in the constructor, so
+ * {@link #realForward(float[])} doesn't allocate.
+ *
+ * The output uses the same packed layout as the FFT bytes delivered by the
+ * platform Visualizer (see {@link com.pheelicks.visualizer.FFTData}): data[0] is the
+ * real part of the DC bin, data[1] the real part of the Nyquist bin, and
+ * data[2k], data[2k + 1] are the real and imaginary parts of bin k.
+ */
+public class FFT
+{
+  private final int mSize;
+  private final int mHalfSize;
+
+  // Twiddle factors of the n/2 point complex FFT
+  private final float[] mCos;
+  private final float[] mSin;
+  // Twiddle factors used to split the complex result into the real FFT
+  private final float[] mRealCos;
+  private final float[] mRealSin;
+  // Bit reversed index of each complex point
+  private final int[] mBitReverse;
+
+  /**
+   * @param size - Number of real samples to transform. Must be a power of 2,
+   * and at least 4
+   */
+  public FFT(int size)
+  {
+    if(size < 4 || (size & (size - 1)) != 0)
+    {
+      throw new IllegalArgumentException("FFT size must be a power of 2 >= 4, got " + size);
+    }
+
+    mSize = size;
+    mHalfSize = size / 2;
+
+    mCos = new float[mHalfSize / 2];
+    mSin = new float[mHalfSize / 2];
+    for (int i = 0; i < mHalfSize / 2; i++) {
+      double angle = -2 * Math.PI * i / mHalfSize;
+      mCos[i] = (float) Math.cos(angle);
+      mSin[i] = (float) Math.sin(angle);
+    }
+
+    mRealCos = new float[mHalfSize / 2 + 1];
+    mRealSin = new float[mHalfSize / 2 + 1];
+    for (int k = 0; k <= mHalfSize / 2; k++) {
+      double angle = -2 * Math.PI * k / mSize;
+      mRealCos[k] = (float) Math.cos(angle);
+      mRealSin[k] = (float) Math.sin(angle);
+    }
+
+    int bits = Integer.numberOfTrailingZeros(mHalfSize);
+    mBitReverse = new int[mHalfSize];
+    for (int i = 0; i < mHalfSize; i++) {
+      mBitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+    }
+  }
+
+  public int getSize()
+  {
+    return mSize;
+  }
+
+  /**
+   * Transforms size real samples in place. See the class documentation for
+   * the layout of the result
+   * @param data - Array of at least size samples
+   */
+  public void realForward(float[] data)
+  {
+    complexForward(data);
+
+    // DC and Nyquist are both purely real
+    float r0 = data[0];
+    float i0 = data[1];
+    data[0] = r0 + i0;
+    data[1] = r0 - i0;
+
+    for (int k = 1; k <= mHalfSize / 2; k++) {
+      int a = 2 * k;
+      int b = 2 * (mHalfSize - k);
+      float zr = data[a];
+      float zi = data[a + 1];
+      float cr = data[b];
+      float ci = data[b + 1];
+
+      // Spectra of the even and odd samples
+      float er = (zr + cr) * 0.5f;
+      float ei = (zi - ci) * 0.5f;
+      float or = (zi + ci) * 0.5f;
+      float oi = (cr - zr) * 0.5f;
+
+      float wr = mRealCos[k];
+      float wi = mRealSin[k];
+      float tr = wr * or - wi * oi;
+      float ti = wr * oi + wi * or;
+
+      data[a] = er + tr;
+      data[a + 1] = ei + ti;
+      data[b] = er - tr;
+      data[b + 1] = ti - ei;
+    }
+  }
+
+  // Iterative radix-2 FFT of size/2 interleaved complex points
+  private void complexForward(float[] data)
+  {
+    int n = mHalfSize;
+
+    for (int i = 0; i < n; i++) {
+      int j = mBitReverse[i];
+      if (j > i) {
+        float tr = data[2 * i];
+        float ti = data[2 * i + 1];
+        data[2 * i] = data[2 * j];
+        data[2 * i + 1] = data[2 * j + 1];
+        data[2 * j] = tr;
+        data[2 * j + 1] = ti;
+      }
+    }
+
+    for (int span = 1, stride = n / 2; span < n; span <<= 1, stride >>= 1) {
+      for (int start = 0; start < n; start += span << 1) {
+        for (int k = 0; k < span; k++) {
+          float wr = mCos[k * stride];
+          float wi = mSin[k * stride];
+          int a = 2 * (start + k);
+          int b = 2 * (start + k + span);
+          float br = data[b];
+          float bi = data[b + 1];
+          float tr = wr * br - wi * bi;
+          float ti = wr * bi + wi * br;
+          data[b] = data[a] - tr;
+          data[b + 1] = data[a + 1] - ti;
+          data[a] += tr;
+          data[a + 1] += ti;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.dsp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Precomputed sines and cosines of the angles 2 * PI * i * stride / period,
+ * for i in [0, count). Renderers which lay points out around a circle use
+ * these instead of calling Math.sin and Math.cos for every point.
+ *
+ * Tables are immutable and shared, so renderers with the same layout only
+ * compute them once. Look one up with {@link #get(int, int, int)} when the
+ * number of points changes, and keep hold of it.
+ */
+public class SinCosTable
+{
+  private static final Map<Long, SinCosTable> sTables = new HashMap<Long, SinCosTable>();
+
+  public final int count;
+  public final int stride;
+  public final int period;
+  public final float[] sin;
+  public final float[] cos;
+
+  private SinCosTable(int count, int stride, int period)
+  {
+    this.count = count;
+    this.stride = stride;
+    this.period = period;
+    sin = new float[count];
+    cos = new float[count];
+    for (int i = 0; i < count; i++) {
+      double angle = 2 * Math.PI * i * stride / period;
+      sin[i] = (float) Math.sin(angle);
+      cos[i] = (float) Math.cos(angle);
+    }
+  }
+
+  /**
+   * @param count - Number of angles
+   * @param stride - Step between angles, in units of 2 * PI / period
+   * @param period - Number of steps in a full turn
+   * @return Shared table for these parameters
+   */
+  public static SinCosTable get(int count, int stride, int period)
+  {
+    Long key = Long.valueOf(((long) count << 40) ^ ((long) stride << 20) ^ period);
+    synchronized (sTables) {
+      SinCosTable table = sTables.get(key);
+      if (table == null || table.count != count || table.stride != stride || table.period != period) {
+        table = new SinCosTable(count, stride, period);
+        sTables.put(key, table);
+      }
+      return table;
+    }
+  }
+
+  /**
+   * @return true if this table was built for these parameters
+   */
+  public boolean matches(int count, int stride, int period)
+  {
+    return this.count == count && this.stride == stride && this.period == period;
+  }
+}
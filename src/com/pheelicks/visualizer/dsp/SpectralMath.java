@@ -0,0 +1,103 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.dsp;
+
+/**
+ * Lookup tables for the math the FFT renderers do on every bin of every frame.
+ *
+ * The Visualizer FFT delivers each bin as a pair of signed bytes, so there
+ * are only 65536 possible (re, im) pairs. The decibel value of each one is
+ * computed once, turning a Math.log10 call into an array lookup. Float
+ * powers are converted through a table of the logarithm of the mantissa,
+ * and back through a table of powers of 2.
+ */
+public class SpectralMath
+{
+  // 10 * log10(re * re + im * im), indexed by the two bytes of a bin
+  private static final float[] DECIBELS = new float[256 * 256];
+
+  // Top bits of a float's mantissa used to look up its logarithm
+  private static final int MANTISSA_BITS = 12;
+  // log2 of the middle of each range of mantissas sharing the top bits
+  private static final float[] LOG2_MANTISSA = new float[1 << MANTISSA_BITS];
+  private static final float DECIBELS_PER_LOG2 = (float) (10 * Math.log10(2));
+  // 2 to the power of each fraction in steps of 1 / (length - 1)
+  private static final float[] EXP2_FRACTION = new float[(1 << MANTISSA_BITS) + 1];
+
+  static
+  {
+    for (int m = 0; m < LOG2_MANTISSA.length; m++) {
+      LOG2_MANTISSA[m] = (float) (Math.log(1 + (m + 0.5) / LOG2_MANTISSA.length) / Math.log(2));
+    }
+    for (int f = 0; f < EXP2_FRACTION.length; f++) {
+      EXP2_FRACTION[f] = (float) Math.pow(2, f / (double) (EXP2_FRACTION.length - 1));
+    }
+    for (int re = -128; re < 128; re++) {
+      for (int im = -128; im < 128; im++) {
+        DECIBELS[index((byte) re, (byte) im)] = (float) (10 * Math.log10(re * re + im * im));
+      }
+    }
+  }
+
+  private SpectralMath()
+  {
+  }
+
+  private static int index(byte re, byte im)
+  {
+    return ((re & 0xff) << 8) | (im & 0xff);
+  }
+
+  /**
+   * @param re - Real part of a bin
+   * @param im - Imaginary part of a bin
+   * @return 10 * log10(re * re + im * im). Negative infinity if both are 0
+   */
+  public static float decibels(byte re, byte im)
+  {
+    return DECIBELS[index(re, im)];
+  }
+
+  /**
+   * @return re * re + im * im
+   */
+  public static int magnitudeSquared(byte re, byte im)
+  {
+    return re * re + im * im;
+  }
+
+  /**
+   * @param power - Squared magnitude
+   * @return 10 * log10(power), to within 0.001 dB for normal floats.
+   * Negative infinity if power isn't positive
+   */
+  public static float decibels(float power)
+  {
+    if (!(power > 0)) {
+      return Float.NEGATIVE_INFINITY;
+    }
+    int bits = Float.floatToRawIntBits(power);
+    int exponent = ((bits >>> 23) & 0xff) - 127;
+    int mantissa = (bits >>> (23 - MANTISSA_BITS)) & (LOG2_MANTISSA.length - 1);
+    return (exponent + LOG2_MANTISSA[mantissa]) * DECIBELS_PER_LOG2;
+  }
+
+  /**
+   * @param decibels - 10 * log10 of a power
+   * @return The power, to within 0.001 dB. 0 for negative infinity
+   */
+  public static float power(float decibels)
+  {
+    if (!(decibels > Float.NEGATIVE_INFINITY)) {
+      return 0;
+    }
+    float log2 = decibels / DECIBELS_PER_LOG2;
+    int whole = (int) Math.floor(log2);
+    int fraction = Math.round((log2 - whole) * (EXP2_FRACTION.length - 1));
+    return Math.scalb(EXP2_FRACTION[fraction], whole);
+  }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.dsp;
+
+import com.pheelicks.visualizer.AudioData;
+
+/**
+ * Computes floating point magnitude spectra from a stream of samples, as an
+ * alternative to the 8-bit FFT bytes of the platform Visualizer.
+ *
+ * Samples are collected into a history of one FFT block. Every hop samples,
+ * which depends on the overlap, the block is windowed and transformed. All
+ * buffers are allocated up front, so processing doesn't allocate.
+ */
+public class SpectrumAnalyzer
+{
+  private final FFT mFFT;
+  private final int mSize;
+  private final int mHop;
+
+  private final float[] mWindow;
+  private final float mWindowGain;
+  private final float[] mHistory;
+  private final float[] mWork;
+  private final float[] mMagnitudes;
+
+  // mHistory is circular, mPosition is where the next sample goes
+  private int mPosition = 0;
+  // Number of samples in mHistory, and number received since the last block
+  private int mFilled = 0;
+  private int mSinceLastBlock = 0;
+  private boolean mHasSpectrum = false;
+
+  /**
+   * @param size - FFT size, must be a power of 2
+   * @param window - Window to apply to each block
+   * @param overlap - Fraction of each block shared with the next, in [0, 1)
+   */
+  public SpectrumAnalyzer(int size, Window window, float overlap)
+  {
+    if(overlap < 0 || overlap >= 1)
+    {
+      throw new IllegalArgumentException("Overlap must be in [0, 1), got " + overlap);
+    }
+
+    mFFT = new FFT(size);
+    mSize = size;
+    mHop = Math.max(1, Math.round(size * (1 - overlap)));
+
+    mWindow = new float[size];
+    window.fill(mWindow);
+    float sum = 0;
+    for (int i = 0; i < size; i++) {
+      sum += mWindow[i];
+    }
+    // Scale so that a full scale sine wave has a magnitude of 1
+    mWindowGain = 2 / sum;
+
+    mHistory = new float[size];
+    mWork = new float[size];
+    mMagnitudes = new float[size / 2 + 1];
+  }
+
+  /**
+   * Adds the samples of a waveform capture: its float samples if they have
+   * been filled in, which may be at full resolution, otherwise its unsigned
+   * 8-bit bytes, converted
+   * @param data - Waveform to analyze
+   * @return true if at least one new spectrum was computed
+   */
+  public boolean process(AudioData data)
+  {
+    if (data.sampleCount > 0) {
+      return process(data.samples, 0, data.sampleCount);
+    }
+
+    boolean computed = false;
+    byte[] bytes = data.bytes;
+    for (int i = 0; i < bytes.length; i++) {
+      computed |= add(((bytes[i] & 0xff) - 128) / 128f);
+    }
+    return computed;
+  }
+
+  /**
+   * Adds samples normalized to [-1, 1]
+   * @return true if at least one new spectrum was computed
+   */
+  public boolean process(float[] samples, int offset, int count)
+  {
+    boolean computed = false;
+    for (int i = offset; i < offset + count; i++) {
+      computed |= add(samples[i]);
+    }
+    return computed;
+  }
+
+  private boolean add(float sample)
+  {
+    mHistory[mPosition] = sample;
+    mPosition = (mPosition + 1) & (mSize - 1);
+    if (mFilled < mSize) {
+      mFilled++;
+    }
+    mSinceLastBlock++;
+
+    if (mFilled == mSize && mSinceLastBlock >= mHop) {
+      mSinceLastBlock = 0;
+      computeSpectrum();
+      return true;
+    }
+    return false;
+  }
+
+  private void computeSpectrum()
+  {
+    // Oldest sample is at mPosition
+    int tail = mSize - mPosition;
+    for (int i = 0; i < tail; i++) {
+      mWork[i] = mHistory[mPosition + i] * mWindow[i];
+    }
+    for (int i = tail; i < mSize; i++) {
+      mWork[i] = mHistory[i - tail] * mWindow[i];
+    }
+    mFFT.realForward(mWork);
+
+    mMagnitudes[0] = Math.abs(mWork[0]) * mWindowGain / 2;
+    mMagnitudes[mSize / 2] = Math.abs(mWork[1]) * mWindowGain / 2;
+    for (int k = 1; k < mSize / 2; k++) {
+      float re = mWork[2 * k];
+      float im = mWork[2 * k + 1];
+      mMagnitudes[k] = (float) Math.sqrt(re * re + im * im) * mWindowGain;
+    }
+    mHasSpectrum = true;
+  }
+
+  /**
+   * @return Whether a spectrum has been computed yet
+   */
+  public boolean hasSpectrum()
+  {
+    return mHasSpectrum;
+  }
+
+  /**
+   * @return Magnitude of each of the size / 2 + 1 bins of the latest spectrum.
+   * The array is reused, so copy it if it needs to be kept
+   */
+  public float[] getMagnitudes()
+  {
+    return mMagnitudes;
+  }
+
+  /**
+   * @return Magnitude of bin in decibels relative to full scale
+   */
+  public float getDecibels(int bin)
+  {
+    return 20 * (float) Math.log10(mMagnitudes[bin]);
+  }
+
+  public int getSize()
+  {
+    return mSize;
+  }
+}
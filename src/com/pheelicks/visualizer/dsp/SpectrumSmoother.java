@@ -0,0 +1,211 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.dsp;
+
+/**
+ * Smooths a spectrum over time, so that levels don't jump from one capture to
+ * the next. For each bin it keeps:
+ *
+ * - a smoothed level, which rises with the attack time constant and falls
+ *   with the release time constant
+ * - a peak, which holds for a while and then falls with constant gravity
+ * - an exponential moving average
+ *
+ * All behaviour is defined in seconds, using the timestamp of each frame, so
+ * the result is the same whatever rate frames arrive at. State lives in
+ * primitive arrays which are only reallocated when the bin count changes.
+ */
+public class SpectrumSmoother
+{
+  // Longest gap between frames which is treated as continuous. Anything
+  // longer (a pause, say) is clamped so levels don't jump
+  private static final float MAX_STEP_SECONDS = 0.25f;
+
+  private float mAttack;
+  private float mRelease;
+  private float mPeakHold = 0.5f;
+  private float mGravity = 100;
+  private float mAverageTime = 1;
+  private float mFloor = 0;
+
+  private float[] mSmoothed;
+  private float[] mPeaks;
+  private float[] mPeakVelocity;
+  private float[] mPeakHoldRemaining;
+  private float[] mAverage;
+  private int mCount = 0;
+  private long mLastTimestamp = 0;
+
+  /**
+   * @param attackSeconds - Time constant for rising levels
+   * @param releaseSeconds - Time constant for falling levels
+   */
+  public SpectrumSmoother(float attackSeconds, float releaseSeconds)
+  {
+    mAttack = attackSeconds;
+    mRelease = releaseSeconds;
+  }
+
+  /**
+   * @param holdSeconds - How long a peak stays put before falling
+   * @param gravity - Acceleration of a falling peak, in level units per second squared
+   */
+  public void setPeakHold(float holdSeconds, float gravity)
+  {
+    mPeakHold = holdSeconds;
+    mGravity = gravity;
+  }
+
+  /**
+   * @param seconds - Time constant of the moving average
+   */
+  public void setAverageTime(float seconds)
+  {
+    mAverageTime = seconds;
+  }
+
+  /**
+   * @param floor - Lowest level. Lower input, including the negative infinity
+   * of an empty bin in decibels, is clamped to this. Defaults to 0
+   */
+  public void setFloor(float floor)
+  {
+    mFloor = floor;
+  }
+
+  /**
+   * Forgets all history, so the next frame is taken as is
+   */
+  public void reset()
+  {
+    mCount = 0;
+  }
+
+  /**
+   * Copies the settings and history of another smoother, so this one carries
+   * on exactly as src would
+   */
+  public void copyFrom(SpectrumSmoother src)
+  {
+    mAttack = src.mAttack;
+    mRelease = src.mRelease;
+    mPeakHold = src.mPeakHold;
+    mGravity = src.mGravity;
+    mAverageTime = src.mAverageTime;
+    mFloor = src.mFloor;
+    mCount = src.mCount;
+    mLastTimestamp = src.mLastTimestamp;
+    if (src.mSmoothed == null) {
+      mSmoothed = null;
+      return;
+    }
+    mSmoothed = src.mSmoothed.clone();
+    mPeaks = src.mPeaks.clone();
+    mPeakVelocity = src.mPeakVelocity.clone();
+    mPeakHoldRemaining = src.mPeakHoldRemaining.clone();
+    mAverage = src.mAverage.clone();
+  }
+
+  /**
+   * Advances the smoothing by one frame
+   * @param values - Level of each bin in this frame
+   * @param count - Number of bins
+   * @param timestampNanos - Time the frame was captured, from System.nanoTime()
+   */
+  public void process(float[] values, int count, long timestampNanos)
+  {
+    if (mSmoothed == null || mSmoothed.length < count) {
+      mSmoothed = new float[count];
+      mPeaks = new float[count];
+      mPeakVelocity = new float[count];
+      mPeakHoldRemaining = new float[count];
+      mAverage = new float[count];
+      mCount = 0;
+    }
+
+    if (count != mCount) {
+      // First frame, or the layout changed. Start from the current levels
+      for (int i = 0; i < count; i++) {
+        float value = clamp(values[i]);
+        mSmoothed[i] = value;
+        mPeaks[i] = value;
+        mPeakVelocity[i] = 0;
+        mPeakHoldRemaining[i] = mPeakHold;
+        mAverage[i] = value;
+      }
+      mCount = count;
+      mLastTimestamp = timestampNanos;
+      return;
+    }
+
+    float dt = Math.min(MAX_STEP_SECONDS, Math.max(0, (timestampNanos - mLastTimestamp) / 1e9f));
+    mLastTimestamp = timestampNanos;
+
+    float attack = coefficient(dt, mAttack);
+    float release = coefficient(dt, mRelease);
+    float average = coefficient(dt, mAverageTime);
+
+    for (int i = 0; i < count; i++) {
+      float value = clamp(values[i]);
+
+      float smoothed = mSmoothed[i];
+      smoothed += (value - smoothed) * (value > smoothed ? attack : release);
+      mSmoothed[i] = smoothed;
+
+      mAverage[i] += (value - mAverage[i]) * average;
+
+      if (value >= mPeaks[i]) {
+        mPeaks[i] = value;
+        mPeakVelocity[i] = 0;
+        mPeakHoldRemaining[i] = mPeakHold;
+      } else {
+        // Whatever part of the step is left after the hold runs out is
+        // spent falling, with constant acceleration
+        float fall = dt - mPeakHoldRemaining[i];
+        mPeakHoldRemaining[i] = Math.max(0, -fall);
+        if (fall > 0) {
+          float velocity = mPeakVelocity[i];
+          mPeaks[i] = Math.max(value, mPeaks[i] - velocity * fall - 0.5f * mGravity * fall * fall);
+          mPeakVelocity[i] = velocity + mGravity * fall;
+        }
+      }
+    }
+  }
+
+  // Fraction of the way to move towards the target in dt, for an exponential
+  // approach with time constant tau
+  private static float coefficient(float dt, float tau)
+  {
+    return tau <= 0 ? 1 : 1 - (float) Math.exp(-dt / tau);
+  }
+
+  private float clamp(float value)
+  {
+    // Also catches NaN
+    return value > mFloor ? value : mFloor;
+  }
+
+  public int getCount()
+  {
+    return mCount;
+  }
+
+  public float[] getSmoothed()
+  {
+    return mSmoothed;
+  }
+
+  public float[] getPeaks()
+  {
+    return mPeaks;
+  }
+
+  public float[] getAverage()
+  {
+    return mAverage;
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.dsp;
+
+/**
+ * Window functions which are applied to a block of samples before the FFT,
+ * to reduce the spectral leakage caused by cutting the signal into blocks
+ */
+public enum Window
+{
+  RECTANGULAR,
+  HANN,
+  HAMMING,
+  BLACKMAN;
+
+  /**
+   * Fills coefficients with this window, sized to its length. Intended to be
+   * called once, with the result reused for every block
+   * @param coefficients - Array to fill
+   */
+  public void fill(float[] coefficients)
+  {
+    int n = coefficients.length;
+    for (int i = 0; i < n; i++) {
+      double phase = 2 * Math.PI * i / (n - 1);
+      double value;
+      switch (this) {
+        case HANN:
+          value = 0.5 - 0.5 * Math.cos(phase);
+          break;
+        case HAMMING:
+          value = 0.54 - 0.46 * Math.cos(phase);
+          break;
+        case BLACKMAN:
+          value = 0.42 - 0.5 * Math.cos(phase) + 0.08 * Math.cos(2 * phase);
+          break;
+        default:
+          value = 1;
+          break;
+      }
+      coefficients[i] = (float) value;
+    }
+  }
+}
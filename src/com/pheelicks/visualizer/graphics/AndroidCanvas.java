@@ -0,0 +1,200 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff.Mode;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+/**
+ * {@link VisualizerCanvas} which draws onto an android.graphics.Canvas.
+ *
+ * Each {@link Brush} is turned into a Paint the first time it is used, and
+ * again only after it has changed, so drawing doesn't allocate. Likewise
+ * each {@link ScrollingImage} gets a Bitmap, into which only the columns
+ * added since it was last drawn are copied.
+ */
+public class AndroidCanvas implements VisualizerCanvas
+{
+  private static final PorterDuffXfermode MULTIPLY = new PorterDuffXfermode(Mode.MULTIPLY);
+  private static final PorterDuffXfermode LIGHTEN = new PorterDuffXfermode(Mode.LIGHTEN);
+  private static final PorterDuffXfermode CLEAR = new PorterDuffXfermode(Mode.CLEAR);
+
+  private Canvas mCanvas;
+  private float mScale = 1;
+  private final Rect mSource = new Rect();
+  private final Rect mDestination = new Rect();
+
+  public AndroidCanvas()
+  {
+  }
+
+  public AndroidCanvas(Canvas canvas)
+  {
+    mCanvas = canvas;
+  }
+
+  /**
+   * @param canvas - Canvas to draw onto from now on
+   */
+  public void setCanvas(Canvas canvas)
+  {
+    setCanvas(canvas, 1);
+  }
+
+  /**
+   * Draws onto a canvas smaller than the area being drawn, e.g. a bitmap at
+   * half the resolution of the view. Everything drawn is scaled down, and
+   * the width and height reported are those of the full size area
+   * @param canvas - Canvas to draw onto from now on. Its matrix is scaled
+   * @param scale - Size of the canvas relative to the area, in (0, 1]
+   */
+  public void setCanvas(Canvas canvas, float scale)
+  {
+    mCanvas = canvas;
+    mScale = scale;
+    if (scale != 1) {
+      canvas.scale(scale, scale);
+    }
+  }
+
+  /**
+   * @return Size of the canvas relative to the area drawn
+   */
+  public float getScale()
+  {
+    return mScale;
+  }
+
+  public Canvas getCanvas()
+  {
+    return mCanvas;
+  }
+
+  @Override
+  public int getWidth()
+  {
+    return Math.round(mCanvas.getWidth() / mScale);
+  }
+
+  @Override
+  public int getHeight()
+  {
+    return Math.round(mCanvas.getHeight() / mScale);
+  }
+
+  @Override
+  public void drawLines(float[] points, int offset, int count, Brush brush)
+  {
+    mCanvas.drawLines(points, offset, count, paintFor(brush));
+  }
+
+  @Override
+  public void drawPaint(Brush brush)
+  {
+    mCanvas.drawPaint(paintFor(brush));
+  }
+
+  @Override
+  public void drawRect(Bounds bounds, Brush brush)
+  {
+    // Paints default to the fill style, which drawLines ignores
+    mCanvas.drawRect(bounds.left, bounds.top, bounds.right, bounds.bottom, paintFor(brush));
+  }
+
+  @Override
+  public void drawImage(ScrollingImage image, Bounds bounds, Brush brush)
+  {
+    Bitmap bitmap = bitmapFor(image);
+    Paint paint = paintFor(brush);
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int oldest = image.getOldestColumn();
+
+    // Oldest columns to the end of the bitmap on the left, then the rest
+    int split = bounds.left + Math.round((float) bounds.width() * (width - oldest) / width);
+    mSource.set(oldest, 0, width, height);
+    mDestination.set(bounds.left, bounds.top, split, bounds.bottom);
+    mCanvas.drawBitmap(bitmap, mSource, mDestination, paint);
+    if (oldest > 0) {
+      mSource.set(0, 0, oldest, height);
+      mDestination.set(split, bounds.top, bounds.right, bounds.bottom);
+      mCanvas.drawBitmap(bitmap, mSource, mDestination, paint);
+    }
+  }
+
+  /**
+   * @return Bitmap with the pixels of image. Owned by the image, don't
+   * modify it
+   */
+  public static Bitmap bitmapFor(ScrollingImage image)
+  {
+    Bitmap bitmap = (Bitmap) image.mPlatformCache;
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] pixels = image.getPixels();
+    long added = image.getColumnsAdded();
+    long missing = added - image.mPlatformColumns;
+
+    if (bitmap == null || image.mPlatformCacheGeneration != image.getGeneration()
+        || missing >= width) {
+      if (bitmap == null) {
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+      }
+      bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+    } else if (missing > 0) {
+      // The missing columns end just before the oldest, and may wrap around
+      int start = (int) ((image.getOldestColumn() - missing + width) % width);
+      int count = (int) Math.min(missing, width - start);
+      bitmap.setPixels(pixels, start, width, start, 0, count, height);
+      if (count < missing) {
+        bitmap.setPixels(pixels, 0, width, 0, 0, (int) missing - count, height);
+      }
+    }
+
+    image.mPlatformCache = bitmap;
+    image.mPlatformCacheGeneration = image.getGeneration();
+    image.mPlatformColumns = added;
+    return bitmap;
+  }
+
+  /**
+   * @return Paint equivalent to brush. Owned by the brush, don't modify it
+   */
+  public static Paint paintFor(Brush brush)
+  {
+    Paint paint = (Paint) brush.mPlatformCache;
+    if (paint == null || brush.mPlatformCacheVersion != brush.getVersion()) {
+      if (paint == null) {
+        paint = new Paint();
+      }
+      paint.setColor(brush.getColor());
+      paint.setStrokeWidth(brush.getStrokeWidth());
+      paint.setAntiAlias(brush.isAntiAlias());
+      switch (brush.getBlendMode()) {
+        case MULTIPLY:
+          paint.setXfermode(MULTIPLY);
+          break;
+        case LIGHTEN:
+          paint.setXfermode(LIGHTEN);
+          break;
+        case CLEAR:
+          paint.setXfermode(CLEAR);
+          break;
+        default:
+          paint.setXfermode(null);
+          break;
+      }
+      brush.mPlatformCache = paint;
+      brush.mPlatformCacheVersion = brush.getVersion();
+    }
+    return paint;
+  }
+}
@@ -0,0 +1,23 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.graphics;
+
+/**
+ * How a {@link Brush} combines with what is already on the canvas. These
+ * follow the Porter-Duff modes of the same name on Android
+ */
+public enum BlendMode
+{
+  // Source drawn over the destination, the default
+  SRC_OVER,
+  // Each channel multiplied, which darkens. Used to fade out old frames
+  MULTIPLY,
+  // Lighter of source and destination
+  LIGHTEN,
+  // Destination cleared to transparent, whatever the source
+  CLEAR
+}
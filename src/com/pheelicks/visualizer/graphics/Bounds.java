@@ -0,0 +1,116 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.graphics;
+
+/**
+ * Integer rectangle, the platform independent equivalent of
+ * android.graphics.Rect. Right and bottom are exclusive
+ */
+public class Bounds
+{
+  public int left;
+  public int top;
+  public int right;
+  public int bottom;
+
+  public Bounds()
+  {
+  }
+
+  public Bounds(int left, int top, int right, int bottom)
+  {
+    set(left, top, right, bottom);
+  }
+
+  public void set(int left, int top, int right, int bottom)
+  {
+    this.left = left;
+    this.top = top;
+    this.right = right;
+    this.bottom = bottom;
+  }
+
+  public void set(Bounds other)
+  {
+    set(other.left, other.top, other.right, other.bottom);
+  }
+
+  public int width()
+  {
+    return right - left;
+  }
+
+  public int height()
+  {
+    return bottom - top;
+  }
+
+  public boolean isEmpty()
+  {
+    return left >= right || top >= bottom;
+  }
+
+  public void setEmpty()
+  {
+    set(0, 0, 0, 0);
+  }
+
+  /**
+   * Grows these bounds to also contain other. Empty bounds are ignored
+   */
+  public void union(Bounds other)
+  {
+    if (other.isEmpty()) {
+      return;
+    }
+    if (isEmpty()) {
+      set(other);
+      return;
+    }
+    left = Math.min(left, other.left);
+    top = Math.min(top, other.top);
+    right = Math.max(right, other.right);
+    bottom = Math.max(bottom, other.bottom);
+  }
+
+  /**
+   * Shrinks these bounds to their overlap with other, which may be empty
+   */
+  public void intersect(Bounds other)
+  {
+    left = Math.max(left, other.left);
+    top = Math.max(top, other.top);
+    right = Math.min(right, other.right);
+    bottom = Math.min(bottom, other.bottom);
+    if (isEmpty()) {
+      setEmpty();
+    }
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (!(o instanceof Bounds)) {
+      return false;
+    }
+    Bounds other = (Bounds) o;
+    return left == other.left && top == other.top
+        && right == other.right && bottom == other.bottom;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return ((left * 31 + top) * 31 + right) * 31 + bottom;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "Bounds(" + left + ", " + top + " - " + right + ", " + bottom + ")";
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.graphics;
+
+/**
+ * Style to draw with on a {@link VisualizerCanvas}: the platform independent
+ * equivalent of the few parts of android.graphics.Paint the renderers use
+ */
+public class Brush
+{
+  private int mColor = 0xff000000;
+  private float mStrokeWidth = 0;
+  private boolean mAntiAlias = false;
+  private BlendMode mBlendMode = BlendMode.SRC_OVER;
+
+  // Bumped on every change, so canvases can cache platform objects per brush
+  private int mVersion = 0;
+  // Cache for the canvas implementation, e.g. the Paint of AndroidCanvas
+  Object mPlatformCache;
+  int mPlatformCacheVersion = -1;
+
+  public Brush()
+  {
+  }
+
+  public Brush(Brush other)
+  {
+    set(other);
+  }
+
+  /**
+   * Copies all properties of other
+   */
+  public void set(Brush other)
+  {
+    if (mColor == other.mColor && mStrokeWidth == other.mStrokeWidth
+        && mAntiAlias == other.mAntiAlias && mBlendMode == other.mBlendMode) {
+      // Unchanged, so cached platform objects stay valid
+      return;
+    }
+    mColor = other.mColor;
+    mStrokeWidth = other.mStrokeWidth;
+    mAntiAlias = other.mAntiAlias;
+    mBlendMode = other.mBlendMode;
+    mVersion++;
+  }
+
+  /**
+   * @return A color int from its alpha, red, green and blue components, each
+   * in [0, 255]. Same as android.graphics.Color.argb
+   */
+  public static int argb(int alpha, int red, int green, int blue)
+  {
+    return (alpha << 24) | (red << 16) | (green << 8) | blue;
+  }
+
+  /**
+   * @param color - Non-premultiplied ARGB color
+   */
+  public void setColor(int color)
+  {
+    mColor = color;
+    mVersion++;
+  }
+
+  public int getColor()
+  {
+    return mColor;
+  }
+
+  public int getAlpha()
+  {
+    return mColor >>> 24;
+  }
+
+  /**
+   * @param width - Width of lines in pixels. 0 draws 1 pixel wide lines
+   */
+  public void setStrokeWidth(float width)
+  {
+    mStrokeWidth = width;
+    mVersion++;
+  }
+
+  public float getStrokeWidth()
+  {
+    return mStrokeWidth;
+  }
+
+  public void setAntiAlias(boolean antiAlias)
+  {
+    mAntiAlias = antiAlias;
+    mVersion++;
+  }
+
+  public boolean isAntiAlias()
+  {
+    return mAntiAlias;
+  }
+
+  public void setBlendMode(BlendMode mode)
+  {
+    mBlendMode = mode;
+    mVersion++;
+  }
+
+  public BlendMode getBlendMode()
+  {
+    return mBlendMode;
+  }
+
+  /**
+   * @return Number which changes whenever any property changes
+   */
+  public int getVersion()
+  {
+    return mVersion;
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.graphics;
+
+/**
+ * Passes drawing on to another {@link VisualizerCanvas}, keeping track of the
+ * bounds of everything drawn. This is how renderers report the area they
+ * touched, without each having to work it out.
+ */
+public class DirtyTrackingCanvas implements VisualizerCanvas
+{
+  private VisualizerCanvas mCanvas;
+  private final Bounds mDirty = new Bounds();
+  private final Bounds mFull = new Bounds();
+  private final Bounds mRect = new Bounds();
+
+  /**
+   * @param canvas - Canvas to draw onto from now on
+   */
+  public void setCanvas(VisualizerCanvas canvas)
+  {
+    mCanvas = canvas;
+  }
+
+  /**
+   * Forgets what has been drawn so far
+   */
+  public void reset()
+  {
+    mDirty.setEmpty();
+  }
+
+  /**
+   * @return Bounds of everything drawn since the last reset, clipped to
+   * the canvas. Don't modify them
+   */
+  public Bounds getDirtyBounds()
+  {
+    return mDirty;
+  }
+
+  @Override
+  public int getWidth()
+  {
+    return mCanvas.getWidth();
+  }
+
+  @Override
+  public int getHeight()
+  {
+    return mCanvas.getHeight();
+  }
+
+  @Override
+  public void drawLines(float[] points, int offset, int count, Brush brush)
+  {
+    mCanvas.drawLines(points, offset, count, brush);
+
+    float minX = Float.POSITIVE_INFINITY;
+    float minY = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY;
+    float maxY = Float.NEGATIVE_INFINITY;
+    for (int i = offset; i + 1 < offset + count; i += 2) {
+      float x = points[i];
+      float y = points[i + 1];
+      // Lines with infinite or NaN ends aren't drawn
+      if (x - x != 0 || y - y != 0) {
+        continue;
+      }
+      minX = Math.min(minX, x);
+      minY = Math.min(minY, y);
+      maxX = Math.max(maxX, x);
+      maxY = Math.max(maxY, y);
+    }
+    if (minX > maxX) {
+      return;
+    }
+
+    // Half the stroke either side, and a pixel for anti-aliasing
+    float margin = Math.max(1, brush.getStrokeWidth()) / 2 + 1;
+    add((int) Math.floor(minX - margin), (int) Math.floor(minY - margin),
+        (int) Math.ceil(maxX + margin), (int) Math.ceil(maxY + margin));
+  }
+
+  @Override
+  public void drawPaint(Brush brush)
+  {
+    mCanvas.drawPaint(brush);
+    add(0, 0, getWidth(), getHeight());
+  }
+
+  @Override
+  public void drawRect(Bounds bounds, Brush brush)
+  {
+    mCanvas.drawRect(bounds, brush);
+    add(bounds.left, bounds.top, bounds.right, bounds.bottom);
+  }
+
+  @Override
+  public void drawImage(ScrollingImage image, Bounds bounds, Brush brush)
+  {
+    mCanvas.drawImage(image, bounds, brush);
+    add(bounds.left, bounds.top, bounds.right, bounds.bottom);
+  }
+
+  private void add(int left, int top, int right, int bottom)
+  {
+    mRect.set(left, top, right, bottom);
+    mFull.set(0, 0, getWidth(), getHeight());
+    mRect.intersect(mFull);
+    mDirty.union(mRect);
+  }
+}
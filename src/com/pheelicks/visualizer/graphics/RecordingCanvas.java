@@ -0,0 +1,193 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.graphics;
+
+import java.util.Arrays;
+
+/**
+ * {@link VisualizerCanvas} which records drawing, rather than doing it, so
+ * it can be replayed later onto another canvas, optionally more transparent.
+ *
+ * Points and brushes are copied when recorded, so callers can keep reusing
+ * theirs. The storage is kept between recordings, so once it has grown large
+ * enough recording doesn't allocate. Images are the exception: only a
+ * reference is kept, so they are replayed as they are at the time of replay.
+ */
+public class RecordingCanvas implements VisualizerCanvas
+{
+  private static final int OP_LINES = 0;
+  private static final int OP_PAINT = 1;
+  private static final int OP_RECT = 2;
+  private static final int OP_IMAGE = 3;
+
+  private int mWidth;
+  private int mHeight;
+
+  // Per operation: its type, and where its points start and how many there are
+  private int[] mOps = new int[3 * 16];
+  private Brush[] mBrushes = new Brush[16];
+  private ScrollingImage[] mImages = new ScrollingImage[16];
+  private int mOpCount = 0;
+  private float[] mPoints = new float[1024];
+  private int mPointCount = 0;
+
+  private final Brush mReplayBrush = new Brush();
+  private final Bounds mRect = new Bounds();
+
+  /**
+   * Forgets everything recorded, ready to record a new frame
+   * @param width - Width reported to whatever draws
+   * @param height - Height reported to whatever draws
+   */
+  public void reset(int width, int height)
+  {
+    mWidth = width;
+    mHeight = height;
+    // Don't keep images alive once they won't be drawn
+    Arrays.fill(mImages, 0, mOpCount, null);
+    mOpCount = 0;
+    mPointCount = 0;
+  }
+
+  /**
+   * @return Whether nothing has been recorded since the last reset
+   */
+  public boolean isEmpty()
+  {
+    return mOpCount == 0;
+  }
+
+  @Override
+  public int getWidth()
+  {
+    return mWidth;
+  }
+
+  @Override
+  public int getHeight()
+  {
+    return mHeight;
+  }
+
+  @Override
+  public void drawLines(float[] points, int offset, int count, Brush brush)
+  {
+    int start = addPoints(count);
+    System.arraycopy(points, offset, mPoints, start, count);
+    addOp(OP_LINES, start, count, brush);
+  }
+
+  @Override
+  public void drawPaint(Brush brush)
+  {
+    addOp(OP_PAINT, 0, 0, brush);
+  }
+
+  @Override
+  public void drawRect(Bounds bounds, Brush brush)
+  {
+    addOp(OP_RECT, addBounds(bounds), 4, brush);
+  }
+
+  @Override
+  public void drawImage(ScrollingImage image, Bounds bounds, Brush brush)
+  {
+    addOp(OP_IMAGE, addBounds(bounds), 4, brush);
+    mImages[mOpCount - 1] = image;
+  }
+
+  /**
+   * Draws everything recorded onto another canvas
+   * @param canvas - Canvas to draw onto
+   * @param opacity - Multiplies the alpha of every brush, in [0, 1]
+   */
+  public void replay(VisualizerCanvas canvas, float opacity)
+  {
+    for (int i = 0; i < mOpCount; i++) {
+      int type = mOps[i * 3];
+      int start = mOps[i * 3 + 1];
+      int count = mOps[i * 3 + 2];
+
+      Brush brush = mBrushes[i];
+      if (opacity < 1) {
+        mReplayBrush.set(brush);
+        int alpha = Math.round(brush.getAlpha() * Math.max(0, opacity));
+        mReplayBrush.setColor((alpha << 24) | (brush.getColor() & 0xffffff));
+        brush = mReplayBrush;
+      }
+
+      switch (type) {
+        case OP_LINES:
+          canvas.drawLines(mPoints, start, count, brush);
+          break;
+        case OP_PAINT:
+          canvas.drawPaint(brush);
+          break;
+        case OP_RECT:
+          setRect(start);
+          canvas.drawRect(mRect, brush);
+          break;
+        default:
+          setRect(start);
+          canvas.drawImage(mImages[i], mRect, brush);
+          break;
+      }
+    }
+  }
+
+  private void setRect(int start)
+  {
+    mRect.set((int) mPoints[start], (int) mPoints[start + 1],
+        (int) mPoints[start + 2], (int) mPoints[start + 3]);
+  }
+
+  private int addBounds(Bounds bounds)
+  {
+    int start = addPoints(4);
+    mPoints[start] = bounds.left;
+    mPoints[start + 1] = bounds.top;
+    mPoints[start + 2] = bounds.right;
+    mPoints[start + 3] = bounds.bottom;
+    return start;
+  }
+
+  private int addPoints(int count)
+  {
+    if (mPointCount + count > mPoints.length) {
+      float[] points = new float[Math.max(mPoints.length * 2, mPointCount + count)];
+      System.arraycopy(mPoints, 0, points, 0, mPointCount);
+      mPoints = points;
+    }
+    int start = mPointCount;
+    mPointCount += count;
+    return start;
+  }
+
+  private void addOp(int type, int start, int count, Brush brush)
+  {
+    if (mOpCount == mBrushes.length) {
+      int[] ops = new int[mOps.length * 2];
+      System.arraycopy(mOps, 0, ops, 0, mOps.length);
+      mOps = ops;
+      Brush[] brushes = new Brush[mBrushes.length * 2];
+      System.arraycopy(mBrushes, 0, brushes, 0, mBrushes.length);
+      mBrushes = brushes;
+      ScrollingImage[] images = new ScrollingImage[mImages.length * 2];
+      System.arraycopy(mImages, 0, images, 0, mImages.length);
+      mImages = images;
+    }
+    mOps[mOpCount * 3] = type;
+    mOps[mOpCount * 3 + 1] = start;
+    mOps[mOpCount * 3 + 2] = count;
+    // Brush objects are reused between recordings, only their values change
+    if (mBrushes[mOpCount] == null) {
+      mBrushes[mOpCount] = new Brush();
+    }
+    mBrushes[mOpCount].set(brush);
+    mOpCount++;
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Image which scrolls left one column at a time, for time based views such
+ * as a spectrogram.
+ *
+ * The columns are a circular buffer: adding a column overwrites the oldest
+ * one and moves the write position on, rather than shifting the whole image,
+ * so it costs O(height) however wide the image is. Canvases draw the image
+ * from the oldest column to the newest, see
+ * {@link VisualizerCanvas#drawImage(ScrollingImage, Bounds, Brush)}.
+ */
+public class ScrollingImage
+{
+  private final int mWidth;
+  private final int mHeight;
+  // Non-premultiplied ARGB, row by row, like Bitmap.setPixels takes
+  private final int[] mPixels;
+  // Column the next call to addColumn writes
+  private int mNextColumn = 0;
+  // Columns added since the image was created or cleared
+  private long mColumnsAdded = 0;
+  // Bumped by clear, so canvases know to upload every column again
+  private int mGeneration = 0;
+
+  // Cache for the canvas implementation, e.g. the Bitmap of AndroidCanvas,
+  // and how much of the image it holds
+  Object mPlatformCache;
+  int mPlatformCacheGeneration = -1;
+  long mPlatformColumns;
+
+  /**
+   * @param width - Number of columns kept
+   * @param height - Height of each column in pixels
+   */
+  public ScrollingImage(int width, int height)
+  {
+    if(width < 1 || height < 1)
+    {
+      throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+    }
+    mWidth = width;
+    mHeight = height;
+    mPixels = new int[width * height];
+  }
+
+  public int getWidth()
+  {
+    return mWidth;
+  }
+
+  public int getHeight()
+  {
+    return mHeight;
+  }
+
+  /**
+   * @return The pixels, non-premultiplied ARGB, row by row in the order
+   * they are stored rather than drawn. Don't modify them
+   */
+  public int[] getPixels()
+  {
+    return mPixels;
+  }
+
+  /**
+   * @return Index of the oldest column, which is drawn on the left
+   */
+  public int getOldestColumn()
+  {
+    return mNextColumn;
+  }
+
+  /**
+   * @return Number of columns added since the image was created or cleared
+   */
+  public long getColumnsAdded()
+  {
+    return mColumnsAdded;
+  }
+
+  int getGeneration()
+  {
+    return mGeneration;
+  }
+
+  /**
+   * Replaces the oldest column with a new one, which is drawn on the right
+   * @param colors - Non-premultiplied ARGB colors of the column, top first.
+   * At least getHeight() of them
+   */
+  public void addColumn(int[] colors)
+  {
+    int[] pixels = mPixels;
+    int width = mWidth;
+    for (int y = 0, i = mNextColumn; y < mHeight; y++, i += width) {
+      pixels[i] = colors[y];
+    }
+    mNextColumn = mNextColumn + 1 == width ? 0 : mNextColumn + 1;
+    mColumnsAdded++;
+  }
+
+  /**
+   * Sets every pixel to color, as if no columns had been added
+   * @param color - Non-premultiplied ARGB color
+   */
+  public void clear(int color)
+  {
+    Arrays.fill(mPixels, color);
+    mNextColumn = 0;
+    mColumnsAdded = 0;
+    mGeneration++;
+  }
+}
@@ -0,0 +1,346 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.graphics;
+
+import java.util.Arrays;
+
+/**
+ * {@link VisualizerCanvas} which rasterizes into an int[] of ARGB pixels in
+ * plain Java, so renderers can run off device: in tests, benchmarks or on a
+ * server generating thumbnails.
+ *
+ * Like an Android Bitmap, pixels are stored with premultiplied alpha. Lines
+ * have butt caps, and are anti-aliased by estimating how much of each pixel
+ * they cover. The output is close to, but not bit for bit the same as, what
+ * Android draws.
+ */
+public class SoftwareCanvas implements VisualizerCanvas
+{
+  private final int mWidth;
+  private final int mHeight;
+  private final int[] mPixels;
+
+  /**
+   * @param width - Width in pixels
+   * @param height - Height in pixels
+   */
+  public SoftwareCanvas(int width, int height)
+  {
+    this(width, height, new int[width * height]);
+  }
+
+  /**
+   * @param pixels - Buffer to draw into, row by row, at least width * height
+   */
+  public SoftwareCanvas(int width, int height, int[] pixels)
+  {
+    if(pixels.length < width * height)
+    {
+      throw new IllegalArgumentException("Buffer too small for " + width + "x" + height);
+    }
+    mWidth = width;
+    mHeight = height;
+    mPixels = pixels;
+  }
+
+  @Override
+  public int getWidth()
+  {
+    return mWidth;
+  }
+
+  @Override
+  public int getHeight()
+  {
+    return mHeight;
+  }
+
+  /**
+   * @return The pixels, premultiplied ARGB, row by row
+   */
+  public int[] getPixels()
+  {
+    return mPixels;
+  }
+
+  /**
+   * @param color - Non-premultiplied ARGB color to set every pixel to
+   */
+  public void clear(int color)
+  {
+    int premultiplied = premultiply(color);
+    for (int i = 0; i < mWidth * mHeight; i++) {
+      mPixels[i] = premultiplied;
+    }
+  }
+
+  @Override
+  public void drawPaint(Brush brush)
+  {
+    fill(0, 0, mWidth, mHeight, brush);
+  }
+
+  @Override
+  public void drawRect(Bounds bounds, Brush brush)
+  {
+    fill(Math.max(0, bounds.left), Math.max(0, bounds.top),
+        Math.min(mWidth, bounds.right), Math.min(mHeight, bounds.bottom), brush);
+  }
+
+  private void fill(int left, int top, int right, int bottom, Brush brush)
+  {
+    int source = premultiply(brush.getColor());
+    BlendMode mode = brush.getBlendMode();
+    for (int y = top; y < bottom; y++) {
+      int start = y * mWidth + left;
+      int end = y * mWidth + right;
+      if (mode == BlendMode.CLEAR) {
+        Arrays.fill(mPixels, start, end, 0);
+        continue;
+      }
+      if (mode == BlendMode.MULTIPLY) {
+        // The fade effect, done every frame over every pixel
+        fadeMultiply(source, start, end);
+        continue;
+      }
+      for (int i = start; i < end; i++) {
+        mPixels[i] = blend(mPixels[i], source, 256, mode);
+      }
+    }
+  }
+
+  @Override
+  public void drawLines(float[] points, int offset, int count, Brush brush)
+  {
+    int source = premultiply(brush.getColor());
+    // Hairlines are drawn 1 pixel wide
+    float halfWidth = Math.max(1, brush.getStrokeWidth()) / 2;
+    boolean antiAlias = brush.isAntiAlias();
+    BlendMode mode = brush.getBlendMode();
+
+    for (int i = offset; i + 3 < offset + count; i += 4) {
+      drawLine(points[i], points[i + 1], points[i + 2], points[i + 3],
+          halfWidth, antiAlias, source, mode);
+    }
+  }
+
+  @Override
+  public void drawImage(ScrollingImage image, Bounds bounds, Brush brush)
+  {
+    int boundsWidth = bounds.width();
+    int boundsHeight = bounds.height();
+    if (boundsWidth <= 0 || boundsHeight <= 0) {
+      return;
+    }
+    int left = Math.max(0, bounds.left);
+    int top = Math.max(0, bounds.top);
+    int right = Math.min(mWidth, bounds.right);
+    int bottom = Math.min(mHeight, bounds.bottom);
+
+    int imageWidth = image.getWidth();
+    int imageHeight = image.getHeight();
+    int oldest = image.getOldestColumn();
+    int[] source = image.getPixels();
+    int alpha = brush.getAlpha();
+    BlendMode mode = brush.getBlendMode();
+
+    // Nearest pixel, like Android without bitmap filtering. Columns are
+    // stepped through in 16.16 fixed point, from the centre of each pixel
+    long step = ((long) imageWidth << 16) / boundsWidth;
+    long firstX = ((left - bounds.left) * step) + (step >> 1);
+    boolean copy = alpha == 255 && mode == BlendMode.SRC_OVER;
+
+    for (int y = top; y < bottom; y++) {
+      int sourceRow = (int) ((long) (y - bounds.top) * imageHeight / boundsHeight) * imageWidth;
+      int row = y * mWidth;
+      long position = firstX;
+      for (int x = left; x < right; x++, position += step) {
+        int sx = oldest + (int) (position >> 16);
+        if (sx >= imageWidth) {
+          sx -= imageWidth;
+        }
+        int color = source[sourceRow + sx];
+        if (copy && (color >>> 24) == 255) {
+          // Opaque over anything is just the source, which premultiplying
+          // leaves as it is
+          mPixels[row + x] = color;
+          continue;
+        }
+        if (alpha < 255) {
+          color = (mul255(color >>> 24, alpha) << 24) | (color & 0xffffff);
+        }
+        mPixels[row + x] = blend(mPixels[row + x], premultiply(color), 256, mode);
+      }
+    }
+  }
+
+  private void drawLine(float x0, float y0, float x1, float y1, float halfWidth,
+      boolean antiAlias, int source, BlendMode mode)
+  {
+    float dx = x1 - x0;
+    float dy = y1 - y0;
+    float length = (float) Math.sqrt(dx * dx + dy * dy);
+    if (!(length > 1e-4f && length < Float.POSITIVE_INFINITY)) {
+      // Zero length with butt caps draws nothing. Like Android, lines with
+      // infinite or NaN ends (e.g. -Infinity dB of a silent bin) are skipped
+      return;
+    }
+    float ux = dx / length;
+    float uy = dy / length;
+
+    // Pixel centres further than this across, or beyond the ends, of the
+    // line aren't touched
+    float reach = antiAlias ? halfWidth + 0.5f : halfWidth;
+    float overhang = antiAlias ? 0.5f : 0;
+    int minY = Math.max(0, (int) Math.floor(Math.min(y0, y1) - reach - 1));
+    int maxY = Math.min(mHeight - 1, (int) Math.ceil(Math.max(y0, y1) + reach + 1));
+
+    for (int y = minY; y <= maxY; y++) {
+      float ry = y + 0.5f - y0;
+      // Only visit the span of the row the line crosses. Across and along
+      // are linear in x, so each limit on them bounds x on one or both sides
+      float left = 0;
+      float right = mWidth;
+      float acrossAt0 = -x0 * uy - ry * ux;
+      float alongAt0 = -x0 * ux + ry * uy;
+      if (uy > 1e-6f || uy < -1e-6f) {
+        float a = (-reach - acrossAt0) / uy;
+        float b = (reach - acrossAt0) / uy;
+        left = Math.max(left, Math.min(a, b));
+        right = Math.min(right, Math.max(a, b));
+      } else if (Math.abs(acrossAt0) > reach) {
+        continue;
+      }
+      if (ux > 1e-6f || ux < -1e-6f) {
+        float a = (-overhang - alongAt0) / ux;
+        float b = (length + overhang - alongAt0) / ux;
+        left = Math.max(left, Math.min(a, b));
+        right = Math.min(right, Math.max(a, b));
+      } else if (alongAt0 < -overhang || alongAt0 > length + overhang) {
+        continue;
+      }
+      // Pixel x has its centre at x + 0.5
+      int startX = Math.max(0, (int) Math.floor(left - 0.5f));
+      int endX = Math.min(mWidth - 1, (int) Math.ceil(right - 0.5f));
+
+      int row = y * mWidth;
+      for (int x = startX; x <= endX; x++) {
+        float rx = x + 0.5f - x0;
+        // Position of the pixel centre along, and across, the line
+        float along = rx * ux + ry * uy;
+        float across = Math.abs(rx * uy - ry * ux);
+
+        int coverage;
+        if (antiAlias) {
+          float c = clamp01(halfWidth + 0.5f - across)
+              * clamp01(along + 0.5f) * clamp01(length - along + 0.5f);
+          coverage = (int) (c * 256 + 0.5f);
+        } else {
+          coverage = across <= halfWidth && along >= 0 && along <= length ? 256 : 0;
+        }
+
+        if (coverage > 0) {
+          mPixels[row + x] = blend(mPixels[row + x], source, coverage, mode);
+        }
+      }
+    }
+  }
+
+  private void fadeMultiply(int source, int start, int end)
+  {
+    int sa = source >>> 24;
+    int sr = (source >> 16) & 0xff;
+    int sg = (source >> 8) & 0xff;
+    int sb = source & 0xff;
+    int[] pixels = mPixels;
+    for (int i = start; i < end; i++) {
+      int d = pixels[i];
+      if (d == 0) {
+        continue;
+      }
+      pixels[i] = (mul255(sa, d >>> 24) << 24) | (mul255(sr, (d >> 16) & 0xff) << 16)
+          | (mul255(sg, (d >> 8) & 0xff) << 8) | mul255(sb, d & 0xff);
+    }
+  }
+
+  private static float clamp01(float value)
+  {
+    return value < 0 ? 0 : (value > 1 ? 1 : value);
+  }
+
+  /**
+   * @return color with its red, green and blue multiplied by its alpha
+   */
+  public static int premultiply(int color)
+  {
+    int a = color >>> 24;
+    int r = mul255((color >> 16) & 0xff, a);
+    int g = mul255((color >> 8) & 0xff, a);
+    int b = mul255(color & 0xff, a);
+    return (a << 24) | (r << 16) | (g << 8) | b;
+  }
+
+  // a * b / 255, rounded
+  private static int mul255(int a, int b)
+  {
+    int product = a * b + 128;
+    return (product + (product >> 8)) >> 8;
+  }
+
+  /**
+   * Combines premultiplied source and destination pixels
+   * @param coverage - How much of the pixel the source covers, in [0, 256]
+   */
+  private static int blend(int destination, int source, int coverage, BlendMode mode)
+  {
+    int da = destination >>> 24;
+    int dr = (destination >> 16) & 0xff;
+    int dg = (destination >> 8) & 0xff;
+    int db = destination & 0xff;
+    int sa = source >>> 24;
+    int sr = (source >> 16) & 0xff;
+    int sg = (source >> 8) & 0xff;
+    int sb = source & 0xff;
+
+    int a, r, g, b;
+    switch (mode) {
+      case MULTIPLY:
+        // [Sa * Da, Sc * Dc]
+        a = mul255(sa, da);
+        r = mul255(sr, dr);
+        g = mul255(sg, dg);
+        b = mul255(sb, db);
+        break;
+      case LIGHTEN:
+        // [Sa + Da - Sa * Da, Sc * (1 - Da) + Dc * (1 - Sa) + max(Sc, Dc)]
+        a = sa + da - mul255(sa, da);
+        r = Math.min(255, mul255(sr, 255 - da) + mul255(dr, 255 - sa) + Math.max(sr, dr));
+        g = Math.min(255, mul255(sg, 255 - da) + mul255(dg, 255 - sa) + Math.max(sg, dg));
+        b = Math.min(255, mul255(sb, 255 - da) + mul255(db, 255 - sa) + Math.max(sb, db));
+        break;
+      case CLEAR:
+        a = r = g = b = 0;
+        break;
+      default:
+        // [Sa + (1 - Sa) * Da, Sc + (1 - Sa) * Dc]
+        a = sa + mul255(255 - sa, da);
+        r = sr + mul255(255 - sa, dr);
+        g = sg + mul255(255 - sa, dg);
+        b = sb + mul255(255 - sa, db);
+        break;
+    }
+
+    if (coverage < 256) {
+      // Partially covered pixels move part of the way to the blended result
+      a = da + (((a - da) * coverage) >> 8);
+      r = dr + (((r - dr) * coverage) >> 8);
+      g = dg + (((g - dg) * coverage) >> 8);
+      b = db + (((b - db) * coverage) >> 8);
+    }
+    return (a << 24) | (r << 16) | (g << 8) | b;
+  }
+}
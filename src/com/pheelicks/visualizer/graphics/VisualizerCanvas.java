@@ -0,0 +1,52 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.graphics;
+
+/**
+ * The drawing operations renderers use. Keeping this narrow lets the same
+ * renderers draw onto an Android Canvas ({@link AndroidCanvas}) or, off
+ * device, into a plain pixel buffer ({@link SoftwareCanvas})
+ */
+public interface VisualizerCanvas
+{
+  int getWidth();
+
+  int getHeight();
+
+  /**
+   * Draws a series of separate lines
+   * @param points - Lines as (x0, y0, x1, y1) groups of 4
+   * @param offset - Index of the first value to use
+   * @param count - Number of values to use, a multiple of 4
+   * @param brush - Brush to draw with
+   */
+  void drawLines(float[] points, int offset, int count, Brush brush);
+
+  /**
+   * Fills the whole canvas with the brush's color, combined with the
+   * existing contents using its blend mode
+   * @param brush - Brush to fill with
+   */
+  void drawPaint(Brush brush);
+
+  /**
+   * Like drawPaint, but only fills the given bounds
+   * @param bounds - Area to fill
+   * @param brush - Brush to fill with
+   */
+  void drawRect(Bounds bounds, Brush brush);
+
+  /**
+   * Draws an image stretched over the given bounds, its oldest column on the
+   * left and newest on the right. Pixels are sampled, not filtered
+   * @param image - Image to draw
+   * @param bounds - Area to draw into
+   * @param brush - Brush to draw with. Only its alpha, which multiplies that
+   * of the image, and its blend mode are used
+   */
+  void drawImage(ScrollingImage image, Bounds bounds, Brush brush);
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.offline;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes each frame from an {@link OfflineRenderer} to its own file, named
+ * by frame index, e.g. frame_000042.ppm.
+ *
+ * PPM files can be turned into a video with
+ *   ffmpeg -framerate 30 -i frame_%06d.ppm -i track.wav out.mp4
+ * and raw RGBA files with
+ *   cat frame_*.rgba | ffmpeg -f rawvideo -pix_fmt rgba -s 640x360 -framerate 30 -i - out.mp4
+ */
+public class ImageSequenceWriter implements OfflineRenderer.FrameSink
+{
+  public enum Format
+  {
+    /** Binary PPM (P6), 8-bit RGB with a small text header */
+    PPM("ppm"),
+    /** Headerless 8-bit RGBA */
+    RAW("rgba");
+
+    private final String mExtension;
+
+    private Format(String extension)
+    {
+      mExtension = extension;
+    }
+  }
+
+  private final File mDirectory;
+  private final String mPrefix;
+  private final Format mFormat;
+
+  /**
+   * @param directory - Directory to write into, created if missing
+   * @param prefix - Start of each file name, followed by the frame index
+   */
+  public ImageSequenceWriter(File directory, String prefix, Format format) throws IOException
+  {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create " + directory);
+    }
+    mDirectory = directory;
+    mPrefix = prefix;
+    mFormat = format;
+  }
+
+  /**
+   * @return The file frame index is written to
+   */
+  public File getFile(int index)
+  {
+    return new File(mDirectory, String.format("%s%06d.%s", mPrefix, index, mFormat.mExtension));
+  }
+
+  @Override
+  public void onFrame(int index, int[] pixels, int width, int height) throws IOException
+  {
+    boolean alpha = mFormat == Format.RAW;
+    byte[] bytes = new byte[width * height * (alpha ? 4 : 3)];
+    int out = 0;
+    for (int i = 0; i < width * height; i++) {
+      int pixel = pixels[i];
+      bytes[out++] = (byte) (pixel >> 16);
+      bytes[out++] = (byte) (pixel >> 8);
+      bytes[out++] = (byte) pixel;
+      if (alpha) {
+        bytes[out++] = (byte) (pixel >>> 24);
+      }
+    }
+
+    OutputStream stream = new BufferedOutputStream(new FileOutputStream(getFile(index)));
+    try {
+      if (mFormat == Format.PPM) {
+        stream.write(("P6\n" + width + " " + height + "\n255\n").getBytes("US-ASCII"));
+      }
+      stream.write(bytes);
+    } finally {
+      stream.close();
+    }
+  }
+}
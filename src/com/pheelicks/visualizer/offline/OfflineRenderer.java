@@ -0,0 +1,362 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.offline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.FrameCompositor;
+import com.pheelicks.visualizer.dsp.BeatDetector;
+import com.pheelicks.visualizer.dsp.CaptureEncoder;
+import com.pheelicks.visualizer.dsp.SpectrumSmoother;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.SoftwareCanvas;
+import com.pheelicks.visualizer.renderer.Renderer;
+
+/**
+ * Renders an audio file to video frames without a MediaPlayer, as fast as
+ * the CPU allows.
+ *
+ * For each frame the capture-sized window of samples ending at the frame's
+ * time is encoded the way the platform Visualizer would, then drawn by the
+ * same {@link FrameCompositor} as VisualizerView onto a
+ * {@link SoftwareCanvas}.
+ *
+ * The frames are split into segments which are rendered in parallel, each
+ * with its own renderers, analyzer and canvas. Everything which carries
+ * over from frame to frame is picked up where a sequential render would
+ * have it: animations timed by frame, such as cycling colors, are moved to
+ * the segment with {@link Renderer#seekFrame(long)}, and beat detection and
+ * smoothing are started from the state a quick analysis of the whole clip
+ * left them in. The fade trail can't be, so each segment first draws some
+ * frames before its start and discards them. The fade rounds, so faint
+ * traces of older frames never quite go and a longer pre-roll doesn't make
+ * the result bit for bit the same as rendering in one go, only close to it;
+ * tools/check/SegmentCheck measures how close.
+ */
+public class OfflineRenderer
+{
+  /**
+   * Creates the renderers to draw with. Called once per segment, possibly
+   * from several threads, and must return new instances each time
+   */
+  public interface RendererFactory
+  {
+    Renderer[] createRenderers();
+  }
+
+  /**
+   * Receives the rendered frames
+   */
+  public interface FrameSink
+  {
+    /**
+     * Called from the rendering threads, concurrently and in no particular
+     * order. The pixels are only valid until the call returns
+     * @param index - Index of the frame, from 0
+     * @param pixels - Opaque ARGB pixels, row by row
+     */
+    void onFrame(int index, int[] pixels, int width, int height) throws IOException;
+  }
+
+  private final int mWidth;
+  private final int mHeight;
+  private int mFrameRate = 30;
+  private int mCaptureSize = 1024;
+  private int mThreads = Runtime.getRuntime().availableProcessors();
+  private int mSegmentFrames = 150;
+  private int mPrerollFrames = 60;
+  private boolean mFlashOnBeat = false;
+  private float mAttackSeconds = 0;
+  private float mReleaseSeconds = 0;
+  private int mBackground = 0xff000000;
+  private FrameCompositor.TrailMode mTrailMode = FrameCompositor.TrailMode.FADE;
+  private int mTrailFrames = 8;
+
+  /**
+   * @param width - Width of the frames in pixels
+   * @param height - Height of the frames in pixels
+   */
+  public OfflineRenderer(int width, int height)
+  {
+    mWidth = width;
+    mHeight = height;
+  }
+
+  /**
+   * @param framesPerSecond - Frames rendered per second of audio. Default 30
+   */
+  public void setFrameRate(int framesPerSecond)
+  {
+    mFrameRate = framesPerSecond;
+  }
+
+  /**
+   * @param captureSize - Samples per waveform and FFT capture, a power of 2.
+   * Default 1024
+   */
+  public void setCaptureSize(int captureSize)
+  {
+    mCaptureSize = captureSize;
+  }
+
+  /**
+   * @param threads - Number of segments rendered at once. Defaults to the
+   * number of processors
+   */
+  public void setThreads(int threads)
+  {
+    mThreads = Math.max(1, threads);
+  }
+
+  /**
+   * @param segmentFrames - Frames per segment. Default 150
+   * @param prerollFrames - Frames rendered and discarded before each segment
+   * to build up state. Default 60, after which the fade has left under 2%
+   * of older frames
+   */
+  public void setSegments(int segmentFrames, int prerollFrames)
+  {
+    mSegmentFrames = Math.max(1, segmentFrames);
+    mPrerollFrames = Math.max(0, prerollFrames);
+  }
+
+  /**
+   * @param flashOnBeat - If true frames flash on detected beats
+   */
+  public void setFlashOnBeat(boolean flashOnBeat)
+  {
+    mFlashOnBeat = flashOnBeat;
+  }
+
+  /**
+   * Smooths the spectrum as VisualizerView.setSmoother would. Both 0, the
+   * default, turns smoothing off
+   */
+  public void setSmoothing(float attackSeconds, float releaseSeconds)
+  {
+    mAttackSeconds = attackSeconds;
+    mReleaseSeconds = releaseSeconds;
+  }
+
+  /**
+   * @see FrameCompositor#setTrailMode
+   */
+  public void setTrailMode(FrameCompositor.TrailMode mode, int frames)
+  {
+    mTrailMode = mode;
+    mTrailFrames = frames;
+  }
+
+  /**
+   * @param color - Opaque color the frames are drawn over. Default black
+   */
+  public void setBackground(int color)
+  {
+    mBackground = color | 0xff000000;
+  }
+
+  /**
+   * @return Number of frames render will produce for the audio
+   */
+  public int getFrameCount(WavFile audio)
+  {
+    return (int) Math.ceil(audio.getDuration() * mFrameRate);
+  }
+
+  /**
+   * Renders every frame of the audio, returning once all have been passed to
+   * the sink
+   * @throws IOException if the sink throws
+   */
+  public void render(final WavFile audio, final RendererFactory factory, final FrameSink sink)
+      throws IOException, InterruptedException
+  {
+    int frames = getFrameCount(audio);
+    // The first segment's renderers are made here, to see if the FFT is needed
+    final Renderer[] firstRenderers = factory.createRenderers();
+    final boolean needFFT = mFlashOnBeat
+        || Renderer.anyUses(firstRenderers, Renderer.FFT | Renderer.BEATS);
+    FrameAnalyzer[] analyzers = analyzeSegmentStarts(audio, frames, needFFT);
+
+    ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+    try {
+      List<Future<Void>> segments = new ArrayList<Future<Void>>();
+      for (int segment = 0; segment < analyzers.length; segment++) {
+        final int start = segment * mSegmentFrames;
+        final int end = Math.min(frames, start + mSegmentFrames);
+        final boolean first = segment == 0;
+        final FrameAnalyzer analyzer = analyzers[segment];
+        segments.add(executor.submit(new Callable<Void>() {
+          public Void call() throws IOException {
+            Renderer[] renderers = first ? firstRenderers : factory.createRenderers();
+            renderSegment(audio, start, end, renderers, analyzer, needFFT, sink);
+            return null;
+          }
+        }));
+      }
+
+      for (Future<Void> segment : segments) {
+        try {
+          segment.get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          }
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          throw new RuntimeException(cause);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs the analysis over the whole clip in one go, which is cheap next to
+   * drawing it, so that beats and smoothing are the same however the clip
+   * is split
+   * @return For each segment, an analyzer holding the state at the first
+   * frame of its pre-roll
+   */
+  private FrameAnalyzer[] analyzeSegmentStarts(WavFile audio, int frames, boolean needFFT)
+  {
+    FrameAnalyzer[] analyzers = new FrameAnalyzer[(frames + mSegmentFrames - 1) / mSegmentFrames];
+    FrameAnalyzer analyzer = createAnalyzer(null);
+    CaptureEncoder encoder = new CaptureEncoder(mCaptureSize);
+    float[] window = new float[mCaptureSize];
+    byte[] fft = new byte[mCaptureSize];
+    FFTData fftData = new FFTData(null);
+    fftData.samplingRate = audio.sampleRate;
+
+    int frame = 0;
+    for (int segment = 0; segment < analyzers.length; segment++) {
+      int first = Math.max(0, segment * mSegmentFrames - mPrerollFrames);
+      // Without the FFT there is nothing to analyze, only fresh analyzers
+      for (; needFFT && frame < first; frame++) {
+        fillWindow(audio, frame, window);
+        encoder.encode(window, 0, null, fft);
+        fftData.set(fft, timestampOf(frame));
+        analyzer.analyze(fftData);
+      }
+      analyzers[segment] = createAnalyzer(analyzer);
+    }
+    return analyzers;
+  }
+
+  /**
+   * @param from - Analyzer to copy the state of, or null to start afresh
+   */
+  private FrameAnalyzer createAnalyzer(FrameAnalyzer from)
+  {
+    FrameAnalyzer analyzer = new FrameAnalyzer();
+    BeatDetector detector = new BeatDetector(6);
+    if (from != null) {
+      detector.copyFrom(from.getBeatDetector());
+    }
+    analyzer.setBeatDetector(detector);
+    if (mAttackSeconds > 0 || mReleaseSeconds > 0) {
+      SpectrumSmoother smoother = new SpectrumSmoother(mAttackSeconds, mReleaseSeconds);
+      if (from != null) {
+        smoother.copyFrom(from.getSmoother());
+      }
+      analyzer.setSmoother(smoother);
+    }
+    return analyzer;
+  }
+
+  private void renderSegment(WavFile audio, int start, int end, Renderer[] renderers,
+      FrameAnalyzer analyzer, boolean needFFT, FrameSink sink) throws IOException
+  {
+    FrameCompositor compositor = new FrameCompositor(analyzer);
+    compositor.setFlashOnBeat(mFlashOnBeat);
+    compositor.setTrailMode(mTrailMode, mTrailFrames);
+
+    // Starts transparent, like the view's bitmap
+    SoftwareCanvas canvas = new SoftwareCanvas(mWidth, mHeight);
+    Bounds bounds = new Bounds();
+    bounds.set(0, 0, mWidth, mHeight);
+    int[] output = new int[mWidth * mHeight];
+
+    CaptureEncoder encoder = new CaptureEncoder(mCaptureSize);
+    float[] window = new float[mCaptureSize];
+    // Skip the FFT entirely if nothing draws it or needs its beats
+    byte[] fft = needFFT ? new byte[mCaptureSize] : null;
+    AudioData audioData = new AudioData(null);
+    FFTData fftData = new FFTData(null);
+    fftData.samplingRate = audio.sampleRate;
+
+    int first = Math.max(0, start - mPrerollFrames);
+    for (int i = 0; i < renderers.length; i++) {
+      renderers[i].seekFrame(first);
+    }
+
+    for (int frame = first; frame < end; frame++) {
+      fillWindow(audio, frame, window);
+
+      // The waveform is drawn at full resolution, rather than 8-bit
+      long timestamp = timestampOf(frame);
+      audioData.setSamples(window, 0, mCaptureSize, timestamp);
+      if (needFFT) {
+        encoder.encode(window, 0, null, fft);
+        fftData.set(fft, timestamp);
+      }
+      compositor.composite(canvas, bounds, renderers, audioData, fftData, true);
+
+      if (frame >= start) {
+        flatten(canvas.getPixels(), output);
+        sink.onFrame(frame, output, mWidth, mHeight);
+      }
+    }
+  }
+
+  // Copies the samples captured for frame into window, with silence outside
+  // the audio. The Visualizer captures the most recent samples, so the window
+  // ends at the frame's time
+  private void fillWindow(WavFile audio, int frame, float[] window)
+  {
+    float[] samples = audio.samples;
+    long start = (long) frame * audio.sampleRate / mFrameRate - window.length;
+    for (int i = 0; i < window.length; i++) {
+      long index = start + i;
+      window[i] = index >= 0 && index < samples.length ? samples[(int) index] : 0;
+    }
+  }
+
+  private long timestampOf(int frame)
+  {
+    return (long) frame * 1000000000L / mFrameRate;
+  }
+
+  // Draws premultiplied pixels over the opaque background
+  private void flatten(int[] pixels, int[] output)
+  {
+    int br = (mBackground >> 16) & 0xff;
+    int bg = (mBackground >> 8) & 0xff;
+    int bb = mBackground & 0xff;
+    for (int i = 0; i < output.length; i++) {
+      int pixel = pixels[i];
+      int transparency = 255 - (pixel >>> 24);
+      int r = ((pixel >> 16) & 0xff) + br * transparency / 255;
+      int g = ((pixel >> 8) & 0xff) + bg * transparency / 255;
+      int b = (pixel & 0xff) + bb * transparency / 255;
+      output[i] = 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+  }
+}
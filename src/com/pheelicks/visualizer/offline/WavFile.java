@@ -0,0 +1,214 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.offline;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Audio from an uncompressed WAV file, mixed down to mono and normalized to
+ * [-1, 1]. Supports 8, 16, 24 and 32-bit integer PCM and 32-bit float.
+ *
+ * The data chunk is read to the end of the file if its size is 0xFFFFFFFF,
+ * as in streamed WAVs which didn't know their length, or larger than the
+ * file. Whatever whole sample frames there are are kept.
+ */
+public class WavFile
+{
+  private static final int FORMAT_PCM = 1;
+  private static final int FORMAT_FLOAT = 3;
+  private static final int FORMAT_EXTENSIBLE = 0xfffe;
+  // Data size written by streams which don't know how long they'll be
+  private static final long UNKNOWN_SIZE = 0xffffffffL;
+  // Largest array the VM will reliably allocate
+  private static final int MAX_SAMPLES = Integer.MAX_VALUE - 8;
+
+  public final int sampleRate;
+  public final float[] samples;
+
+  private WavFile(int sampleRate, float[] samples)
+  {
+    this.sampleRate = sampleRate;
+    this.samples = samples;
+  }
+
+  /**
+   * @return Length of the audio in seconds
+   */
+  public double getDuration()
+  {
+    return (double) samples.length / sampleRate;
+  }
+
+  /**
+   * Reads a whole WAV file into memory
+   * @param file - File to read
+   * @return The decoded audio
+   * @throws IOException if the file can't be read, or isn't a supported WAV
+   */
+  public static WavFile read(File file) throws IOException
+  {
+    InputStream stream = new BufferedInputStream(new FileInputStream(file));
+    try {
+      return read(stream);
+    } finally {
+      stream.close();
+    }
+  }
+
+  public static WavFile read(InputStream stream) throws IOException
+  {
+    DataInputStream in = new DataInputStream(stream);
+    if (readTag(in) != 0x46464952 /* RIFF */) {
+      throw new IOException("Not a RIFF file");
+    }
+    readInt(in);
+    if (readTag(in) != 0x45564157 /* WAVE */) {
+      throw new IOException("Not a WAVE file");
+    }
+
+    int format = -1;
+    int channels = 0;
+    int sampleRate = 0;
+    int bits = 0;
+    while (true) {
+      int tag;
+      try {
+        tag = readTag(in);
+      } catch (EOFException e) {
+        throw new IOException("No data chunk");
+      }
+      long size = readInt(in) & 0xffffffffL;
+
+      if (tag == 0x20746d66 /* fmt */) {
+        format = readShort(in);
+        channels = readShort(in);
+        sampleRate = readInt(in);
+        readInt(in); // Byte rate
+        readShort(in); // Block align
+        bits = readShort(in);
+        long remaining = size - 16;
+        if (format == FORMAT_EXTENSIBLE && remaining >= 10) {
+          // The real format is the start of the sub format GUID
+          readShort(in);
+          readShort(in);
+          readInt(in);
+          format = readShort(in);
+          remaining -= 10;
+        }
+        skip(in, remaining + (size & 1));
+      } else if (tag == 0x61746164 /* data */) {
+        if (format == -1) {
+          throw new IOException("data chunk before fmt chunk");
+        }
+        return new WavFile(sampleRate, readSamples(in, size, format, channels, bits));
+      } else {
+        skip(in, size + (size & 1));
+      }
+    }
+  }
+
+  private static float[] readSamples(DataInputStream in, long size, int format,
+      int channels, int bits) throws IOException
+  {
+    if (channels < 1 || !((format == FORMAT_PCM && (bits == 8 || bits == 16 || bits == 24 || bits == 32))
+        || (format == FORMAT_FLOAT && bits == 32))) {
+      throw new IOException("Unsupported format " + format + ", " + bits + " bits, " + channels + " channels");
+    }
+
+    int bytesPerSample = bits / 8;
+    int frameBytes = bytesPerSample * channels;
+    long remaining = size == UNKNOWN_SIZE ? Long.MAX_VALUE : size - size % frameBytes;
+    // The size may be wrong, so only trust it so far
+    float[] samples = new float[(int) Math.min(remaining / frameBytes, 1 << 20)];
+    int count = 0;
+    byte[] raw = new byte[frameBytes * 4096];
+    int filled = 0;
+
+    while (remaining > 0) {
+      int read = in.read(raw, filled, (int) Math.min(raw.length - filled, remaining));
+      if (read < 0) {
+        // Ends early, drop any part of a frame
+        break;
+      }
+      filled += read;
+      remaining -= read;
+
+      int frames = filled / frameBytes;
+      if (count + (long) frames > samples.length) {
+        if (count + (long) frames > MAX_SAMPLES) {
+          throw new IOException("Too long to hold in memory");
+        }
+        samples = Arrays.copyOf(samples, (int) Math.min(MAX_SAMPLES,
+            Math.max(2L * samples.length, count + frames)));
+      }
+      int position = 0;
+      for (int i = 0; i < frames; i++) {
+        float sum = 0;
+        for (int c = 0; c < channels; c++) {
+          sum += decode(raw, position, format, bits);
+          position += bytesPerSample;
+        }
+        samples[count++] = sum / channels;
+      }
+      // Keep the start of a frame which hasn't all arrived
+      System.arraycopy(raw, position, raw, 0, filled - position);
+      filled -= position;
+    }
+    return count == samples.length ? samples : Arrays.copyOf(samples, count);
+  }
+
+  // Little endian sample at position, normalized to [-1, 1]
+  private static float decode(byte[] raw, int position, int format, int bits)
+  {
+    switch (bits) {
+      case 8:
+        return ((raw[position] & 0xff) - 128) / 128f;
+      case 16:
+        return (short) ((raw[position] & 0xff) | (raw[position + 1] << 8)) / 32768f;
+      case 24:
+        return ((raw[position] & 0xff) | ((raw[position + 1] & 0xff) << 8)
+            | (raw[position + 2] << 16)) / 8388608f;
+      default:
+        int value = (raw[position] & 0xff) | ((raw[position + 1] & 0xff) << 8)
+            | ((raw[position + 2] & 0xff) << 16) | (raw[position + 3] << 24);
+        return format == FORMAT_FLOAT ? Float.intBitsToFloat(value) : value / 2147483648f;
+    }
+  }
+
+  private static int readTag(DataInputStream in) throws IOException
+  {
+    return readInt(in);
+  }
+
+  private static int readInt(DataInputStream in) throws IOException
+  {
+    return Integer.reverseBytes(in.readInt());
+  }
+
+  private static int readShort(DataInputStream in) throws IOException
+  {
+    return Short.reverseBytes(in.readShort()) & 0xffff;
+  }
+
+  private static void skip(DataInputStream in, long bytes) throws IOException
+  {
+    while (bytes > 0) {
+      int skipped = in.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+      if (skipped <= 0) {
+        throw new EOFException();
+      }
+      bytes -= skipped;
+    }
+  }
+}
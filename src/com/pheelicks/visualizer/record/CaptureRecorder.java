@@ -0,0 +1,222 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.record;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records waveform and FFT captures, exactly as delivered, to a file which
+ * {@link CaptureReplayer} can play back.
+ *
+ * Frames are appended to one of two preallocated direct buffers. When it
+ * fills up it is handed to a thread which writes it out, and recording
+ * carries on into the other, so recording a frame is a copy and never waits
+ * for the file. If the writer falls so far behind that neither buffer is
+ * free the frame is dropped and counted, rather than holding up capture.
+ *
+ * The file is little-endian: the magic "VCAP" and a version int, then per
+ * frame a type byte, the timestamp in nanoseconds as a long, for FFTs the
+ * sampling rate as an int, the length as an int and the capture bytes.
+ */
+public class CaptureRecorder
+{
+  static final int MAGIC = 0x50414356; // "VCAP" little-endian
+  static final int VERSION = 1;
+  static final byte TYPE_WAVEFORM = 1;
+  static final byte TYPE_FFT = 2;
+  // Type, timestamp and length
+  static final int FRAME_HEADER_BYTES = 1 + 8 + 4;
+
+  private static final int DEFAULT_BUFFER_BYTES = 256 * 1024;
+
+  private final FileOutputStream mStream;
+  private final FileChannel mChannel;
+  // Buffers waiting to be written, and written ones ready to be filled again
+  private final BlockingQueue<ByteBuffer> mFull = new ArrayBlockingQueue<ByteBuffer>(2);
+  private final BlockingQueue<ByteBuffer> mFree = new ArrayBlockingQueue<ByteBuffer>(2);
+  private final Thread mWriter;
+  private ByteBuffer mBuffer;
+  private boolean mClosed = false;
+  private volatile IOException mWriteError;
+
+  private long mFrameCount = 0;
+  private long mDroppedFrameCount = 0;
+
+  /**
+   * Starts recording into file, replacing it if it exists, with two buffers
+   * of 256KB
+   */
+  public CaptureRecorder(File file) throws IOException
+  {
+    this(file, DEFAULT_BUFFER_BYTES);
+  }
+
+  /**
+   * @param file - File to record into, replaced if it exists
+   * @param bufferBytes - Size of each of the two buffers. Frames larger than
+   * this are dropped
+   */
+  public CaptureRecorder(File file, int bufferBytes) throws IOException
+  {
+    mStream = new FileOutputStream(file);
+    mChannel = mStream.getChannel();
+    mBuffer = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+    mFree.add(ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN));
+    mBuffer.putInt(MAGIC);
+    mBuffer.putInt(VERSION);
+
+    mWriter = new Thread("VisualizerCaptureRecorder") {
+      @Override
+      public void run() {
+        writeBuffers();
+      }
+    };
+    mWriter.start();
+  }
+
+  /**
+   * Records a waveform capture, e.g. from onWaveFormDataCapture
+   * @param timestampNanos - When it was captured, from System.nanoTime()
+   */
+  public void recordWaveform(byte[] bytes, long timestampNanos)
+  {
+    record(TYPE_WAVEFORM, bytes, bytes.length, 0, timestampNanos);
+  }
+
+  /**
+   * Records an FFT capture, e.g. from onFftDataCapture
+   * @param samplingRate - Sampling rate of the audio in Hz, or 0 if unknown
+   * @param timestampNanos - When it was captured, from System.nanoTime()
+   */
+  public void recordFFT(byte[] bytes, int samplingRate, long timestampNanos)
+  {
+    record(TYPE_FFT, bytes, bytes.length, samplingRate, timestampNanos);
+  }
+
+  private synchronized void record(byte type, byte[] bytes, int length, int samplingRate,
+      long timestampNanos)
+  {
+    if (mClosed) {
+      return;
+    }
+
+    int frameBytes = FRAME_HEADER_BYTES + (type == TYPE_FFT ? 4 : 0) + length;
+    if (mBuffer.remaining() < frameBytes) {
+      ByteBuffer free = mFree.poll();
+      if (free == null || frameBytes > free.capacity()) {
+        if (free != null) {
+          mFree.add(free);
+        }
+        mDroppedFrameCount++;
+        return;
+      }
+      mBuffer.flip();
+      mFull.add(mBuffer);
+      mBuffer = free;
+    }
+
+    mBuffer.put(type);
+    mBuffer.putLong(timestampNanos);
+    if (type == TYPE_FFT) {
+      mBuffer.putInt(samplingRate);
+    }
+    mBuffer.putInt(length);
+    mBuffer.put(bytes, 0, length);
+    mFrameCount++;
+  }
+
+  /**
+   * @return Number of frames recorded
+   */
+  public synchronized long getFrameCount()
+  {
+    return mFrameCount;
+  }
+
+  /**
+   * @return Number of frames dropped because the file couldn't be written
+   * quickly enough
+   */
+  public synchronized long getDroppedFrameCount()
+  {
+    return mDroppedFrameCount;
+  }
+
+  /**
+   * Writes out what has been recorded and closes the file. Frames recorded
+   * afterwards are ignored
+   * @throws IOException if writing failed, now or in the background
+   */
+  public void close() throws IOException
+  {
+    synchronized (this) {
+      if (mClosed) {
+        return;
+      }
+      mClosed = true;
+      mBuffer.flip();
+      // The writer only stops after writing this, even if it is empty
+      mFull.add(mBuffer);
+    }
+
+    boolean interrupted = false;
+    while (mWriter.isAlive()) {
+      try {
+        mWriter.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    mStream.close();
+    if (mWriteError != null) {
+      throw mWriteError;
+    }
+  }
+
+  private void writeBuffers()
+  {
+    while (true) {
+      ByteBuffer buffer;
+      try {
+        buffer = mFull.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+
+      // After an error the rest is discarded, but buffers still go back so
+      // recording carries on and close doesn't wait
+      if (mWriteError == null) {
+        try {
+          while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+          }
+        } catch (IOException e) {
+          mWriteError = e;
+        }
+      }
+      buffer.clear();
+
+      synchronized (this) {
+        if (mClosed && mFull.isEmpty()) {
+          return;
+        }
+      }
+      mFree.add(buffer);
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.record;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays back captures recorded by {@link CaptureRecorder}, either with the
+ * timing they were recorded with or as fast as the target takes them, so
+ * that renderers can be measured against the same real captures every time.
+ * Replay into a VisualizerView through its
+ * {@link com.pheelicks.visualizer.VisualizerView#getReplayTarget()}, or into
+ * a FrameCompositor off device as tools/bench/ReplayBenchmark does.
+ *
+ * The file is mapped into memory and checked when opened, so replaying
+ * doesn't touch the disk or allocate, beyond an array for each capture
+ * size. Several threads can replay the same recording at once. A recording
+ * cut off part way through a frame, as when the app was killed while
+ * recording, is replayed up to the last whole frame.
+ */
+public class CaptureReplayer
+{
+  /**
+   * Receives the replayed captures, on the thread calling replay. The arrays
+   * are reused for the next capture
+   */
+  public interface Target
+  {
+    /**
+     * @param timestampNanos - When the capture was recorded
+     */
+    void onWaveform(byte[] bytes, long timestampNanos);
+
+    /**
+     * @param samplingRate - Sampling rate in Hz, or 0 if unknown
+     * @param timestampNanos - When the capture was recorded
+     */
+    void onFFT(byte[] bytes, int samplingRate, long timestampNanos);
+  }
+
+  private final ByteBuffer mFrames;
+  private int mWaveformCount = 0;
+  private int mFFTCount = 0;
+  private long mFirstTimestamp = 0;
+  private long mLastTimestamp = 0;
+  private boolean mTruncated = false;
+
+  /**
+   * @throws IOException if the file can't be read or isn't a recording
+   */
+  public CaptureReplayer(File file) throws IOException
+  {
+    FileInputStream stream = new FileInputStream(file);
+    try {
+      FileChannel channel = stream.getChannel();
+      // Stays valid after the channel is closed
+      mFrames = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      stream.close();
+    }
+    mFrames.order(ByteOrder.LITTLE_ENDIAN);
+
+    if (mFrames.remaining() < 8 || mFrames.getInt() != CaptureRecorder.MAGIC) {
+      throw new IOException(file + " isn't a capture recording");
+    }
+    int version = mFrames.getInt();
+    if (version != CaptureRecorder.VERSION) {
+      throw new IOException("Unsupported capture recording version " + version);
+    }
+    mFrames.mark();
+    scan();
+  }
+
+  // Counts the frames and finds the time they span. Replay is limited to
+  // the whole frames
+  private void scan() throws IOException
+  {
+    boolean first = true;
+    int end = mFrames.position();
+    while (mFrames.hasRemaining()) {
+      if (mFrames.remaining() < CaptureRecorder.FRAME_HEADER_BYTES) {
+        mTruncated = true;
+        break;
+      }
+      byte type = mFrames.get();
+      long timestamp = mFrames.getLong();
+      if (type != CaptureRecorder.TYPE_FFT && type != CaptureRecorder.TYPE_WAVEFORM) {
+        throw new IOException("Unknown frame type " + type);
+      }
+      if (type == CaptureRecorder.TYPE_FFT) {
+        mFrames.getInt();
+      }
+      int length = mFrames.remaining() >= 4 ? mFrames.getInt() : -1;
+      if (length < 0 || length > mFrames.remaining()) {
+        mTruncated = true;
+        break;
+      }
+      mFrames.position(mFrames.position() + length);
+      end = mFrames.position();
+
+      if (type == CaptureRecorder.TYPE_FFT) {
+        mFFTCount++;
+      } else {
+        mWaveformCount++;
+      }
+      if (first) {
+        mFirstTimestamp = timestamp;
+        first = false;
+      }
+      mLastTimestamp = timestamp;
+    }
+    mFrames.limit(end);
+    mFrames.reset();
+  }
+
+  /**
+   * @return Whether the recording ends part way through a frame, which
+   * isn't replayed
+   */
+  public boolean isTruncated()
+  {
+    return mTruncated;
+  }
+
+  public int getWaveformCount()
+  {
+    return mWaveformCount;
+  }
+
+  public int getFFTCount()
+  {
+    return mFFTCount;
+  }
+
+  /**
+   * @return Time from the first capture to the last, in nanoseconds
+   */
+  public long getDurationNanos()
+  {
+    return mLastTimestamp - mFirstTimestamp;
+  }
+
+  /**
+   * Sends every capture to target, in the order they were recorded
+   * @param realTime - If true captures are sent with the spacing they were
+   * recorded with, otherwise as fast as the target takes them
+   * @throws InterruptedException if interrupted while waiting for the time
+   * of a capture
+   */
+  public void replay(Target target, boolean realTime) throws InterruptedException
+  {
+    ByteBuffer frames = mFrames.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    byte[] waveform = new byte[0];
+    byte[] fft = new byte[0];
+    long start = System.nanoTime();
+
+    while (frames.hasRemaining()) {
+      byte type = frames.get();
+      long timestamp = frames.getLong();
+      int samplingRate = type == CaptureRecorder.TYPE_FFT ? frames.getInt() : 0;
+      int length = frames.getInt();
+
+      if (realTime) {
+        long wait = start + (timestamp - mFirstTimestamp) - System.nanoTime();
+        if (wait > 0) {
+          Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        }
+      } else if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+
+      if (type == CaptureRecorder.TYPE_FFT) {
+        if (fft.length != length) {
+          fft = new byte[length];
+        }
+        frames.get(fft);
+        target.onFFT(fft, samplingRate, timestamp);
+      } else {
+        if (waveform.length != length) {
+          waveform = new byte[length];
+        }
+        frames.get(waveform);
+        target.onWaveform(waveform, timestamp);
+      }
+    }
+  }
+}
@@ -6,27 +6,29 @@
  */
 package com.pheelicks.visualizer.renderer;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Rect;
-
 import com.pheelicks.visualizer.AudioData;
 import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.dsp.BandAggregator;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.Brush;
+import com.pheelicks.visualizer.graphics.VisualizerCanvas;
 
 public class BarGraphRenderer extends Renderer
 {
   private int mDivisions;
-  private Paint mPaint;
+  private Brush mPaint;
   private boolean mTop;
+  private BandAggregator mAggregator;
+  private float[] mBandLevels;
 
   /**
    * Renders the FFT data as a series of lines, in histogram form
-   * @param divisions - must be a power of 2. Controls how many lines to draw
-   * @param paint - Paint to draw lines with
+   * @param divisions - must be a power of 2, at least 2. Controls how many lines to draw
+   * @param paint - Brush to draw lines with
    * @param top - whether to draw the lines at the top of the canvas, or the bottom
    */
   public BarGraphRenderer(int divisions,
-                          Paint paint,
+                          Brush paint,
                           boolean top)
   {
     super();
@@ -35,22 +37,88 @@ public class BarGraphRenderer extends Renderer
     mTop = top;
   }
 
+  /**
+   * Renders the FFT data as a series of bars, each showing the total energy
+   * of a band of frequencies. Unlike sampling every nth bin, this uses the
+   * whole spectrum and can give the bass as many bars as the treble
+   * @param bars - Number of bars to draw, spread across the width
+   * @param scale - Frequency scale the bands are evenly spaced on
+   * @param paint - Brush to draw lines with
+   * @param top - whether to draw the lines at the top of the canvas, or the bottom
+   */
+  public BarGraphRenderer(int bars,
+                          BandAggregator.Scale scale,
+                          Brush paint,
+                          boolean top)
+  {
+    super();
+    mAggregator = new BandAggregator(bars, scale, 20, 20000);
+    mBandLevels = new float[bars];
+    mPaint = paint;
+    mTop = top;
+  }
+
+  // Only draws the FFT
   @Override
-  public void onRender(Canvas canvas, AudioData data, Rect rect)
+  public int getDataKinds()
+  {
+    return FFT;
+  }
+
+  @Override
+  public void onRender(VisualizerCanvas canvas, AudioData data, Bounds rect)
   {
     // Do nothing, we only display FFT data
   }
 
   @Override
-  public void onRender(Canvas canvas, FFTData data, Rect rect)
+  public void onRender(VisualizerCanvas canvas, FFTData data, Bounds rect)
   {
-    for (int i = 0; i < data.bytes.length / mDivisions; i++) {
+    if(mAggregator != null)
+    {
+      renderBands(canvas, data, rect);
+      return;
+    }
+
+    float[] levels = data.levels();
+    int bars = data.bytes.length / mDivisions;
+    for (int i = 0; i < bars; i++) {
       mFFTPoints[i * 4] = i * 4 * mDivisions;
       mFFTPoints[i * 4 + 2] = i * 4 * mDivisions;
-      byte rfk = data.bytes[mDivisions * i];
-      byte ifk = data.bytes[mDivisions * i + 1];
-      float magnitude = (rfk * rfk + ifk * ifk);
-      int dbValue = (int) (10 * Math.log10(magnitude));
+      int dbValue = (int) levels[data.levelIndex(mDivisions * i / 2)];
+
+      if(mTop)
+      {
+        mFFTPoints[i * 4 + 1] = 0;
+        mFFTPoints[i * 4 + 3] = (dbValue * 2 - 10);
+      }
+      else
+      {
+        mFFTPoints[i * 4 + 1] = rect.height();
+        mFFTPoints[i * 4 + 3] = rect.height() - (dbValue * 2 - 10);
+      }
+    }
+
+    canvas.drawLines(mFFTPoints, 0, bars * 4, mPaint);
+  }
+
+  private void renderBands(VisualizerCanvas canvas, FFTData data, Bounds rect)
+  {
+    // The levels, so smoothing and the float spectrum apply to bands too
+    mAggregator.aggregateDecibels(data.levels(), data.levelBins(),
+        data.getSamplingRateOrDefault(), mBandLevels);
+
+    int bars = mBandLevels.length;
+    // There can be more bars than the capture has bytes
+    if (mFFTPoints.length < bars * 4) {
+      mFFTPoints = new float[bars * 4];
+    }
+    for (int i = 0; i < bars; i++) {
+      float x = rect.width() * (i + 0.5f) / bars;
+      mFFTPoints[i * 4] = x;
+      mFFTPoints[i * 4 + 2] = x;
+      // Not below the baseline, nor -Infinity for an empty band
+      float dbValue = Math.max(0, mBandLevels[i]);
 
       if(mTop)
       {
@@ -64,6 +132,6 @@ public class BarGraphRenderer extends Renderer
       }
     }
 
-    canvas.drawLines(mFFTPoints, mPaint);
+    canvas.drawLines(mFFTPoints, 0, bars * 4, mPaint);
   }
 }
@@ -6,26 +6,25 @@
  */
 package com.pheelicks.visualizer.renderer;
 
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Rect;
-
 import com.pheelicks.visualizer.AudioData;
 import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.dsp.SinCosTable;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.Brush;
+import com.pheelicks.visualizer.graphics.VisualizerCanvas;
 
 public class CircleBarRenderer extends Renderer
 {
   private int mDivisions;
-  private Paint mPaint;
+  private Brush mPaint;
   private boolean mCycleColor;
 
   /**
    * Renders the FFT data onto a pulsing, rotating circle
    * @param canvas
-   * @param paint - Paint to draw lines with
+   * @param paint - Brush to draw lines with
    */
-  public CircleBarRenderer(Paint paint, int divisions)
+  public CircleBarRenderer(Brush paint, int divisions)
   {
     this(paint, divisions, false);
   }
@@ -33,11 +32,11 @@ public class CircleBarRenderer extends Renderer
   /**
    * Renders the audio data onto a pulsing circle
    * @param canvas
-   * @param paint - Paint to draw lines with
-   * @param divisions - must be a power of 2. Controls how many lines to draw
+   * @param paint - Brush to draw lines with
+   * @param divisions - must be a power of 2, at least 2. Controls how many lines to draw
    * @param cycleColor - If true the color will change on each frame
    */
-  public CircleBarRenderer(Paint paint, int divisions, boolean cycleColor)
+  public CircleBarRenderer(Brush paint, int divisions, boolean cycleColor)
   {
     super();
     mPaint = paint;
@@ -45,77 +44,78 @@ public class CircleBarRenderer extends Renderer
     mCycleColor = cycleColor;
   }
 
+  // Only draws the FFT
+  @Override
+  public int getDataKinds()
+  {
+    return FFT;
+  }
+
   @Override
-  public void onRender(Canvas canvas, AudioData data, Rect rect)
+  public void onRender(VisualizerCanvas canvas, AudioData data, Bounds rect)
   {
     // Do nothing, we only display FFT data
   }
 
   @Override
-  public void onRender(Canvas canvas, FFTData data, Rect rect)
+  public void onRender(VisualizerCanvas canvas, FFTData data, Bounds rect)
   {
+    long frame = mFrame++;
     if(mCycleColor)
     {
-      cycleColor();
+      cycleColor(frame);
     }
 
-    for (int i = 0; i < data.bytes.length / mDivisions; i++) {
-      // Calculate dbValue
-      byte rfk = data.bytes[mDivisions * i];
-      byte ifk = data.bytes[mDivisions * i + 1];
-      float magnitude = (rfk * rfk + ifk * ifk);
-      float dbValue = 75 * (float)Math.log10(magnitude);
-
-      float[] cartPoint = {
-          (float)(i * mDivisions) / (data.bytes.length - 1),
-          rect.height() / 2 - dbValue / 4
-      };
+    int points = data.bytes.length / mDivisions;
+    if (mAngles == null || !mAngles.matches(points, mDivisions, data.bytes.length - 1)) {
+      mAngles = SinCosTable.get(points, mDivisions, data.bytes.length - 1);
+    }
 
-      float[] polarPoint = toPolar(cartPoint, rect);
-      mFFTPoints[i * 4] = polarPoint[0];
-      mFFTPoints[i * 4 + 1] = polarPoint[1];
+    // These only change once per frame. The multipliers control the
+    // pulsing and rotation rates
+    double modulation = frame * 0.13;
+    double angleModulation = frame * 0.28;
+    mRadiusScale = (float)((1 - modulationStrength) + modulationStrength * (1 + Math.sin(modulation)) / 2);
+    mSinModulation = (float)Math.sin(angleModulation);
+    mCosModulation = (float)Math.cos(angleModulation);
 
-      float[] cartPoint2 = {
-          (float)(i * mDivisions) / (data.bytes.length - 1),
-          rect.height() / 2 + dbValue
-      };
+    float[] levels = data.levels();
+    for (int i = 0; i < points; i++) {
+      float dbValue = 7.5f * levels[data.levelIndex(mDivisions * i / 2)];
 
-      float[] polarPoint2 = toPolar(cartPoint2, rect);
-      mFFTPoints[i * 4 + 2] = polarPoint2[0];
-      mFFTPoints[i * 4 + 3] = polarPoint2[1];
+      toPolar(i, rect.height() / 2 - dbValue / 4, rect, mFFTPoints, i * 4);
+      toPolar(i, rect.height() / 2 + dbValue, rect, mFFTPoints, i * 4 + 2);
     }
 
-    canvas.drawLines(mFFTPoints, mPaint);
-
-    // Controls the pulsing rate
-    modulation += 0.13;
-    angleModulation += 0.28;
+    canvas.drawLines(mFFTPoints, 0, points * 4, mPaint);
   }
 
-  float modulation = 0;
   float modulationStrength = 0.4f; // 0-1
-  float angleModulation = 0;
   float aggresive = 0.4f;
-  private float[] toPolar(float[] cartesian, Rect rect)
+  private SinCosTable mAngles;
+  private float mRadiusScale;
+  private float mSinModulation;
+  private float mCosModulation;
+
+  // Writes the polar equivalent of (index, y) into out[offset] and out[offset + 1]
+  private void toPolar(int index, float y, Bounds rect, float[] out, int offset)
   {
-    double cX = rect.width()/2;
-    double cY = rect.height()/2;
-    double angle = (cartesian[0]) * 2 * Math.PI;
-    double radius = ((rect.width()/2) * (1 - aggresive) + aggresive * cartesian[1]/2) * ((1 - modulationStrength) + modulationStrength * (1 + Math.sin(modulation)) / 2);
-    float[] out =  {
-        (float)(cX + radius * Math.sin(angle + angleModulation)),
-        (float)(cY + radius * Math.cos(angle + angleModulation))
-    };
-    return out;
+    float cX = rect.width()/2;
+    float cY = rect.height()/2;
+    float radius = ((rect.width()/2) * (1 - aggresive) + aggresive * y/2) * mRadiusScale;
+    // sin(a + b) and cos(a + b), with a from the table
+    float sin = mAngles.sin[index] * mCosModulation + mAngles.cos[index] * mSinModulation;
+    float cos = mAngles.cos[index] * mCosModulation - mAngles.sin[index] * mSinModulation;
+    out[offset] = cX + radius * sin;
+    out[offset + 1] = cY + radius * cos;
   }
 
-  private float colorCounter = 0;
-  private void cycleColor()
+  private void cycleColor(long frame)
   {
+    double colorCounter = frame * 0.03;
     int r = (int)Math.floor(128*(Math.sin(colorCounter) + 1));
     int g = (int)Math.floor(128*(Math.sin(colorCounter + 2) + 1));
     int b = (int)Math.floor(128*(Math.sin(colorCounter + 4) + 1));
-    mPaint.setColor(Color.argb(128, r, g, b));
-    colorCounter += 0.03;
+    mPaint.setColor(Brush.argb(128, r, g, b));
   }
 }
@@ -6,25 +6,24 @@
  */
 package com.pheelicks.visualizer.renderer;
 
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Rect;
-
 import com.pheelicks.visualizer.AudioData;
 import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.dsp.SinCosTable;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.Brush;
+import com.pheelicks.visualizer.graphics.VisualizerCanvas;
 
 public class CircleRenderer extends Renderer
 {
-  private Paint mPaint;
+  private Brush mPaint;
   private boolean mCycleColor;
 
   /**
    * Renders the audio data onto a pulsing circle
    * @param canvas
-   * @param paint - Paint to draw lines with
+   * @param paint - Brush to draw lines with
    */
-  public CircleRenderer(Paint paint)
+  public CircleRenderer(Brush paint)
   {
     this(paint, false);
   }
@@ -32,78 +31,82 @@ public class CircleRenderer extends Renderer
   /**
    * Renders the audio data onto a pulsing circle
    * @param canvas
-   * @param paint - Paint to draw lines with
+   * @param paint - Brush to draw lines with
    * @param cycleColor - If true the color will change on each frame
    */
-  public CircleRenderer(Paint paint, boolean cycleColor)
+  public CircleRenderer(Brush paint, boolean cycleColor)
   {
     super();
     mPaint = paint;
     mCycleColor = cycleColor;
   }
 
+  // Only draws the waveform
   @Override
-  public void onRender(Canvas canvas, AudioData data, Rect rect)
+  public int getDataKinds()
   {
+    return WAVEFORM;
+  }
+
+  @Override
+  public void onRender(VisualizerCanvas canvas, AudioData data, Bounds rect)
+  {
+    long frame = mFrame++;
     if(mCycleColor)
     {
-      cycleColor();
+      cycleColor(frame);
     }
 
-    for (int i = 0; i < data.bytes.length - 1; i++) {
-      float[] cartPoint = {
-          (float)i / (data.bytes.length - 1),
-          rect.height() / 2 + ((byte) (data.bytes[i] + 128)) * (rect.height() / 2) / 128
-      };
-
-      float[] polarPoint = toPolar(cartPoint, rect);
-      mPoints[i * 4] = polarPoint[0];
-      mPoints[i * 4 + 1] = polarPoint[1];
-
-      float[] cartPoint2 = {
-          (float)(i + 1) / (data.bytes.length - 1),
-          rect.height() / 2 + ((byte) (data.bytes[i + 1] + 128)) * (rect.height() / 2) / 128
-      };
-
-      float[] polarPoint2 = toPolar(cartPoint2, rect);
-      mPoints[i * 4 + 2] = polarPoint2[0];
-      mPoints[i * 4 + 3] = polarPoint2[1];
+    int count = data.sampleCount;
+    if (count < 2) {
+      return;
+    }
+    if (mAngles == null || !mAngles.matches(count, 1, count - 1)) {
+      mAngles = SinCosTable.get(count, 1, count - 1);
     }
+    if (mRadii == null || mRadii.length < count) {
+      mRadii = new float[count];
+      mXs = new float[count];
+      mYs = new float[count];
+    }
+    // Controls the pulsing rate
+    double modulation = frame * 0.04;
+    mRadiusScale = (float)((1.2 + Math.sin(modulation))/2.2);
 
-    canvas.drawLines(mPoints, mPaint);
+    // The sample sets y = h/2 + sample * h/2, and the radius is
+    // (w/2 * (1 - aggresive) + aggresive * y/2) * mRadiusScale, which is an
+    // affine function of the sample
+    int halfWidth = rect.width() / 2;
+    int halfHeight = rect.height() / 2;
+    float offset = (halfWidth * (1 - aggresive) + aggresive * halfHeight / 2) * mRadiusScale;
+    float scale = aggresive * halfHeight / 2 * mRadiusScale;
+    PointKernels.scaleOffset(data.samples, scale, offset, mRadii, count);
+    PointKernels.polar(mRadii, mAngles.sin, mAngles.cos, halfWidth, halfHeight, mXs, mYs, count);
+    PointKernels.segments(mXs, mYs, mPoints, count);
 
-    // Controls the pulsing rate
-    modulation += 0.04;
+    canvas.drawLines(mPoints, 0, (count - 1) * 4, mPaint);
   }
 
   @Override
-  public void onRender(Canvas canvas, FFTData data, Rect rect)
+  public void onRender(VisualizerCanvas canvas, FFTData data, Bounds rect)
   {
     // Do nothing, we only display audio data
   }
 
-  float modulation = 0;
   float aggresive = 0.33f;
-  private float[] toPolar(float[] cartesian, Rect rect)
-  {
-    double cX = rect.width()/2;
-    double cY = rect.height()/2;
-    double angle = (cartesian[0]) * 2 * Math.PI;
-    double radius = ((rect.width()/2) * (1 - aggresive) + aggresive * cartesian[1]/2) * (1.2 + Math.sin(modulation))/2.2;
-    float[] out =  {
-        (float)(cX + radius * Math.sin(angle)),
-        (float)(cY + radius * Math.cos(angle))
-    };
-    return out;
-  }
+  private SinCosTable mAngles;
+  private float mRadiusScale;
+  // Reused every frame
+  private float[] mRadii;
+  private float[] mXs;
+  private float[] mYs;
 
-  private float colorCounter = 0;
-  private void cycleColor()
+  private void cycleColor(long frame)
   {
+    double colorCounter = frame * 0.03;
     int r = (int)Math.floor(128*(Math.sin(colorCounter) + 1));
     int g = (int)Math.floor(128*(Math.sin(colorCounter + 2) + 1));
     int b = (int)Math.floor(128*(Math.sin(colorCounter + 4) + 1));
-    mPaint.setColor(Color.argb(128, r, g, b));
-    colorCounter += 0.03;
+    mPaint.setColor(Brush.argb(128, r, g, b));
   }
 }
@@ -6,29 +6,27 @@
  */
 package com.pheelicks.visualizer.renderer;
 
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Rect;
-
 import com.pheelicks.visualizer.AudioData;
 import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.Brush;
+import com.pheelicks.visualizer.graphics.VisualizerCanvas;
 
 public class LineRenderer extends Renderer
 {
-  private Paint mPaint;
-  private Paint mFlashPaint;
+  private Brush mPaint;
+  private Brush mFlashPaint;
   private boolean mCycleColor;
-  private float amplitude = 0;
 
 
   /**
-   * Renders the audio data onto a line. The line flashes on prominent beats
+   * Renders the audio data onto a line. The line flashes on beats, as found
+   * by the beat detector of the VisualizerView
    * @param canvas
-   * @param paint - Paint to draw lines with
-   * @param paint - Paint to draw flash with
+   * @param paint - Brush to draw lines with
+   * @param paint - Brush to draw flash with
    */
-  public LineRenderer(Paint paint, Paint flashPaint)
+  public LineRenderer(Brush paint, Brush flashPaint)
   {
     this(paint, flashPaint, false);
   }
@@ -36,12 +34,12 @@ public class LineRenderer extends Renderer
   /**
    * Renders the audio data onto a line. The line flashes on prominent beats
    * @param canvas
-   * @param paint - Paint to draw lines with
-   * @param paint - Paint to draw flash with
+   * @param paint - Brush to draw lines with
+   * @param paint - Brush to draw flash with
    * @param cycleColor - If true the color will change on each frame
    */
-  public LineRenderer(Paint paint,
-                      Paint flashPaint,
+  public LineRenderer(Brush paint,
+                      Brush flashPaint,
                       boolean cycleColor)
   {
     super();
@@ -50,58 +48,78 @@ public class LineRenderer extends Renderer
     mCycleColor = cycleColor;
   }
 
+  // Draws the waveform, and a prominent line on beats
   @Override
-  public void onRender(Canvas canvas, AudioData data, Rect rect)
+  public int getDataKinds()
   {
+    return WAVEFORM | BEATS;
+  }
+
+  @Override
+  public void onRender(VisualizerCanvas canvas, AudioData data, Bounds rect)
+  {
+    long frame = mFrame++;
     if(mCycleColor)
     {
-      cycleColor();
+      cycleColor(frame);
     }
 
     // Calculate points for line
-    for (int i = 0; i < data.bytes.length - 1; i++) {
-      mPoints[i * 4] = rect.width() * i / (data.bytes.length - 1);
-      mPoints[i * 4 + 1] =  rect.height() / 2
-          + ((byte) (data.bytes[i] + 128)) * (rect.height() / 3) / 128;
-      mPoints[i * 4 + 2] = rect.width() * (i + 1) / (data.bytes.length - 1);
-      mPoints[i * 4 + 3] = rect.height() / 2
-          + ((byte) (data.bytes[i + 1] + 128)) * (rect.height() / 3) / 128;
+    int count = data.sampleCount;
+    if (count < 2) {
+      return;
     }
-
-    // Calc amplitude for this waveform
-    float accumulator = 0;
-    for (int i = 0; i < data.bytes.length - 1; i++) {
-      accumulator += Math.abs(data.bytes[i]);
+    updateXs(count, rect.width());
+    if (mYs == null || mYs.length < count) {
+      mYs = new float[count];
     }
+    PointKernels.scaleOffset(data.samples, rect.height() / 3, rect.height() / 2, mYs, count);
+    PointKernels.segments(mXs, mYs, mPoints, count);
 
-    float amp = accumulator/(128 * data.bytes.length);
-    if(amp > amplitude)
+    if(data.beat)
     {
-      // Amplitude is bigger than normal, make a prominent line
-      amplitude = amp;
-      canvas.drawLines(mPoints, mFlashPaint);
+      // Beat detected in the FFT data, make a prominent line
+      canvas.drawLines(mPoints, 0, (count - 1) * 4, mFlashPaint);
     }
     else
     {
-      // Amplitude is nothing special, reduce the amplitude
-      amplitude *= 0.99;
-      canvas.drawLines(mPoints, mPaint);
+      canvas.drawLines(mPoints, 0, (count - 1) * 4, mPaint);
     }
   }
 
   @Override
-  public void onRender(Canvas canvas, FFTData data, Rect rect)
+  public void onRender(VisualizerCanvas canvas, FFTData data, Bounds rect)
   {
     // Do nothing, we only display audio data
   }
 
-  private float colorCounter = 0;
-  private void cycleColor()
+  // x of each sample, which only changes with the capture size and width
+  private float[] mXs;
+  private int mXsCount;
+  private int mXsWidth;
+  private float[] mYs;
+
+  private void updateXs(int count, int width)
+  {
+    if (mXs != null && mXsCount == count && mXsWidth == width) {
+      return;
+    }
+    if (mXs == null || mXs.length < count) {
+      mXs = new float[count];
+    }
+    for (int i = 0; i < count; i++) {
+      mXs[i] = width * i / (count - 1);
+    }
+    mXsCount = count;
+    mXsWidth = width;
+  }
+
+  private void cycleColor(long frame)
   {
+    double colorCounter = frame * 0.03;
     int r = (int)Math.floor(128*(Math.sin(colorCounter) + 3));
     int g = (int)Math.floor(128*(Math.sin(colorCounter + 1) + 1));
     int b = (int)Math.floor(128*(Math.sin(colorCounter + 7) + 1));
-    mPaint.setColor(Color.argb(128, r, g, b));
-    colorCounter += 0.03;
+    mPaint.setColor(Brush.argb(128, r, g, b));
   }
 }
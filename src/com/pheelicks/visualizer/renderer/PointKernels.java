@@ -0,0 +1,66 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.renderer;
+
+/**
+ * Batch kernels for building line geometry out of samples.
+ *
+ * Each kernel is a single counted loop over primitive arrays, with no calls,
+ * branches or divisions inside and with each output in an array of its own,
+ * so that HotSpot and ART can unroll and vectorize them. Interleaving into
+ * the (x0, y0, x1, y1) layout of drawLines is left to {@link #segments},
+ * which is only loads and stores.
+ */
+public final class PointKernels
+{
+  private PointKernels()
+  {
+  }
+
+  /**
+   * dst[i] = offset + src[i] * scale
+   */
+  public static void scaleOffset(float[] src, float scale, float offset, float[] dst, int count)
+  {
+    for (int i = 0; i < count; i++) {
+      dst[i] = offset + src[i] * scale;
+    }
+  }
+
+  /**
+   * Converts radii to points around (cx, cy), at the angles of the tables.
+   * x[i] = cx + radius[i] * sin[i], y[i] = cy + radius[i] * cos[i]
+   */
+  public static void polar(float[] radius, float[] sin, float[] cos, float cx, float cy,
+      float[] x, float[] y, int count)
+  {
+    for (int i = 0; i < count; i++) {
+      x[i] = cx + radius[i] * sin[i];
+    }
+    for (int i = 0; i < count; i++) {
+      y[i] = cy + radius[i] * cos[i];
+    }
+  }
+
+  /**
+   * Joins count points into count - 1 connected segments, in the layout
+   * drawLines takes
+   * @return Number of values written to out, (count - 1) * 4
+   */
+  public static int segments(float[] x, float[] y, float[] out, int count)
+  {
+    int segments = count - 1;
+    for (int i = 0; i < segments; i++) {
+      int o = i * 4;
+      out[o] = x[i];
+      out[o + 1] = y[i];
+      out[o + 2] = x[i + 1];
+      out[o + 3] = y[i + 1];
+    }
+    return Math.max(segments, 0) * 4;
+  }
+}
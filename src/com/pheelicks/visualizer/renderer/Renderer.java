@@ -6,17 +6,30 @@
  */
 package com.pheelicks.visualizer.renderer;
 
-import android.graphics.Canvas;
-import android.graphics.Rect;
-
 import com.pheelicks.visualizer.AudioData;
 import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.VisualizerCanvas;
+import com.pheelicks.visualizer.stats.TimingHistogram;
 
 abstract public class Renderer
 {
+  // Kinds of data a renderer can need, see getDataKinds
+  public static final int WAVEFORM = 1;
+  public static final int FFT = 2;
+  // FFT captures are needed to detect beats, even if they aren't drawn
+  public static final int BEATS = 4;
+
   // Have these as members, so we don't have to re-create them each time
   protected float[] mPoints;
   protected float[] mFFTPoints;
+  // Only used if data arrives which hasn't been through VisualizerView's analyzer
+  private FrameAnalyzer mFallbackAnalyzer;
+  // Frames drawn, which animations such as cycling colors are timed by
+  protected long mFrame = 0;
+  // Time spent in each call of onRender
+  private final TimingHistogram mRenderTimes = new TimingHistogram();
   public Renderer()
   {
   }
@@ -27,47 +40,116 @@ abstract public class Renderer
    * Implement this method to render the audio data onto the canvas
    * @param canvas - Canvas to draw on
    * @param data - Data to render
-   * @param rect - Rect to render into
+   * @param rect - Bounds to render into
    */
-  abstract public void onRender(Canvas canvas, AudioData data, Rect rect);
+  abstract public void onRender(VisualizerCanvas canvas, AudioData data, Bounds rect);
 
   /**
    * Implement this method to render the FFT audio data onto the canvas
    * @param canvas - Canvas to draw on
    * @param data - Data to render
-   * @param rect - Rect to render into
+   * @param rect - Bounds to render into
+   */
+  abstract public void onRender(VisualizerCanvas canvas, FFTData data, Bounds rect);
+
+
+  /**
+   * Override to declare which data this renderer uses, so the data it
+   * doesn't use is neither captured nor passed to it
+   * @return A combination of {@link #WAVEFORM}, {@link #FFT} and
+   * {@link #BEATS}. All of them unless overridden
    */
-  abstract public void onRender(Canvas canvas, FFTData data, Rect rect);
+  public int getDataKinds()
+  {
+    return WAVEFORM | FFT | BEATS;
+  }
 
+  /**
+   * @return Whether any of the renderers uses any of the given kinds of data
+   */
+  public static boolean anyUses(Renderer[] renderers, int kinds)
+  {
+    for (int i = 0; i < renderers.length; i++) {
+      if ((renderers[i].getDataKinds() & kinds) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
 
   // These methods should actually be called for rendering
   /**
-   * Render the audio data onto the canvas
+   * Render the audio data onto the canvas. Does nothing if the renderer
+   * doesn't declare {@link #WAVEFORM}
    * @param canvas - Canvas to draw on
    * @param data - Data to render
-   * @param rect - Rect to render into
+   * @param rect - Bounds to render into
    */
-  final public void render(Canvas canvas, AudioData data, Rect rect)
+  final public void render(VisualizerCanvas canvas, AudioData data, Bounds rect)
   {
-    if (mPoints == null || mPoints.length < data.bytes.length * 4) {
-      mPoints = new float[data.bytes.length * 4];
+    if ((getDataKinds() & WAVEFORM) == 0) {
+      return;
+    }
+    if (!data.analyzed) {
+      getFallbackAnalyzer().analyze(data);
+    }
+    if (mPoints == null || mPoints.length < data.sampleCount * 4) {
+      mPoints = new float[data.sampleCount * 4];
     }
 
+    long start = System.nanoTime();
     onRender(canvas, data, rect);
+    mRenderTimes.record(System.nanoTime() - start);
   }
 
   /**
-   * Render the FFT data onto the canvas
+   * Render the FFT data onto the canvas. Does nothing if the renderer
+   * doesn't declare {@link #FFT}
    * @param canvas - Canvas to draw on
    * @param data - Data to render
-   * @param rect - Rect to render into
+   * @param rect - Bounds to render into
    */
-  final public void render(Canvas canvas, FFTData data, Rect rect)
+  final public void render(VisualizerCanvas canvas, FFTData data, Bounds rect)
   {
+    if ((getDataKinds() & FFT) == 0) {
+      return;
+    }
     if (mFFTPoints == null || mFFTPoints.length < data.bytes.length * 4) {
       mFFTPoints = new float[data.bytes.length * 4];
     }
+    if (!data.analyzed) {
+      getFallbackAnalyzer().analyze(data);
+    }
 
+    long start = System.nanoTime();
     onRender(canvas, data, rect);
+    mRenderTimes.record(System.nanoTime() - start);
+  }
+
+  /**
+   * Moves animations such as cycling colors to where they would be after
+   * drawing frame frames, so that a renderer can start part way through a
+   * clip and draw the same as one which drew it from the beginning
+   */
+  public void seekFrame(long frame)
+  {
+    mFrame = frame;
+  }
+
+  /**
+   * @return Histogram of the time taken by each call to onRender. Written by
+   * the thread which renders, see {@link TimingHistogram} for reading it
+   */
+  public TimingHistogram getRenderTimes()
+  {
+    return mRenderTimes;
+  }
+
+  private FrameAnalyzer getFallbackAnalyzer()
+  {
+    if (mFallbackAnalyzer == null) {
+      mFallbackAnalyzer = new FrameAnalyzer();
+    }
+    return mFallbackAnalyzer;
   }
 }
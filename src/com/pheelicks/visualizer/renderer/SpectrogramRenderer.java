@@ -0,0 +1,181 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.renderer;
+
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.dsp.BandAggregator;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.Brush;
+import com.pheelicks.visualizer.graphics.ScrollingImage;
+import com.pheelicks.visualizer.graphics.VisualizerCanvas;
+
+/**
+ * Scrolling spectrogram, or waterfall: time runs from left to right and
+ * frequency from bottom to top, with the level of each frequency shown by
+ * color.
+ *
+ * Each new FFT frame adds one column to a {@link ScrollingImage}, so a frame
+ * costs a pass over the bins and one over the rows, however much history is
+ * shown. Frames drawn again with the same FFT, e.g. for a flash or a new
+ * waveform, only redraw the image, so it scrolls with the captures rather
+ * than with the frame rate. Levels are turned into colors through a table
+ * built when the colors or range are set.
+ */
+public class SpectrogramRenderer extends Renderer
+{
+  // Black through purple and orange to pale yellow
+  private static final int[] DEFAULT_COLORS = {
+    0xff000000, 0xff28006e, 0xffb4005a, 0xffff8c00, 0xffffffa0
+  };
+  private static final int LEVELS = 256;
+
+  private final ScrollingImage mImage;
+  private final BandAggregator mAggregator;
+  private final Brush mBrush;
+  private final int[] mColumn;
+  private final int[] mColorMap = new int[LEVELS];
+  private float mMinDecibels;
+  // Color map entries per decibel
+  private float mLevelScale;
+  // Timestamp of the FFT frame in the newest column
+  private long mLastTimestamp = Long.MIN_VALUE;
+
+  /**
+   * Renders the FFT data as a spectrogram, from 0 to 45 dB
+   * @param columns - Number of frames of history shown across the width
+   * @param rows - Number of frequency bands shown down the height
+   * @param scale - Frequency scale the rows are evenly spaced on
+   */
+  public SpectrogramRenderer(int columns,
+                             int rows,
+                             BandAggregator.Scale scale)
+  {
+    this(columns, rows, scale, new Brush());
+  }
+
+  /**
+   * Renders the FFT data as a spectrogram, from 0 to 45 dB
+   * @param columns - Number of frames of history shown across the width
+   * @param rows - Number of frequency bands shown down the height
+   * @param scale - Frequency scale the rows are evenly spaced on
+   * @param brush - Brush to draw the spectrogram with. Only its alpha and
+   * blend mode are used
+   */
+  public SpectrogramRenderer(int columns,
+                             int rows,
+                             BandAggregator.Scale scale,
+                             Brush brush)
+  {
+    super();
+    mImage = new ScrollingImage(columns, rows);
+    mAggregator = new BandAggregator(rows, scale, 20, 20000);
+    mBrush = brush;
+    mColumn = new int[rows];
+    setRange(0, 45);
+    setColors(DEFAULT_COLORS);
+    mImage.clear(mColorMap[0]);
+  }
+
+  /**
+   * Sets the levels mapped to the first and last colors. Levels outside the
+   * range get the nearest of the two
+   */
+  public void setRange(float minDecibels, float maxDecibels)
+  {
+    if(maxDecibels <= minDecibels)
+    {
+      throw new IllegalArgumentException("Invalid range " + minDecibels + " - " + maxDecibels);
+    }
+    mMinDecibels = minDecibels;
+    mLevelScale = LEVELS / (maxDecibels - minDecibels);
+  }
+
+  /**
+   * Sets the colors levels are shown in, blending between them
+   * @param colors - At least 2 ARGB colors, evenly spaced from the lowest
+   * level to the highest
+   */
+  public void setColors(int... colors)
+  {
+    if(colors.length < 2)
+    {
+      throw new IllegalArgumentException("Need at least 2 colors, got " + colors.length);
+    }
+
+    int segments = colors.length - 1;
+    for (int i = 0; i < LEVELS; i++) {
+      float position = (float) i * segments / (LEVELS - 1);
+      int from = Math.min((int) position, segments - 1);
+      mColorMap[i] = mix(colors[from], colors[from + 1], position - from);
+    }
+  }
+
+  /**
+   * @return Image the spectrogram is drawn from
+   */
+  public ScrollingImage getImage()
+  {
+    return mImage;
+  }
+
+  // Only draws the FFT
+  @Override
+  public int getDataKinds()
+  {
+    return FFT;
+  }
+
+  @Override
+  public void onRender(VisualizerCanvas canvas, AudioData data, Bounds rect)
+  {
+    // Do nothing, we only display FFT data
+  }
+
+  @Override
+  public void onRender(VisualizerCanvas canvas, FFTData data, Bounds rect)
+  {
+    if(data.timestampNanos != mLastTimestamp)
+    {
+      mLastTimestamp = data.timestampNanos;
+      addColumn(data);
+    }
+    canvas.drawImage(mImage, rect, mBrush);
+  }
+
+  private void addColumn(FFTData data)
+  {
+    float[] levels = data.levels();
+    mAggregator.prepare(data.levelBins(), data.getSamplingRateOrDefault());
+
+    int rows = mColumn.length;
+    for (int row = 0; row < rows; row++) {
+      // Highest frequencies at the top
+      int band = rows - 1 - row;
+      float level = Float.NEGATIVE_INFINITY;
+      for (int k = mAggregator.getBandStart(band); k < mAggregator.getBandEnd(band); k++) {
+        level = Math.max(level, levels[k]);
+      }
+      // Silent bins are -Infinity, which casts to a large negative index
+      int index = (int) ((level - mMinDecibels) * mLevelScale);
+      mColumn[row] = mColorMap[index < 0 ? 0 : (index >= LEVELS ? LEVELS - 1 : index)];
+    }
+
+    mImage.addColumn(mColumn);
+  }
+
+  private static int mix(int from, int to, float amount)
+  {
+    int color = 0;
+    for (int shift = 0; shift < 32; shift += 8) {
+      int a = (from >>> shift) & 0xff;
+      int b = (to >>> shift) & 0xff;
+      color |= Math.round(a + (b - a) * amount) << shift;
+    }
+    return color;
+  }
+}
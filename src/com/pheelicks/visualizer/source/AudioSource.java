@@ -0,0 +1,75 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.source;
+
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.renderer.Renderer;
+
+/**
+ * Something which produces waveform and FFT frames for visualizers, such as
+ * a Visualizer on an audio session ({@link com.pheelicks.visualizer.CaptureHub}),
+ * the microphone ({@link MicrophoneSource}) or decoded PCM ({@link PcmSource}).
+ *
+ * Sources deliver through a {@link FrameDispatcher}, so each frame is analyzed
+ * once however many sinks there are, and frames are skipped rather than
+ * analyzed when every sink is still holding an undrawn one.
+ */
+public interface AudioSource
+{
+  /**
+   * Receives frames from a source. Called on the source's thread with frames
+   * that have already been analyzed. The frames are reused for the next
+   * capture, so sinks should copy what they need and return quickly
+   */
+  public interface Sink
+  {
+    void onWaveform(AudioData data);
+
+    void onFFT(FFTData data);
+
+    /**
+     * Called before each frame is produced, from the source's thread
+     * @return true if this sink would only drop a new frame, because the
+     * previous one hasn't been drawn yet
+     */
+    boolean isBacklogged();
+
+    /**
+     * @return Kinds of data the sink wants, as {@link Renderer#WAVEFORM},
+     * {@link Renderer#FFT} and {@link Renderer#BEATS}. Sources only capture
+     * what at least one sink wants, and only deliver it to those sinks
+     */
+    int getDataKinds();
+  }
+
+  /**
+   * Starts sending frames to a sink. Adding a sink twice has no effect
+   */
+  void addSink(Sink sink);
+
+  /**
+   * Stops sending frames to a sink
+   */
+  void removeSink(Sink sink);
+
+  /**
+   * Call when the data kinds wanted by a sink have changed
+   */
+  void updateDataKinds();
+
+  /**
+   * @return Number of frames (waveform and FFT) not produced because every
+   * sink was backlogged
+   */
+  long getSkippedFrameCount();
+
+  /**
+   * Frees the resources used by the source. It can't be used afterwards
+   */
+  void release();
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.source;
+
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.dsp.BeatDetector;
+import com.pheelicks.visualizer.renderer.Renderer;
+
+/**
+ * Delivery shared by all {@link AudioSource}s. Frames are copied into one
+ * preallocated AudioData and FFTData, analyzed once, and handed to every
+ * sink which wants that kind of data. When all sinks are backlogged the
+ * frame is skipped before any work is done on it, so a source producing
+ * faster than the views draw only costs the check.
+ *
+ * Sinks may be added and removed from any thread. The dispatch methods must
+ * all be called from one thread at a time.
+ */
+public class FrameDispatcher
+{
+  // Copy on write, so dispatching can iterate without locking
+  private volatile AudioSource.Sink[] mSinks = new AudioSource.Sink[0];
+  private volatile long mSkippedFrames = 0;
+
+  private final FrameAnalyzer mAnalyzer = new FrameAnalyzer();
+  private final AudioData mAudioData = new AudioData(null);
+  private final FFTData mFFTData = new FFTData(null);
+
+  public FrameDispatcher()
+  {
+    mAnalyzer.setBeatDetector(new BeatDetector(6));
+  }
+
+  /**
+   * @return false if the sink was already added
+   */
+  public synchronized boolean addSink(AudioSource.Sink sink)
+  {
+    AudioSource.Sink[] sinks = mSinks;
+    for (AudioSource.Sink s : sinks) {
+      if (s == sink) {
+        return false;
+      }
+    }
+
+    AudioSource.Sink[] added = new AudioSource.Sink[sinks.length + 1];
+    System.arraycopy(sinks, 0, added, 0, sinks.length);
+    added[sinks.length] = sink;
+    mSinks = added;
+    return true;
+  }
+
+  /**
+   * @return false if the sink wasn't added
+   */
+  public synchronized boolean removeSink(AudioSource.Sink sink)
+  {
+    AudioSource.Sink[] sinks = mSinks;
+    for (int i = 0; i < sinks.length; i++) {
+      if (sinks[i] == sink) {
+        AudioSource.Sink[] removed = new AudioSource.Sink[sinks.length - 1];
+        System.arraycopy(sinks, 0, removed, 0, i);
+        System.arraycopy(sinks, i + 1, removed, i, sinks.length - i - 1);
+        mSinks = removed;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public synchronized void clearSinks()
+  {
+    mSinks = new AudioSource.Sink[0];
+  }
+
+  public int getSinkCount()
+  {
+    return mSinks.length;
+  }
+
+  /**
+   * @return Kinds of data wanted by any of the sinks, as a combination of
+   * the {@link Renderer} kinds. Beats imply FFT, and the FFT implies the
+   * waveform if the analyzer makes a float spectrum from it
+   */
+  public int getDataKinds()
+  {
+    int kinds = 0;
+    AudioSource.Sink[] sinks = mSinks;
+    for (AudioSource.Sink sink : sinks) {
+      kinds |= sink.getDataKinds();
+    }
+    if ((kinds & Renderer.BEATS) != 0) {
+      kinds |= Renderer.FFT;
+    }
+    if ((kinds & Renderer.FFT) != 0 && mAnalyzer.getSpectrumAnalyzer() != null) {
+      kinds |= Renderer.WAVEFORM;
+    }
+    return kinds;
+  }
+
+  /**
+   * @return true if there are no sinks, or every sink is backlogged. Sources
+   * can check this before doing work of their own to produce a frame
+   */
+  public boolean isBacklogged()
+  {
+    AudioSource.Sink[] sinks = mSinks;
+    for (AudioSource.Sink sink : sinks) {
+      if (!sink.isBacklogged()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Counts frames a source skipped after checking {@link #isBacklogged()}
+   */
+  public void skip(int frames)
+  {
+    if (mSinks.length > 0) {
+      mSkippedFrames += frames;
+    }
+  }
+
+  public long getSkippedFrameCount()
+  {
+    return mSkippedFrames;
+  }
+
+  /**
+   * Analysis shared by all sinks. Configure smoothing and beat detection
+   * here, as frames reach the sinks already analyzed
+   */
+  public FrameAnalyzer getAnalyzer()
+  {
+    return mAnalyzer;
+  }
+
+  /**
+   * Copies, analyzes and delivers a waveform, unless every sink is backlogged
+   * @param bytes - Unsigned 8-bit samples
+   * @param timestamp - System.nanoTime() at which they were captured
+   */
+  public void dispatchWaveform(byte[] bytes, long timestamp)
+  {
+    if (isBacklogged()) {
+      skip(1);
+      return;
+    }
+
+    mAudioData.set(bytes, timestamp);
+    deliverWaveform();
+  }
+
+  /**
+   * Copies, analyzes and delivers a full resolution waveform, unless every
+   * sink is backlogged
+   * @param samples - Samples normalized to [-1, 1]
+   * @param offset - Index of the first sample
+   * @param count - Number of samples
+   * @param timestamp - System.nanoTime() at which they were captured
+   */
+  public void dispatchWaveform(float[] samples, int offset, int count, long timestamp)
+  {
+    if (isBacklogged()) {
+      skip(1);
+      return;
+    }
+
+    mAudioData.setSamples(samples, offset, count, timestamp);
+    deliverWaveform();
+  }
+
+  private void deliverWaveform()
+  {
+    mAnalyzer.analyze(mAudioData);
+    AudioSource.Sink[] sinks = mSinks;
+    for (AudioSource.Sink sink : sinks) {
+      if ((sink.getDataKinds() & Renderer.WAVEFORM) != 0) {
+        sink.onWaveform(mAudioData);
+      }
+    }
+  }
+
+  /**
+   * Copies, analyzes and delivers an FFT, unless every sink is backlogged
+   * @param bytes - FFT in the Visualizer's format
+   * @param samplingRate - Sampling rate in Hz, or 0 if unknown
+   * @param timestamp - System.nanoTime() at which it was captured
+   */
+  public void dispatchFFT(byte[] bytes, int samplingRate, long timestamp)
+  {
+    if (isBacklogged()) {
+      skip(1);
+      return;
+    }
+
+    mFFTData.set(bytes, timestamp);
+    mFFTData.samplingRate = samplingRate;
+    mAnalyzer.analyze(mFFTData);
+    AudioSource.Sink[] sinks = mSinks;
+    for (AudioSource.Sink sink : sinks) {
+      if ((sink.getDataKinds() & (Renderer.FFT | Renderer.BEATS)) != 0) {
+        sink.onFFT(mFFTData);
+      }
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.source;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import com.pheelicks.visualizer.FrameAnalyzer;
+
+/**
+ * Source for the microphone. An AudioRecord is read on a thread of its own
+ * into a direct buffer, which is pushed through a {@link PcmSource}. Needs
+ * the RECORD_AUDIO permission.
+ */
+public class MicrophoneSource implements AudioSource
+{
+  private final int mSampleRate;
+  private final PcmSource mPcm;
+  private Thread mThread;
+  private volatile boolean mRunning = false;
+
+  /**
+   * @param sampleRate - Sample rate to record at in Hz. 44100 is the only
+   * rate all devices support
+   * @param captureSize - Samples per capture, a power of 2
+   */
+  public MicrophoneSource(int sampleRate, int captureSize)
+  {
+    mSampleRate = sampleRate;
+    mPcm = new PcmSource(sampleRate, 1, PcmSource.Encoding.PCM_16BIT, captureSize);
+  }
+
+  /**
+   * @param framesPerSecond - Frames to produce per second. Should be set
+   * before recording starts
+   */
+  public void setFrameRate(int framesPerSecond)
+  {
+    mPcm.setFrameRate(framesPerSecond);
+  }
+
+  /**
+   * Starts recording. Does nothing if already recording
+   * @throws IllegalStateException if the AudioRecord can't be created
+   */
+  public synchronized void start()
+  {
+    if (mThread != null) {
+      if (mRunning) {
+        return;
+      }
+      // Ended by a read error. Wait for it to release its AudioRecord
+      stop();
+    }
+
+    int minBytes = AudioRecord.getMinBufferSize(mSampleRate,
+        AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+    if (minBytes <= 0) {
+      throw new IllegalStateException("Can't record at " + mSampleRate + "Hz");
+    }
+    // Read a capture at a time, but leave AudioRecord room to buffer more
+    int readBytes = mPcm.getCaptureSize() * 2;
+    final AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.MIC,
+        mSampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
+        Math.max(minBytes, readBytes * 2));
+    if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+      record.release();
+      throw new IllegalStateException("Couldn't initialize AudioRecord");
+    }
+
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(readBytes).order(ByteOrder.nativeOrder());
+    mRunning = true;
+    mThread = new Thread("VisualizerMicrophone") {
+      @Override
+      public void run() {
+        record.startRecording();
+        while (mRunning) {
+          buffer.clear();
+          int read = record.read(buffer, buffer.capacity());
+          if (read < 0) {
+            // A read error ends recording, as if stop had been called
+            mRunning = false;
+            break;
+          }
+          buffer.limit(read);
+          mPcm.push(buffer);
+        }
+        record.stop();
+        record.release();
+      }
+    };
+    mThread.start();
+  }
+
+  /**
+   * Stops recording, waiting for the recording thread to finish
+   */
+  public synchronized void stop()
+  {
+    Thread thread = mThread;
+    if (thread == null) {
+      return;
+    }
+
+    mRunning = false;
+    mThread = null;
+    boolean interrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return true from start until stop, or until reading fails
+   */
+  public boolean isRecording()
+  {
+    return mRunning;
+  }
+
+  @Override
+  public void addSink(Sink sink)
+  {
+    mPcm.addSink(sink);
+  }
+
+  @Override
+  public void removeSink(Sink sink)
+  {
+    mPcm.removeSink(sink);
+  }
+
+  @Override
+  public void updateDataKinds()
+  {
+    mPcm.updateDataKinds();
+  }
+
+  @Override
+  public long getSkippedFrameCount()
+  {
+    return mPcm.getSkippedFrameCount();
+  }
+
+  /**
+   * Analysis shared by all sinks
+   */
+  public FrameAnalyzer getAnalyzer()
+  {
+    return mPcm.getAnalyzer();
+  }
+
+  @Override
+  public void release()
+  {
+    stop();
+    mPcm.release();
+  }
+}
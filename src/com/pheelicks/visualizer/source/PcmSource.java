@@ -0,0 +1,191 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.source;
+
+import java.nio.ByteBuffer;
+
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.dsp.CaptureEncoder;
+import com.pheelicks.visualizer.renderer.Renderer;
+
+/**
+ * Source for PCM which the app has itself, such as the output of a decoder.
+ *
+ * Samples are read straight out of the pushed ByteBuffer and downmixed into
+ * a ring of the last captureSize samples, so pushing never copies the buffer
+ * or allocates. Every 1 / frame rate seconds of audio a waveform and FFT
+ * are produced from the ring, as far as any sink wants them, unless every
+ * sink is still backlogged, in which case the frame is skipped before it is
+ * encoded.
+ */
+public class PcmSource implements AudioSource
+{
+  public enum Encoding {
+    // Signed 16-bit samples
+    PCM_16BIT,
+    // 32-bit float samples in [-1, 1]
+    PCM_FLOAT
+  }
+
+  private final int mSampleRate;
+  private final int mChannels;
+  private final Encoding mEncoding;
+  private final int mCaptureSize;
+  private final FrameDispatcher mDispatcher = new FrameDispatcher();
+  private final CaptureEncoder mEncoder;
+
+  // Only touched by the pushing thread
+  private final float[] mRing;
+  private int mWrite = 0;
+  private int mSinceFrame = 0;
+  private int mHop;
+  private final float[] mWindow;
+  private final byte[] mFFT;
+
+  /**
+   * @param sampleRate - Sample rate of the pushed audio in Hz
+   * @param channels - Interleaved channels per sample frame, mixed to mono
+   * @param encoding - Sample format of the pushed audio
+   * @param captureSize - Samples per capture, a power of 2
+   */
+  public PcmSource(int sampleRate, int channels, Encoding encoding, int captureSize)
+  {
+    if (Integer.bitCount(captureSize) != 1) {
+      throw new IllegalArgumentException("Capture size must be a power of 2: " + captureSize);
+    }
+    mSampleRate = sampleRate;
+    mChannels = channels;
+    mEncoding = encoding;
+    mCaptureSize = captureSize;
+    mEncoder = new CaptureEncoder(captureSize);
+    mRing = new float[captureSize];
+    mWindow = new float[captureSize];
+    mFFT = new byte[captureSize];
+    setFrameRate(60);
+  }
+
+  /**
+   * @param framesPerSecond - Frames to produce per second of audio. Should be
+   * set before pushing starts
+   */
+  public void setFrameRate(int framesPerSecond)
+  {
+    mHop = Math.max(1, mSampleRate / framesPerSecond);
+  }
+
+  /**
+   * Consumes every complete sample frame between the buffer's position and
+   * limit, in the buffer's byte order, and advances the position past them.
+   * Must always be called from the same thread
+   * @param buffer - PCM in the encoding given to the constructor
+   */
+  public void push(ByteBuffer buffer)
+  {
+    int sampleBytes = mEncoding == Encoding.PCM_FLOAT ? 4 : 2;
+    int frameBytes = sampleBytes * mChannels;
+    int position = buffer.position();
+    int end = position + (buffer.remaining() / frameBytes) * frameBytes;
+    float scale = 1f / mChannels;
+
+    for (; position < end; position += frameBytes) {
+      float sum = 0;
+      for (int c = 0; c < mChannels; c++) {
+        int index = position + c * sampleBytes;
+        if (mEncoding == Encoding.PCM_FLOAT) {
+          sum += buffer.getFloat(index);
+        } else {
+          sum += buffer.getShort(index) / 32768f;
+        }
+      }
+      mRing[mWrite] = sum * scale;
+      mWrite = (mWrite + 1) & (mCaptureSize - 1);
+
+      if (++mSinceFrame >= mHop) {
+        mSinceFrame = 0;
+        produceFrame();
+      }
+    }
+    buffer.position(end);
+  }
+
+  private void produceFrame()
+  {
+    int kinds = mDispatcher.getDataKinds();
+    boolean waveform = (kinds & Renderer.WAVEFORM) != 0;
+    boolean fft = (kinds & Renderer.FFT) != 0;
+    if (!waveform && !fft) {
+      return;
+    }
+    if (mDispatcher.isBacklogged()) {
+      mDispatcher.skip((waveform ? 1 : 0) + (fft ? 1 : 0));
+      return;
+    }
+
+    // Unroll the ring so the oldest sample comes first
+    int tail = mCaptureSize - mWrite;
+    System.arraycopy(mRing, mWrite, mWindow, 0, tail);
+    System.arraycopy(mRing, 0, mWindow, tail, mWrite);
+
+    long timestamp = System.nanoTime();
+    if (waveform) {
+      // Goes out at full resolution, only the FFT is encoded
+      mDispatcher.dispatchWaveform(mWindow, 0, mCaptureSize, timestamp);
+    }
+    if (fft) {
+      mEncoder.encode(mWindow, 0, null, mFFT);
+      mDispatcher.dispatchFFT(mFFT, mSampleRate, timestamp);
+    }
+  }
+
+  @Override
+  public void addSink(Sink sink)
+  {
+    mDispatcher.addSink(sink);
+  }
+
+  @Override
+  public void removeSink(Sink sink)
+  {
+    mDispatcher.removeSink(sink);
+  }
+
+  @Override
+  public void updateDataKinds()
+  {
+    // Read for every frame, so nothing to do
+  }
+
+  @Override
+  public long getSkippedFrameCount()
+  {
+    return mDispatcher.getSkippedFrameCount();
+  }
+
+  /**
+   * Analysis shared by all sinks
+   */
+  public FrameAnalyzer getAnalyzer()
+  {
+    return mDispatcher.getAnalyzer();
+  }
+
+  public int getSampleRate()
+  {
+    return mSampleRate;
+  }
+
+  public int getCaptureSize()
+  {
+    return mCaptureSize;
+  }
+
+  @Override
+  public void release()
+  {
+    mDispatcher.clearSinks();
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.stats;
+
+/**
+ * Snapshot of the frame timing of a VisualizerView, filled in by
+ * VisualizerView.getFrameStats. Keep one around and pass it in each time, so
+ * polling doesn't allocate once the number of renderers has settled.
+ *
+ * Counts and histograms cover the time since the view started, or since the
+ * stats were last reset.
+ */
+public class FrameStats
+{
+  // Time covered by the snapshot
+  public long elapsedNanos;
+
+  public long waveformCaptures;
+  public long fftCaptures;
+  public long framesDrawn;
+  // Captures which were replaced by a newer one before being drawn
+  public long droppedFrames;
+  // Frames drawn without any new capture since the previous frame
+  public long duplicatedFrames;
+
+  // Time to run all renderers plus the fade and flash, per frame
+  public final TimingHistogram frameTimes = new TimingHistogram();
+  // From a capture arriving to the first frame which draws it
+  public final TimingHistogram captureLatency = new TimingHistogram();
+
+  // Render times of each renderer, in draw order. Only the first
+  // rendererCount entries are valid
+  public int rendererCount;
+  public String[] rendererNames = new String[0];
+  public TimingHistogram[] renderTimes = new TimingHistogram[0];
+
+  // Memory used by the view's bitmaps when the snapshot was taken
+  public long bitmapBytes;
+
+  /**
+   * @return Captures (waveform or FFT, whichever is more frequent) per second
+   */
+  public float getCaptureRate()
+  {
+    return perSecond(Math.max(waveformCaptures, fftCaptures));
+  }
+
+  /**
+   * @return Frames drawn per second
+   */
+  public float getDrawRate()
+  {
+    return perSecond(framesDrawn);
+  }
+
+  private float perSecond(long count)
+  {
+    return elapsedNanos > 0 ? count * 1e9f / elapsedNanos : 0;
+  }
+
+  /**
+   * Makes room for at least count renderers
+   */
+  public void ensureRendererCapacity(int count)
+  {
+    if (renderTimes.length < count) {
+      TimingHistogram[] times = new TimingHistogram[count];
+      String[] names = new String[count];
+      System.arraycopy(renderTimes, 0, times, 0, renderTimes.length);
+      System.arraycopy(rendererNames, 0, names, 0, rendererNames.length);
+      for (int i = renderTimes.length; i < count; i++) {
+        times[i] = new TimingHistogram();
+      }
+      renderTimes = times;
+      rendererNames = names;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.visualizer.stats;
+
+/**
+ * Histogram of durations in nanoseconds, with buckets laid out like
+ * HdrHistogram: each power of 2 is split into 16 linear sub-buckets, so any
+ * recorded value is known to within about 6%, from 1 ns up to about a minute.
+ *
+ * Recording is a couple of bit operations and an array increment, with no
+ * allocation. It is meant to be written by a single thread. Other threads
+ * may read it, or copy it with {@link #copyInto(TimingHistogram)}, and will
+ * see approximate values while recording is in progress.
+ */
+public class TimingHistogram
+{
+  // Values have SUB_BUCKET_BITS of precision
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+  // Larger values are recorded as this, 2^36 ns is about 69 s
+  private static final long MAX_VALUE = (1L << 36) - 1;
+  private static final int BUCKETS = bucketOf(MAX_VALUE) + 1;
+
+  private final long[] mCounts = new long[BUCKETS];
+  private long mTotalCount = 0;
+  private long mSum = 0;
+  private long mMin = Long.MAX_VALUE;
+  private long mMax = 0;
+
+  private static int bucketOf(long value)
+  {
+    int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+    return (shift << (SUB_BUCKET_BITS - 1)) + (int) (value >>> shift);
+  }
+
+  // Smallest value which falls in bucket
+  private static long lowestValueOf(int bucket)
+  {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+    int shift = (bucket >> (SUB_BUCKET_BITS - 1)) - 1;
+    return (long) (bucket - (shift << (SUB_BUCKET_BITS - 1))) << shift;
+  }
+
+  /**
+   * @param nanos - Duration to record. Negative values are recorded as 0
+   */
+  public void record(long nanos)
+  {
+    long value = nanos < 0 ? 0 : (nanos > MAX_VALUE ? MAX_VALUE : nanos);
+    mCounts[bucketOf(value)]++;
+    mTotalCount++;
+    mSum += value;
+    if (value < mMin) {
+      mMin = value;
+    }
+    if (value > mMax) {
+      mMax = value;
+    }
+  }
+
+  public void reset()
+  {
+    for (int i = 0; i < BUCKETS; i++) {
+      mCounts[i] = 0;
+    }
+    mTotalCount = 0;
+    mSum = 0;
+    mMin = Long.MAX_VALUE;
+    mMax = 0;
+  }
+
+  /**
+   * Copies the contents of this histogram into target, without allocating
+   */
+  public void copyInto(TimingHistogram target)
+  {
+    System.arraycopy(mCounts, 0, target.mCounts, 0, BUCKETS);
+    target.mTotalCount = mTotalCount;
+    target.mSum = mSum;
+    target.mMin = mMin;
+    target.mMax = mMax;
+  }
+
+  public long getCount()
+  {
+    return mTotalCount;
+  }
+
+  public long getMin()
+  {
+    return mTotalCount > 0 ? mMin : 0;
+  }
+
+  public long getMax()
+  {
+    return mMax;
+  }
+
+  public long getMean()
+  {
+    return mTotalCount > 0 ? mSum / mTotalCount : 0;
+  }
+
+  /**
+   * @param percentile - In [0, 100]
+   * @return Value below which the given percentage of recorded values fall,
+   * to the precision of the buckets
+   */
+  public long getValueAtPercentile(double percentile)
+  {
+    if (mTotalCount == 0) {
+      return 0;
+    }
+
+    long target = Math.max(1, (long) Math.ceil(percentile / 100 * mTotalCount));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += mCounts[i];
+      if (seen >= target) {
+        // Highest value in the bucket, but never more than was recorded
+        return Math.min(mMax, lowestValueOf(i + 1) - 1);
+      }
+    }
+    return mMax;
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.dsp.BeatDetector;
+import com.pheelicks.visualizer.dsp.CaptureEncoder;
+import com.pheelicks.visualizer.offline.WavFile;
+
+/**
+ * Runs the beat detector over a WAV file and scores it against hand
+ * annotated onset times, reporting precision, recall and the cost of
+ * analysis per frame. Runs on a plain JVM, for example:
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/BeatEvaluation.java
+ *   java -cp out com.pheelicks.tools.BeatEvaluation track.wav onsets.txt
+ *
+ * The onsets file has one onset time in seconds per line. The bundled
+ * res/raw audio is MP3, so decode it to WAV first (ffmpeg -i test.mp3 test.wav).
+ *
+ * Optional arguments: capture size (1024), hop in samples (512) and match
+ * tolerance in seconds (0.07).
+ */
+public class BeatEvaluation
+{
+  public static void main(String[] args) throws IOException
+  {
+    if(args.length < 2)
+    {
+      System.err.println("Usage: BeatEvaluation <file.wav> <onsets.txt> [captureSize] [hop] [tolerance]");
+      System.exit(1);
+    }
+
+    WavFile wav = WavFile.read(new File(args[0]));
+    List<Double> expected = readOnsets(new File(args[1]));
+    int captureSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+    int hop = args.length > 3 ? Integer.parseInt(args[3]) : captureSize / 2;
+    double tolerance = args.length > 4 ? Double.parseDouble(args[4]) : 0.07;
+
+    CaptureEncoder encoder = new CaptureEncoder(captureSize);
+    FrameAnalyzer analyzer = new FrameAnalyzer();
+    analyzer.setBeatDetector(new BeatDetector(6));
+    FFTData frame = new FFTData(new byte[captureSize]);
+    frame.samplingRate = wav.sampleRate;
+
+    List<Double> detected = new ArrayList<Double>();
+    long analysisNanos = 0;
+    int frames = 0;
+    for (int offset = 0; offset + captureSize <= wav.samples.length; offset += hop) {
+      encoder.encode(wav.samples, offset, null, frame.bytes);
+      // Onsets are placed at the centre of the window they were found in
+      double time = (offset + captureSize / 2.0) / wav.sampleRate;
+      frame.timestampNanos = (long) (time * 1e9);
+      frame.analyzed = false;
+
+      long start = System.nanoTime();
+      analyzer.analyze(frame);
+      analysisNanos += System.nanoTime() - start;
+      frames++;
+
+      if (frame.beat) {
+        detected.add(time);
+      }
+    }
+
+    int matched = countMatches(expected, detected, tolerance);
+    double precision = detected.isEmpty() ? 0 : (double) matched / detected.size();
+    double recall = expected.isEmpty() ? 0 : (double) matched / expected.size();
+    double f1 = precision + recall > 0 ? 2 * precision * recall / (precision + recall) : 0;
+
+    System.out.println(String.format("File:        %s (%.1f s, %d Hz)", args[0], wav.getDuration(), wav.sampleRate));
+    System.out.println(String.format("Frames:      %d (capture %d, hop %d)", frames, captureSize, hop));
+    System.out.println(String.format("Onsets:      %d expected, %d detected, %d matched within %.0f ms",
+        expected.size(), detected.size(), matched, tolerance * 1000));
+    System.out.println(String.format("Precision:   %.3f", precision));
+    System.out.println(String.format("Recall:      %.3f", recall));
+    System.out.println(String.format("F1:          %.3f", f1));
+    System.out.println(String.format("Cost:        %d ns/frame (analysis and detection)",
+        frames > 0 ? analysisNanos / frames : 0));
+  }
+
+  private static List<Double> readOnsets(File file) throws IOException
+  {
+    List<Double> onsets = new ArrayList<Double>();
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.length() > 0 && !line.startsWith("#")) {
+          // Allow extra columns, as exported by common annotation tools
+          onsets.add(Double.parseDouble(line.split("\\s+")[0]));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return onsets;
+  }
+
+  // Each expected onset is matched with at most one detection, both lists
+  // being in time order
+  private static int countMatches(List<Double> expected, List<Double> detected, double tolerance)
+  {
+    int matched = 0;
+    int next = 0;
+    for (double onset : expected) {
+      while (next < detected.size() && detected.get(next) < onset - tolerance) {
+        next++;
+      }
+      if (next < detected.size() && detected.get(next) <= onset + tolerance) {
+        matched++;
+        next++;
+      }
+    }
+    return matched;
+  }
+}
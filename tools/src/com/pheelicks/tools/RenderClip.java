@@ -0,0 +1,96 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.pheelicks.visualizer.graphics.BlendMode;
+import com.pheelicks.visualizer.graphics.Brush;
+import com.pheelicks.visualizer.offline.ImageSequenceWriter;
+import com.pheelicks.visualizer.offline.OfflineRenderer;
+import com.pheelicks.visualizer.offline.WavFile;
+import com.pheelicks.visualizer.renderer.BarGraphRenderer;
+import com.pheelicks.visualizer.renderer.CircleBarRenderer;
+import com.pheelicks.visualizer.renderer.CircleRenderer;
+import com.pheelicks.visualizer.renderer.LineRenderer;
+import com.pheelicks.visualizer.renderer.Renderer;
+
+/**
+ * Renders a WAV file to an image sequence with all the renderers of the
+ * sample app, for example:
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/RenderClip.java
+ *   java -cp out com.pheelicks.tools.RenderClip track.wav frames
+ *   ffmpeg -framerate 30 -i frames/frame_%06d.ppm -i track.wav clip.mp4
+ *
+ * Optional arguments: width (640), height (360), frames per second (30) and
+ * format, ppm or raw (ppm).
+ */
+public class RenderClip
+{
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    if(args.length < 2)
+    {
+      System.err.println("Usage: RenderClip <file.wav> <outputDir> [width] [height] [fps] [ppm|raw]");
+      System.exit(1);
+    }
+
+    WavFile wav = WavFile.read(new File(args[0]));
+    int width = args.length > 2 ? Integer.parseInt(args[2]) : 640;
+    int height = args.length > 3 ? Integer.parseInt(args[3]) : 360;
+    int fps = args.length > 4 ? Integer.parseInt(args[4]) : 30;
+    ImageSequenceWriter.Format format = args.length > 5 && args[5].equals("raw")
+        ? ImageSequenceWriter.Format.RAW : ImageSequenceWriter.Format.PPM;
+
+    OfflineRenderer renderer = new OfflineRenderer(width, height);
+    renderer.setFrameRate(fps);
+    ImageSequenceWriter writer = new ImageSequenceWriter(new File(args[1]), "frame_", format);
+
+    long start = System.nanoTime();
+    renderer.render(wav, new OfflineRenderer.RendererFactory() {
+      public Renderer[] createRenderers() {
+        return createSampleRenderers();
+      }
+    }, writer);
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    int frames = renderer.getFrameCount(wav);
+    System.out.println(String.format("Rendered %d frames of %.1f s audio in %.1f s (%.1f frames/s)",
+        frames, wav.getDuration(), seconds, frames / seconds));
+  }
+
+  // Same as MainActivity's renderers
+  public static Renderer[] createSampleRenderers()
+  {
+    Brush barBottom = brush(50f, Brush.argb(200, 56, 138, 252));
+    Brush barTop = brush(12f, Brush.argb(200, 181, 111, 233));
+    Brush circleBar = brush(8f, Brush.argb(255, 222, 92, 143));
+    circleBar.setBlendMode(BlendMode.LIGHTEN);
+    Brush circle = brush(3f, Brush.argb(255, 222, 92, 143));
+    Brush line = brush(1f, Brush.argb(88, 0, 128, 255));
+    Brush lineFlash = brush(5f, Brush.argb(188, 255, 255, 255));
+
+    return new Renderer[] {
+        new BarGraphRenderer(16, barBottom, false),
+        new BarGraphRenderer(4, barTop, true),
+        new CircleBarRenderer(circleBar, 32, true),
+        new CircleRenderer(circle, true),
+        new LineRenderer(line, lineFlash, true)
+    };
+  }
+
+  private static Brush brush(float width, int color)
+  {
+    Brush brush = new Brush();
+    brush.setStrokeWidth(width);
+    brush.setAntiAlias(true);
+    brush.setColor(color);
+    return brush;
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.bench;
+
+import java.util.Random;
+
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.dsp.BandAggregator;
+import com.pheelicks.visualizer.dsp.BeatDetector;
+import com.pheelicks.visualizer.dsp.CaptureEncoder;
+import com.pheelicks.visualizer.dsp.FFT;
+import com.pheelicks.visualizer.dsp.SpectralMath;
+import com.pheelicks.visualizer.dsp.SpectrumSmoother;
+
+/**
+ * Benchmarks the per-frame analysis path at the capture sizes the platform
+ * Visualizer delivers (128 to 1024 samples):
+ *
+ * - byte to decibel math, Math.log10 against the SpectralMath table
+ * - FrameAnalyzer on waveform and FFT frames, with and without smoothing
+ *   and beat detection
+ * - band aggregation
+ * - the FFT against a naive DFT
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/bench/AnalysisBenchmark.java
+ *   java -cp out com.pheelicks.tools.bench.AnalysisBenchmark
+ */
+public class AnalysisBenchmark
+{
+  private static final int[] CAPTURE_SIZES = { 128, 256, 512, 1024 };
+
+  public static void main(String[] args)
+  {
+    Bench.printHeader();
+    for (int size : CAPTURE_SIZES) {
+      benchmarkDecibels(size);
+      benchmarkAnalyzer(size);
+      benchmarkBands(size);
+      benchmarkFFT(size);
+    }
+  }
+
+  // Visualizer style bytes for a mix of tones and noise
+  static void fillCapture(int size, long seed, byte[] waveform, byte[] fft)
+  {
+    Random random = new Random(seed);
+    float[] samples = new float[size];
+    for (int i = 0; i < size; i++) {
+      samples[i] = (float) (0.4 * Math.sin(i * 0.05) + 0.2 * Math.sin(i * 0.71) + 0.2 * (random.nextFloat() - 0.5));
+    }
+    new CaptureEncoder(size).encode(samples, 0, waveform, fft);
+  }
+
+  private static void benchmarkDecibels(int size)
+  {
+    final byte[] bytes = new byte[size];
+    fillCapture(size, 1, null, bytes);
+    final float[] out = new float[size / 2];
+
+    Bench.run("decibels/log10 " + size, new Bench.Task() {
+      public long run() {
+        for (int k = 0; k < bytes.length / 2; k++) {
+          byte rfk = bytes[2 * k];
+          byte ifk = bytes[2 * k + 1];
+          float magnitude = (rfk * rfk + ifk * ifk);
+          out[k] = (float) (10 * Math.log10(magnitude));
+        }
+        return (long) out[1];
+      }
+    });
+
+    Bench.run("decibels/table " + size, new Bench.Task() {
+      public long run() {
+        for (int k = 0; k < bytes.length / 2; k++) {
+          out[k] = SpectralMath.decibels(bytes[2 * k], bytes[2 * k + 1]);
+        }
+        return (long) out[1];
+      }
+    });
+  }
+
+  private static void benchmarkAnalyzer(int size)
+  {
+    byte[] waveform = new byte[size];
+    byte[] fftBytes = new byte[size];
+    fillCapture(size, 2, waveform, fftBytes);
+    final AudioData audio = new AudioData(waveform);
+    final FFTData fft = new FFTData(fftBytes);
+
+    final FrameAnalyzer plain = new FrameAnalyzer();
+    Bench.run("analyze/waveform " + size, new Bench.Task() {
+      public long run() {
+        audio.analyzed = false;
+        plain.analyze(audio);
+        return (long) (audio.rms * 1000);
+      }
+    });
+    Bench.run("analyze/fft " + size, new Bench.Task() {
+      public long run() {
+        fft.analyzed = false;
+        plain.analyze(fft);
+        return fft.bins;
+      }
+    });
+
+    final FrameAnalyzer full = new FrameAnalyzer();
+    full.setSmoother(new SpectrumSmoother(0.05f, 0.3f));
+    full.setBeatDetector(new BeatDetector(6));
+    Bench.run("analyze/fft+smooth+beat " + size, new Bench.Task() {
+      long time = 0;
+      public long run() {
+        fft.analyzed = false;
+        fft.timestampNanos = time += 16666667;
+        full.analyze(fft);
+        return fft.beat ? 1 : 0;
+      }
+    });
+  }
+
+  private static void benchmarkBands(int size)
+  {
+    byte[] fftBytes = new byte[size];
+    fillCapture(size, 3, null, fftBytes);
+    final FFTData fft = new FFTData(fftBytes);
+    new FrameAnalyzer().analyze(fft);
+    final BandAggregator aggregator = new BandAggregator(32, BandAggregator.Scale.MEL, 20, 20000);
+    final float[] bands = new float[32];
+
+    Bench.run("bands/mel32 " + size, new Bench.Task() {
+      public long run() {
+        aggregator.aggregate(fft.magnitudes, fft.bins, 44100, bands);
+        return (long) bands[0];
+      }
+    });
+  }
+
+  private static void benchmarkFFT(final int size)
+  {
+    final float[] input = new float[size];
+    Random random = new Random(4);
+    for (int i = 0; i < size; i++) {
+      input[i] = random.nextFloat() * 2 - 1;
+    }
+    final float[] work = new float[size];
+    final FFT fft = new FFT(size);
+
+    Bench.run("fft/radix2 " + size, new Bench.Task() {
+      public long run() {
+        System.arraycopy(input, 0, work, 0, size);
+        fft.realForward(work);
+        return (long) work[2];
+      }
+    });
+
+    Bench.run("fft/naive-dft " + size, new Bench.Task() {
+      public long run() {
+        for (int k = 0; k <= size / 2; k++) {
+          double re = 0;
+          double im = 0;
+          for (int t = 0; t < size; t++) {
+            double angle = 2 * Math.PI * k * t / size;
+            re += input[t] * Math.cos(angle);
+            im -= input[t] * Math.sin(angle);
+          }
+          work[Math.min(k, size / 2 - 1)] = (float) (re + im);
+        }
+        return (long) work[2];
+      }
+    });
+  }
+}
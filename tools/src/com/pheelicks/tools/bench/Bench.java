@@ -0,0 +1,117 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Minimal benchmark harness. Runs a task repeatedly to warm up the JIT, then
+ * times it and reports nanoseconds and bytes allocated per operation.
+ *
+ * Allocation is measured with the thread allocation counter of HotSpot's
+ * ThreadMXBean. On other JVMs it is reported as n/a.
+ */
+public class Bench
+{
+  /**
+   * Something to benchmark. Return a value derived from the work, so the JIT
+   * can't eliminate it
+   */
+  public interface Task
+  {
+    long run();
+  }
+
+  private static final long WARMUP_NANOS = 1000000000L;
+  private static final long MEASURE_NANOS = 2000000000L;
+
+  private static final ThreadMXBean sThreads = ManagementFactory.getThreadMXBean();
+  private static Method sAllocatedBytes;
+
+  static
+  {
+    try {
+      // Looked up on the public interface, as the implementation class isn't accessible
+      Class<?> hotspotThreads = Class.forName("com.sun.management.ThreadMXBean");
+      sAllocatedBytes = hotspotThreads.getMethod("getThreadAllocatedBytes", long.class);
+    } catch (Exception e) {
+      sAllocatedBytes = null;
+    }
+  }
+
+  // Stops results being optimized away
+  public static volatile long sink;
+
+  private Bench()
+  {
+  }
+
+  public static void printHeader()
+  {
+    System.out.println(String.format("%-44s %14s %14s", "Benchmark", "ns/op", "bytes/op"));
+  }
+
+  /**
+   * Warms up, measures and prints one line of results
+   * @param name - Name to print
+   * @param task - Task to run
+   * @return Nanoseconds per operation
+   */
+  public static double run(String name, Task task)
+  {
+    runFor(task, WARMUP_NANOS);
+
+    long allocatedBefore = allocatedBytes();
+    long start = System.nanoTime();
+    long operations = runFor(task, MEASURE_NANOS);
+    long elapsed = System.nanoTime() - start;
+    long allocated = allocatedBytes() - allocatedBefore;
+
+    double nanosPerOp = (double) elapsed / operations;
+    String bytesPerOp = allocatedBefore < 0 ? "n/a" : String.format("%.1f", (double) allocated / operations);
+    System.out.println(String.format("%-44s %14.1f %14s", name, nanosPerOp, bytesPerOp));
+    return nanosPerOp;
+  }
+
+  private static long runFor(Task task, long nanos)
+  {
+    long result = 0;
+    long operations = 0;
+    long end = System.nanoTime() + nanos;
+    // Check the clock every batch, so the timing itself costs little
+    int batch = 1;
+    while (System.nanoTime() < end) {
+      for (int i = 0; i < batch; i++) {
+        result += task.run();
+      }
+      operations += batch;
+      if (batch < 1024) {
+        batch *= 2;
+      }
+    }
+    sink = result;
+    return operations;
+  }
+
+  /**
+   * @return Bytes allocated by the calling thread so far, or -1 if the JVM
+   * can't tell
+   */
+  public static long allocatedBytes()
+  {
+    if (sAllocatedBytes == null) {
+      return -1;
+    }
+    try {
+      return (Long) sAllocatedBytes.invoke(sThreads, Thread.currentThread().getId());
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+}
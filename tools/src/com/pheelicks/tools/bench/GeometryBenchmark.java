@@ -0,0 +1,89 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.bench;
+
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.Brush;
+import com.pheelicks.visualizer.graphics.ScrollingImage;
+import com.pheelicks.visualizer.graphics.VisualizerCanvas;
+import com.pheelicks.visualizer.renderer.CircleRenderer;
+import com.pheelicks.visualizer.renderer.LineRenderer;
+import com.pheelicks.visualizer.renderer.Renderer;
+
+/**
+ * Benchmarks the point generation of the waveform renderers on its own, by
+ * rendering onto a canvas which draws nothing. Unlike
+ * {@link RendererBenchmark} the times don't include rasterizing.
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/bench/GeometryBenchmark.java
+ *   java -cp out com.pheelicks.tools.bench.GeometryBenchmark
+ */
+public class GeometryBenchmark
+{
+  private static final int[] CAPTURE_SIZES = { 256, 1024 };
+  private static final int WIDTH = 720;
+  private static final int HEIGHT = 480;
+
+  public static void main(String[] args)
+  {
+    Bench.printHeader();
+
+    for (int size : CAPTURE_SIZES) {
+      byte[] waveform = new byte[size];
+      byte[] fftBytes = new byte[size];
+      AnalysisBenchmark.fillCapture(size, 5, waveform, fftBytes);
+      AudioData audio = new AudioData(waveform);
+      new FrameAnalyzer().analyze(audio);
+
+      benchmark("circle geometry " + size, new CircleRenderer(new Brush(), false), audio);
+      benchmark("line geometry " + size, new LineRenderer(new Brush(), new Brush(), false), audio);
+    }
+  }
+
+  private static void benchmark(String name, final Renderer renderer, final AudioData audio)
+  {
+    final NullCanvas canvas = new NullCanvas();
+    final Bounds bounds = new Bounds();
+    bounds.set(0, 0, WIDTH, HEIGHT);
+
+    Bench.run(name, new Bench.Task() {
+      public long run() {
+        renderer.render(canvas, audio, bounds);
+        return Float.floatToIntBits(canvas.checksum);
+      }
+    });
+  }
+
+  // Keeps one point of each draw, so the points can't be optimized away
+  private static class NullCanvas implements VisualizerCanvas
+  {
+    float checksum;
+
+    public int getWidth() {
+      return WIDTH;
+    }
+
+    public int getHeight() {
+      return HEIGHT;
+    }
+
+    public void drawLines(float[] points, int offset, int count, Brush brush) {
+      checksum += points[offset + count / 2];
+    }
+
+    public void drawPaint(Brush brush) {
+    }
+
+    public void drawRect(Bounds bounds, Brush brush) {
+    }
+
+    public void drawImage(ScrollingImage image, Bounds bounds, Brush brush) {
+    }
+  }
+}
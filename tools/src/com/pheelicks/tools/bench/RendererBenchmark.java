@@ -0,0 +1,115 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.bench;
+
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.dsp.BandAggregator;
+import com.pheelicks.visualizer.graphics.BlendMode;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.Brush;
+import com.pheelicks.visualizer.graphics.RecordingCanvas;
+import com.pheelicks.visualizer.graphics.SoftwareCanvas;
+import com.pheelicks.visualizer.renderer.BarGraphRenderer;
+import com.pheelicks.visualizer.renderer.CircleBarRenderer;
+import com.pheelicks.visualizer.renderer.CircleRenderer;
+import com.pheelicks.visualizer.renderer.LineRenderer;
+import com.pheelicks.visualizer.renderer.Renderer;
+import com.pheelicks.visualizer.renderer.SpectrogramRenderer;
+
+/**
+ * Benchmarks the renderers of the sample app at the capture sizes the
+ * platform Visualizer delivers. Each is first drawn onto a RecordingCanvas,
+ * which only copies the points, so the time is that of the renderer itself.
+ * The "software" rows draw onto a SoftwareCanvas instead, and so are mostly
+ * a measure of rasterizing.
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/bench/RendererBenchmark.java
+ *   java -cp out com.pheelicks.tools.bench.RendererBenchmark
+ */
+public class RendererBenchmark
+{
+  private static final int[] CAPTURE_SIZES = { 128, 256, 512, 1024 };
+  private static final int WIDTH = 720;
+  private static final int HEIGHT = 480;
+
+  public static void main(String[] args)
+  {
+    Bench.printHeader();
+
+    final SoftwareCanvas canvas = new SoftwareCanvas(WIDTH, HEIGHT);
+    final Brush fade = new Brush();
+    fade.setColor(Brush.argb(238, 255, 255, 255));
+    fade.setBlendMode(BlendMode.MULTIPLY);
+    Bench.run("clear+fade " + WIDTH + "x" + HEIGHT, new Bench.Task() {
+      public long run() {
+        // Cleared each time, else repeated fading leaves nothing to fade
+        canvas.clear(0xffffffff);
+        canvas.drawPaint(fade);
+        return canvas.getPixels()[0];
+      }
+    });
+
+    for (int size : CAPTURE_SIZES) {
+      byte[] waveform = new byte[size];
+      byte[] fftBytes = new byte[size];
+      AnalysisBenchmark.fillCapture(size, 5, waveform, fftBytes);
+      AudioData audio = new AudioData(waveform);
+      FFTData fft = new FFTData(fftBytes);
+      FrameAnalyzer analyzer = new FrameAnalyzer();
+      analyzer.analyze(audio);
+      analyzer.analyze(fft);
+
+      benchmark("bar-graph " + size, new BarGraphRenderer(16, brush(50f), false), audio, fft);
+      benchmark("circle-bar " + size, new CircleBarRenderer(brush(8f), 32, true), audio, fft);
+      benchmark("circle " + size, new CircleRenderer(brush(3f), true), audio, fft);
+      benchmark("line " + size, new LineRenderer(brush(1f), brush(5f), true), audio, fft);
+      benchmark("spectrogram " + size,
+          new SpectrogramRenderer(WIDTH / 2, HEIGHT / 2, BandAggregator.Scale.LOG), audio, fft);
+    }
+  }
+
+  private static Brush brush(float width)
+  {
+    Brush brush = new Brush();
+    brush.setStrokeWidth(width);
+    brush.setAntiAlias(true);
+    brush.setColor(Brush.argb(200, 56, 138, 252));
+    return brush;
+  }
+
+  private static void benchmark(String name, final Renderer renderer,
+      final AudioData audio, final FFTData fft)
+  {
+    final RecordingCanvas recording = new RecordingCanvas();
+    final Bounds bounds = new Bounds();
+    bounds.set(0, 0, WIDTH, HEIGHT);
+
+    Bench.run(name, new Bench.Task() {
+      public long run() {
+        fft.timestampNanos++;
+        recording.reset(WIDTH, HEIGHT);
+        renderer.render(recording, audio, bounds);
+        renderer.render(recording, fft, bounds);
+        return recording.isEmpty() ? 0 : 1;
+      }
+    });
+
+    final SoftwareCanvas canvas = new SoftwareCanvas(WIDTH, HEIGHT);
+    Bench.run(name + " software", new Bench.Task() {
+      public long run() {
+        // Counts as a new FFT each time, for renderers which only do some
+        // of their work on new frames
+        fft.timestampNanos++;
+        renderer.render(canvas, audio, bounds);
+        renderer.render(canvas, fft, bounds);
+        return canvas.getPixels()[WIDTH * HEIGHT / 2];
+      }
+    });
+  }
+}
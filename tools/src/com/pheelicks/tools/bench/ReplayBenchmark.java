@@ -0,0 +1,112 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.pheelicks.tools.RenderClip;
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameCompositor;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.SoftwareCanvas;
+import com.pheelicks.visualizer.record.CaptureReplayer;
+import com.pheelicks.visualizer.renderer.Renderer;
+import com.pheelicks.visualizer.stats.TimingHistogram;
+
+/**
+ * Replays captures recorded on a device with CaptureRecorder through the
+ * sample renderers, as fast as they go, and reports the time per frame.
+ * The same recording gives the same frames every run, so changes to the
+ * renderers can be compared on real captures rather than synthetic ones.
+ *
+ * A frame is drawn for each waveform capture, with the latest FFT, or for
+ * each FFT capture if the recording has no waveforms. When there are
+ * several passes the first warms up the JIT and isn't timed.
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/bench/ReplayBenchmark.java
+ *   java -cp out com.pheelicks.tools.bench.ReplayBenchmark captures.vcap [width] [height] [passes]
+ */
+public class ReplayBenchmark
+{
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    if(args.length < 1)
+    {
+      System.err.println("Usage: ReplayBenchmark <captures> [width] [height] [passes]");
+      System.exit(1);
+    }
+
+    CaptureReplayer replayer = new CaptureReplayer(new File(args[0]));
+    int width = args.length > 1 ? Integer.parseInt(args[1]) : 720;
+    int height = args.length > 2 ? Integer.parseInt(args[2]) : 480;
+    int passes = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+    final Renderer[] renderers = RenderClip.createSampleRenderers();
+    final FrameCompositor compositor = new FrameCompositor();
+    final SoftwareCanvas canvas = new SoftwareCanvas(width, height);
+    final Bounds bounds = new Bounds(0, 0, width, height);
+    final AudioData audio = new AudioData(null);
+    final FFTData fft = new FFTData(null);
+    final boolean drawOnFFT = replayer.getWaveformCount() == 0;
+    final TimingHistogram frameTimes = new TimingHistogram();
+
+    CaptureReplayer.Target target = new CaptureReplayer.Target() {
+      boolean newFFT = false;
+
+      public void onWaveform(byte[] bytes, long timestampNanos) {
+        audio.set(bytes, timestampNanos);
+        draw();
+      }
+
+      public void onFFT(byte[] bytes, int samplingRate, long timestampNanos) {
+        fft.set(bytes, timestampNanos);
+        fft.samplingRate = samplingRate;
+        newFFT = true;
+        if (drawOnFFT) {
+          draw();
+        }
+      }
+
+      private void draw() {
+        long start = System.nanoTime();
+        compositor.composite(canvas, bounds, renderers, audio, fft, newFFT);
+        frameTimes.record(System.nanoTime() - start);
+        newFFT = false;
+      }
+    };
+
+    System.out.println(String.format("%d waveforms and %d FFTs over %.1f s, at %dx%d",
+        replayer.getWaveformCount(), replayer.getFFTCount(),
+        replayer.getDurationNanos() / 1e9, width, height));
+
+    for (int pass = 0; pass < passes; pass++) {
+      if (pass == 1) {
+        frameTimes.reset();
+        for (Renderer renderer : renderers) {
+          renderer.getRenderTimes().reset();
+        }
+      }
+      replayer.replay(target, false);
+    }
+
+    System.out.println(String.format("%-24s %10s %10s %10s %10s %10s", "ns/frame",
+        "mean", "p50", "p90", "p99", "max"));
+    print("frame", frameTimes);
+    for (Renderer renderer : renderers) {
+      print(renderer.getClass().getSimpleName(), renderer.getRenderTimes());
+    }
+  }
+
+  private static void print(String name, TimingHistogram times)
+  {
+    System.out.println(String.format("%-24s %10d %10d %10d %10d %10d", name,
+        times.getMean(), times.getValueAtPercentile(50), times.getValueAtPercentile(90),
+        times.getValueAtPercentile(99), times.getMax()));
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.bench;
+
+import com.pheelicks.tools.RenderClip;
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameCompositor;
+import com.pheelicks.visualizer.dsp.BandAggregator;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.Brush;
+import com.pheelicks.visualizer.graphics.SoftwareCanvas;
+import com.pheelicks.visualizer.renderer.BarGraphRenderer;
+import com.pheelicks.visualizer.renderer.Renderer;
+
+/**
+ * Benchmarks whole frames, renderers and trail effect, on a SoftwareCanvas
+ * for each FrameCompositor trail mode, with and without dirty tracking:
+ *
+ * - sparse: 32 thin bars, which cover little of the frame
+ * - sample: all the renderers of the sample app
+ *
+ * at 720p and 4K. The software canvas is slow at drawing lines compared to
+ * a GPU, so the geometry modes look worse here than they would on device;
+ * what carries over is the cost of the fade, which grows with the pixel
+ * count rather than with what is drawn.
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/bench/TrailBenchmark.java
+ *   java -cp out com.pheelicks.tools.bench.TrailBenchmark
+ */
+public class TrailBenchmark
+{
+  private static final int CAPTURE_SIZE = 1024;
+
+  public static void main(String[] args)
+  {
+    Bench.printHeader();
+    int[][] sizes = { { 1280, 720 }, { 3840, 2160 } };
+    for (int[] size : sizes) {
+      for (int scene = 0; scene < 2; scene++) {
+        String name = (scene == 0 ? "sparse " : "sample ") + size[0] + "x" + size[1];
+        benchmark(name + " fade", scene, size, FrameCompositor.TrailMode.FADE, false);
+        benchmark(name + " fade+dirty", scene, size, FrameCompositor.TrailMode.FADE, true);
+        benchmark(name + " geometry8", scene, size, FrameCompositor.TrailMode.GEOMETRY, false);
+        benchmark(name + " geometry8+dirty", scene, size, FrameCompositor.TrailMode.GEOMETRY, true);
+      }
+    }
+  }
+
+  private static Renderer[] createSparseRenderers()
+  {
+    Brush bars = new Brush();
+    bars.setStrokeWidth(4f);
+    bars.setAntiAlias(true);
+    bars.setColor(Brush.argb(200, 56, 138, 252));
+    return new Renderer[] {
+        new BarGraphRenderer(32, BandAggregator.Scale.LOG, bars, false)
+    };
+  }
+
+  private static void benchmark(String name, int scene, int[] size,
+      FrameCompositor.TrailMode mode, boolean dirty)
+  {
+    final Renderer[] renderers = scene == 0 ? createSparseRenderers() : RenderClip.createSampleRenderers();
+    final FrameCompositor compositor = new FrameCompositor();
+    compositor.setTrailMode(mode, 8);
+    compositor.setDirtyTracking(dirty);
+    final SoftwareCanvas canvas = new SoftwareCanvas(size[0], size[1]);
+    final Bounds bounds = new Bounds(0, 0, size[0], size[1]);
+
+    // A few captures, so consecutive frames differ
+    final byte[][] waveforms = new byte[4][CAPTURE_SIZE];
+    final byte[][] ffts = new byte[4][CAPTURE_SIZE];
+    for (int i = 0; i < waveforms.length; i++) {
+      AnalysisBenchmark.fillCapture(CAPTURE_SIZE, 10 + i, waveforms[i], ffts[i]);
+    }
+    final AudioData audio = new AudioData(null);
+    final FFTData fft = new FFTData(null);
+
+    Bench.run(name, new Bench.Task() {
+      int frame = 0;
+      public long run() {
+        int i = frame++ % waveforms.length;
+        audio.set(waveforms[i], frame * 16666667L);
+        fft.set(ffts[i], frame * 16666667L);
+        compositor.composite(canvas, bounds, renderers, audio, fft, true);
+        return canvas.getPixels()[0];
+      }
+    });
+  }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.check;
+
+import java.io.IOException;
+
+/**
+ * Runs every check, exiting with status 1 if any failed. Escape analysis is
+ * turned off for AllocationCheck:
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/check/AllChecks.java
+ *   java -XX:-DoEscapeAnalysis -cp out com.pheelicks.tools.check.AllChecks
+ */
+public class AllChecks
+{
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    boolean passed = true;
+    passed &= AllocationCheck.run();
+    passed &= BandCheck.run();
+    passed &= FFTCheck.run();
+    passed &= FrameSchedulerCheck.run();
+    passed &= GovernorCheck.run();
+    passed &= ReplayCheck.run();
+    passed &= SegmentCheck.run(SegmentCheck.synthesize(6));
+    passed &= SmootherCheck.run();
+    passed &= WavFileCheck.run();
+    Check.exit(passed);
+  }
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.check;
+
+import com.pheelicks.tools.RenderClip;
+import com.pheelicks.tools.bench.Bench;
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.FrameCompositor;
+import com.pheelicks.visualizer.TripleBuffer;
+import com.pheelicks.visualizer.dsp.BandAggregator;
+import com.pheelicks.visualizer.dsp.BeatDetector;
+import com.pheelicks.visualizer.dsp.CaptureEncoder;
+import com.pheelicks.visualizer.dsp.SpectrumAnalyzer;
+import com.pheelicks.visualizer.dsp.SpectrumSmoother;
+import com.pheelicks.visualizer.dsp.Window;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.Brush;
+import com.pheelicks.visualizer.graphics.ScrollingImage;
+import com.pheelicks.visualizer.graphics.SoftwareCanvas;
+import com.pheelicks.visualizer.graphics.VisualizerCanvas;
+import com.pheelicks.visualizer.renderer.Renderer;
+import com.pheelicks.visualizer.renderer.SpectrogramRenderer;
+
+/**
+ * Checks that rendering allocates nothing once it has warmed up, counting
+ * the bytes the thread allocates with Bench's allocation counter.
+ *
+ * Each renderer is run alone onto a stub canvas, then the whole path from
+ * VisualizerView's capture callbacks to the composited frame: copying
+ * captures into the triple buffers, analysis with beat detection, smoothing
+ * and a float spectrum, and every trail mode with and without dirty tracking.
+ *
+ * The JIT can remove allocations which Android's runtime wouldn't, so run
+ * with escape analysis off:
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/check/AllocationCheck.java
+ *   java -XX:-DoEscapeAnalysis -cp out com.pheelicks.tools.check.AllocationCheck
+ */
+public class AllocationCheck
+{
+  private static final int CAPTURE_SIZE = 1024;
+  private static final int CAPTURES = 16;
+  private static final int WARMUP_FRAMES = 200;
+  private static final int FRAMES = 1000;
+
+  public static void main(String[] args)
+  {
+    Check.exit(run());
+  }
+
+  public static boolean run()
+  {
+    Check check = new Check("AllocationCheck");
+    if (Bench.allocatedBytes() < 0) {
+      System.out.println("  Allocation can't be measured on this JVM, skipped");
+      return check.finish();
+    }
+
+    Captures captures = new Captures();
+    long overhead = allocated(new Bench.Task() {
+      public long run() {
+        return 0;
+      }
+    });
+
+    Renderer[] renderers = createRenderers();
+    for (int i = 0; i < renderers.length; i++) {
+      checkRenderer(check, captures, renderers[i], i, overhead);
+    }
+    for (FrameCompositor.TrailMode mode : FrameCompositor.TrailMode.values()) {
+      checkPipeline(check, captures, mode, false, overhead);
+      checkPipeline(check, captures, mode, true, overhead);
+    }
+    return check.finish();
+  }
+
+  private static Renderer[] createRenderers()
+  {
+    Renderer[] samples = RenderClip.createSampleRenderers();
+    Renderer[] renderers = new Renderer[samples.length + 1];
+    System.arraycopy(samples, 0, renderers, 0, samples.length);
+    renderers[samples.length] = new SpectrogramRenderer(256, 64, BandAggregator.Scale.LOG);
+    return renderers;
+  }
+
+  private static void checkRenderer(Check check, final Captures captures, final Renderer renderer,
+      int index, long overhead)
+  {
+    final StubCanvas canvas = new StubCanvas();
+    final Bounds bounds = new Bounds(0, 0, 320, 240);
+    final FrameAnalyzer analyzer = new FrameAnalyzer();
+    final AudioData audioData = new AudioData(null);
+    final FFTData fftData = new FFTData(null);
+
+    long bytes = allocated(new Bench.Task() {
+      int frame = 0;
+
+      public long run() {
+        int capture = frame++ % CAPTURES;
+        audioData.set(captures.waveforms[capture], frame);
+        fftData.set(captures.ffts[capture], frame);
+        analyzer.analyze(audioData);
+        analyzer.analyze(fftData);
+        renderer.render(canvas, audioData, bounds);
+        renderer.render(canvas, fftData, bounds);
+        return canvas.draws;
+      }
+    }) - overhead;
+
+    String name = index + ". " + renderer.getClass().getSimpleName();
+    check.that(canvas.draws > 0, name + " drew nothing");
+    report(check, name, bytes);
+  }
+
+  private static void checkPipeline(Check check, final Captures captures,
+      FrameCompositor.TrailMode mode, boolean dirtyTracking, long overhead)
+  {
+    final Renderer[] renderers = createRenderers();
+    FrameAnalyzer analyzer = new FrameAnalyzer();
+    analyzer.setBeatDetector(new BeatDetector(6));
+    analyzer.setSmoother(new SpectrumSmoother(0.05f, 0.3f));
+    analyzer.setSpectrumAnalyzer(new SpectrumAnalyzer(CAPTURE_SIZE, Window.HANN, 0));
+    final FrameCompositor compositor = new FrameCompositor(analyzer);
+    compositor.setFlashOnBeat(true);
+    compositor.setTrailMode(mode, 8);
+    compositor.setDirtyTracking(dirtyTracking);
+    final SoftwareCanvas canvas = new SoftwareCanvas(160, 120);
+    final Bounds bounds = new Bounds(0, 0, 160, 120);
+    final TripleBuffer<AudioData> audioBuffer = new TripleBuffer<AudioData>(
+        new AudioData(null), new AudioData(null), new AudioData(null));
+    final TripleBuffer<FFTData> fftBuffer = new TripleBuffer<FFTData>(
+        new FFTData(null), new FFTData(null), new FFTData(null));
+
+    long bytes = allocated(new Bench.Task() {
+      int frame = 0;
+
+      public long run() {
+        int capture = frame++ % CAPTURES;
+        // As updateVisualizer and updateVisualizerFFT, then renderFrame
+        long timestamp = frame * 1000000000L / 30;
+        audioBuffer.getBack().set(captures.waveforms[capture], timestamp);
+        audioBuffer.publish();
+        FFTData back = fftBuffer.getBack();
+        back.set(captures.ffts[capture], timestamp);
+        back.samplingRate = 44100;
+        fftBuffer.publish();
+
+        audioBuffer.update();
+        boolean newFFT = fftBuffer.update();
+        boolean beat = compositor.composite(canvas, bounds, renderers,
+            audioBuffer.getFront(), fftBuffer.getFront(), newFFT);
+        return beat ? 1 : 0;
+      }
+    }) - overhead;
+
+    report(check, String.format("Pipeline, %s trail%s", mode,
+        dirtyTracking ? ", dirty tracking" : ""), bytes);
+  }
+
+  private static void report(Check check, String name, long bytes)
+  {
+    System.out.println(String.format("  %-44s %8.2f bytes/frame", name, (double) bytes / FRAMES));
+    // Under a byte a frame is the measurement's own noise, not an allocation
+    check.that(bytes < FRAMES, name + " allocated " + bytes + " bytes in " + FRAMES + " frames");
+  }
+
+  // Bytes allocated by FRAMES runs of task, after warming it up
+  private static long allocated(Bench.Task task)
+  {
+    long sink = 0;
+    for (int i = 0; i < WARMUP_FRAMES; i++) {
+      sink += task.run();
+    }
+    long before = Bench.allocatedBytes();
+    for (int i = 0; i < FRAMES; i++) {
+      sink += task.run();
+    }
+    long after = Bench.allocatedBytes();
+    Bench.sink = sink;
+    return after - before;
+  }
+
+  // Waveform and FFT captures of a tone with a kick every few captures
+  private static class Captures
+  {
+    final byte[][] waveforms = new byte[CAPTURES][CAPTURE_SIZE];
+    final byte[][] ffts = new byte[CAPTURES][CAPTURE_SIZE];
+
+    Captures()
+    {
+      CaptureEncoder encoder = new CaptureEncoder(CAPTURE_SIZE);
+      float[] samples = new float[CAPTURE_SIZE];
+      for (int c = 0; c < CAPTURES; c++) {
+        for (int i = 0; i < CAPTURE_SIZE; i++) {
+          double kick = c % 4 == 0 ? Math.sin(i * 0.01) * Math.exp(-i * 0.005) : 0;
+          samples[i] = (float) (0.3 * Math.sin(i * (0.05 + c * 0.01)) + 0.6 * kick);
+        }
+        encoder.encode(samples, 0, waveforms[c], ffts[c]);
+      }
+    }
+  }
+
+  // Counts draws, so a renderer which draws nothing isn't mistaken for one
+  // which allocates nothing
+  private static class StubCanvas implements VisualizerCanvas
+  {
+    long draws;
+
+    public int getWidth() {
+      return 320;
+    }
+
+    public int getHeight() {
+      return 240;
+    }
+
+    public void drawLines(float[] points, int offset, int count, Brush brush) {
+      draws++;
+    }
+
+    public void drawPaint(Brush brush) {
+      draws++;
+    }
+
+    public void drawRect(Bounds bounds, Brush brush) {
+      draws++;
+    }
+
+    public void drawImage(ScrollingImage image, Bounds bounds, Brush brush) {
+      draws++;
+    }
+  }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.check;
+
+import java.util.Random;
+
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.dsp.BandAggregator;
+import com.pheelicks.visualizer.dsp.SpectralMath;
+import com.pheelicks.visualizer.dsp.SpectrumSmoother;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.Brush;
+import com.pheelicks.visualizer.graphics.ScrollingImage;
+import com.pheelicks.visualizer.graphics.VisualizerCanvas;
+import com.pheelicks.visualizer.renderer.BarGraphRenderer;
+
+/**
+ * Checks band aggregation against reference band energies: BandAggregator
+ * on each scale, and the octave bands FrameAnalyzer fills in.
+ *
+ * The reference cases are small enough to work out by hand, with band edges
+ * on whole bins: octaves on the log scale, and 1000 Hz as the midpoint of
+ * 0 - 3428.6 Hz in mels and of 0 - 4083.3 Hz in Barks. Random layouts are
+ * then checked for bands which are contiguous, cover the range and don't
+ * lose or gain energy, the same whether summed from energies or decibels.
+ * Last, BarGraphRenderer's bands are drawn with more bars than bins, and
+ * with smoothing.
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/check/BandCheck.java
+ *   java -cp out com.pheelicks.tools.check.BandCheck
+ */
+public class BandCheck
+{
+  public static void main(String[] args)
+  {
+    Check.exit(run());
+  }
+
+  public static boolean run()
+  {
+    Check check = new Check("BandCheck");
+
+    // Energy k in bin k, so each band sums a different range
+    check(check, BandAggregator.Scale.LINEAR, 4, 0, 8, 8, 16, true,
+        new float[] { 1, 2 + 3, 4 + 5, 6 + 7 });
+    // Energy 1 in every bin, so each band counts its bins
+    check(check, BandAggregator.Scale.LOG, 4, 1, 16, 16, 32, false,
+        new float[] { 1, 2, 4, 8 });
+    check(check, BandAggregator.Scale.MEL, 2, 0, 3428.6f, 40, 8000, false,
+        new float[] { 9, 24 });
+    check(check, BandAggregator.Scale.BARK, 2, 0, 4083.3f, 50, 10000, false,
+        new float[] { 9, 31 });
+
+    checkLayouts(check);
+    checkOctaves(check);
+    checkBarGraph(check);
+    return check.finish();
+  }
+
+  private static void check(Check check, BandAggregator.Scale scale, int bands, float min,
+      float max, int bins, int sampleRate, boolean ramp, float[] expected)
+  {
+    float[] energies = new float[bins];
+    for (int k = 0; k < bins; k++) {
+      energies[k] = ramp ? k : 1;
+    }
+    float[] out = new float[bands];
+    new BandAggregator(bands, scale, min, max).aggregate(energies, bins, sampleRate, out);
+    for (int b = 0; b < bands; b++) {
+      check.near(scale + " band " + b, expected[b], out[b], 1e-4);
+    }
+  }
+
+  // Properties which hold for any layout
+  private static void checkLayouts(Check check)
+  {
+    Random random = new Random(1);
+    BandAggregator.Scale[] scales = BandAggregator.Scale.values();
+    int[] sizes = { 32, 64, 128, 256, 512 };
+    int[] rates = { 8000, 22050, 44100, 48000 };
+
+    for (int i = 0; i < 200; i++) {
+      BandAggregator.Scale scale = scales[i % scales.length];
+      int bins = sizes[random.nextInt(sizes.length)];
+      int rate = rates[random.nextInt(rates.length)];
+      int bands = 1 + random.nextInt(64);
+      float min = 20 + random.nextInt(200);
+      float max = min + 100 + random.nextInt(20000);
+      String layout = String.format("%s, %d bands %.0f - %.0f Hz, %d bins at %d Hz",
+          scale, bands, min, max, bins, rate);
+
+      float[] energies = new float[bins];
+      for (int k = 0; k < bins; k++) {
+        energies[k] = random.nextFloat();
+      }
+      float[] out = new float[bands];
+      BandAggregator aggregator = new BandAggregator(bands, scale, min, max);
+      aggregator.aggregate(energies, bins, rate, out);
+
+      int first = aggregator.getBandStart(0);
+      int last = aggregator.getBandEnd(bands - 1);
+      double binWidth = rate / (2.0 * bins);
+      boolean contiguous = first >= 1;
+      boolean filled = true;
+      double total = 0;
+      for (int b = 0; b < bands; b++) {
+        int start = aggregator.getBandStart(b);
+        int end = aggregator.getBandEnd(b);
+        contiguous &= end >= start && (b == 0 || start == aggregator.getBandEnd(b - 1));
+        // Every band gets a bin until they run out
+        filled &= end > start || start == bins;
+        total += out[b];
+      }
+      double expected = 0;
+      for (int k = first; k < last; k++) {
+        expected += energies[k];
+      }
+
+      check.that(contiguous, layout + ": bands overlap, leave gaps or include DC");
+      check.that(filled, layout + ": empty band with bins left");
+      check.that(Math.abs(first * binWidth - min) <= binWidth || first == 1,
+          layout + ": first band starts at bin " + first);
+      long top = Math.min(bins, Math.round(Math.min(max, rate / 2.0) / binWidth));
+      check.that(last >= top && last <= bins, layout + ": last band ends at bin " + last
+          + ", before " + top);
+      check.near(layout + ": total energy", expected, total, 1e-3 * Math.max(1, expected));
+
+      float[] decibels = new float[bins];
+      for (int k = 0; k < bins; k++) {
+        decibels[k] = 10 * (float) Math.log10(energies[k]);
+      }
+      float[] outDecibels = new float[bands];
+      aggregator.aggregateDecibels(decibels, bins, rate, outDecibels);
+      double error = 0;
+      for (int b = 0; b < bands; b++) {
+        if (out[b] > 0) {
+          error = Math.max(error, Math.abs(outDecibels[b] - 10 * Math.log10(out[b])));
+        } else {
+          error = outDecibels[b] == Float.NEGATIVE_INFINITY ? error : Double.POSITIVE_INFINITY;
+        }
+      }
+      check.that(error <= 2e-3, layout + ": band decibels out by " + error + " dB");
+    }
+  }
+
+  // FrameAnalyzer's bands are bins 0 and 1, then one per octave
+  private static void checkOctaves(Check check)
+  {
+    Random random = new Random(2);
+    FrameAnalyzer analyzer = new FrameAnalyzer();
+    FFTData data = new FFTData(null);
+    for (int size = 4; size <= 1024; size *= 2) {
+      byte[] bytes = new byte[size];
+      random.nextBytes(bytes);
+      data.set(bytes, size);
+      analyzer.analyze(data);
+
+      int bins = size / 2;
+      check.that(data.bins == bins, size + " bytes: " + data.bins + " bins");
+      int bands = 1 + Math.max(0, Integer.numberOfTrailingZeros(bins) - 1);
+      check.that(data.bands == bands, size + " bytes: " + data.bands + " bands, expected " + bands);
+
+      for (int b = 0; b < Math.min(bands, data.bands); b++) {
+        int start = b == 0 ? 0 : 1 << b;
+        int end = 2 << b;
+        double expected = 0;
+        for (int k = start; k < end; k++) {
+          int re = bytes[2 * k];
+          int im = bytes[2 * k + 1];
+          expected += re * re + im * im;
+        }
+        check.near(size + " bytes, octave band " + b, expected, data.bandEnergies[b],
+            1e-5 * Math.max(1, expected));
+      }
+    }
+  }
+
+  private static void checkBarGraph(Check check)
+  {
+    Random random = new Random(3);
+    double error = 0;
+    for (int i = 0; i < 10000; i++) {
+      float decibels = random.nextFloat() * 200 - 100;
+      error = Math.max(error, Math.abs(SpectralMath.decibels(SpectralMath.power(decibels)) - decibels));
+    }
+    check.that(error <= 2e-3, "Decibels to power and back out by " + error + " dB");
+
+    // 256 bars from 64 bins
+    LineCanvas canvas = new LineCanvas();
+    Bounds bounds = new Bounds(0, 0, 512, 256);
+    BarGraphRenderer renderer = new BarGraphRenderer(256, BandAggregator.Scale.LINEAR, new Brush(), false);
+    FFTData data = new FFTData(null);
+    byte[] loud = new byte[128];
+    for (int i = 2; i < loud.length; i++) {
+      loud[i] = 100;
+    }
+    data.set(loud, 0);
+    try {
+      renderer.render(canvas, data, bounds);
+      check.that(canvas.count == 256 * 4, "256 bars drew " + canvas.count / 4 + " lines");
+    } catch (ArrayIndexOutOfBoundsException e) {
+      check.that(false, "256 bars from 64 bins: " + e);
+    }
+
+    // A loud frame then silence 10 ms later. The bars only fall as fast as
+    // the smoother's release, and drop at once without it
+    float smoothedTop = silentBarTop(renderer, canvas, bounds, loud, new SpectrumSmoother(0, 0.5f));
+    float rawTop = silentBarTop(renderer, canvas, bounds, loud, null);
+    check.that(smoothedTop < rawTop - 10, String.format(
+        "Bars after silence reach %.1f smoothed and %.1f raw", smoothedTop, rawTop));
+  }
+
+  // Top of a low bar, which has a bin of its own, drawn for a silent frame
+  // after a loud one
+  private static float silentBarTop(BarGraphRenderer renderer, LineCanvas canvas, Bounds bounds,
+      byte[] loud, SpectrumSmoother smoother)
+  {
+    FrameAnalyzer analyzer = new FrameAnalyzer();
+    analyzer.setSmoother(smoother);
+    FFTData data = new FFTData(null);
+    data.set(loud, 0);
+    analyzer.analyze(data);
+    renderer.render(canvas, data, bounds);
+    data.set(new byte[loud.length], 10000000L);
+    analyzer.analyze(data);
+    renderer.render(canvas, data, bounds);
+    return canvas.points[20 * 4 + 3];
+  }
+
+  // Keeps the points of the last lines drawn
+  private static class LineCanvas implements VisualizerCanvas
+  {
+    float[] points = new float[0];
+    int count;
+
+    public int getWidth() {
+      return 512;
+    }
+
+    public int getHeight() {
+      return 256;
+    }
+
+    public void drawLines(float[] points, int offset, int count, Brush brush) {
+      if (this.points.length < count) {
+        this.points = new float[count];
+      }
+      System.arraycopy(points, offset, this.points, 0, count);
+      this.count = count;
+    }
+
+    public void drawPaint(Brush brush) {
+    }
+
+    public void drawRect(Bounds bounds, Brush brush) {
+    }
+
+    public void drawImage(ScrollingImage image, Bounds bounds, Brush brush) {
+    }
+  }
+}
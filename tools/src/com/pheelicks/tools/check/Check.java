@@ -0,0 +1,75 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.check;
+
+/**
+ * Minimal test harness for the checks, which like the benchmarks are plain
+ * programs, so they run on any JVM without a test framework. Each check
+ * reports its failures here and prints a PASS or FAIL line at the end.
+ */
+public class Check
+{
+  private final String mName;
+  private int mChecks = 0;
+  private int mFailures = 0;
+
+  public Check(String name)
+  {
+    mName = name;
+  }
+
+  /**
+   * Records one check, printing message if it failed
+   * @return condition
+   */
+  public boolean that(boolean condition, String message)
+  {
+    mChecks++;
+    if (!condition) {
+      mFailures++;
+      System.out.println("  FAIL " + message);
+    }
+    return condition;
+  }
+
+  /**
+   * Checks actual is within tolerance of expected
+   * @return Whether it was
+   */
+  public boolean near(String what, double expected, double actual, double tolerance)
+  {
+    return that(Math.abs(actual - expected) <= tolerance,
+        String.format("%s: expected %g, got %g (tolerance %g)", what, expected, actual, tolerance));
+  }
+
+  /**
+   * @return Whether every check so far passed
+   */
+  public boolean passed()
+  {
+    return mFailures == 0;
+  }
+
+  /**
+   * Prints the result
+   * @return Whether every check passed
+   */
+  public boolean finish()
+  {
+    System.out.println(String.format("%s %s: %d checks, %d failed",
+        passed() ? "PASS" : "FAIL", mName, mChecks, mFailures));
+    return passed();
+  }
+
+  /**
+   * Exits with status 1 if any check failed, for use at the end of main
+   */
+  public static void exit(boolean passed)
+  {
+    System.exit(passed ? 0 : 1);
+  }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.check;
+
+import java.util.Random;
+
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.dsp.CaptureEncoder;
+import com.pheelicks.visualizer.dsp.FFT;
+import com.pheelicks.visualizer.dsp.SpectralMath;
+import com.pheelicks.visualizer.dsp.SpectrumAnalyzer;
+import com.pheelicks.visualizer.dsp.Window;
+
+/**
+ * Checks the FFT against a naive DFT computed in double precision, the
+ * windows and spectra of SpectrumAnalyzer against known values, and the
+ * float spectrum FrameAnalyzer adds to FFT frames.
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/check/FFTCheck.java
+ *   java -cp out com.pheelicks.tools.check.FFTCheck
+ */
+public class FFTCheck
+{
+  // Largest error allowed, relative to the largest possible bin, n
+  private static final double TOLERANCE = 1e-6;
+
+  public static void main(String[] args)
+  {
+    Check.exit(run());
+  }
+
+  public static boolean run()
+  {
+    Check check = new Check("FFTCheck");
+    checkFFT(check);
+    checkWindows(check);
+    checkAnalyzer(check);
+    checkDecibels(check);
+    checkFrameSpectrum(check);
+    return check.finish();
+  }
+
+  // Random input of every size, in the packed layout described by FFT
+  private static void checkFFT(Check check)
+  {
+    Random random = new Random(1);
+    for (int size = 4; size <= 4096; size *= 2) {
+      float[] data = new float[size];
+      for (int i = 0; i < size; i++) {
+        data[i] = random.nextFloat() * 2 - 1;
+      }
+      double[] re = new double[size / 2 + 1];
+      double[] im = new double[size / 2 + 1];
+      dft(data, re, im);
+
+      new FFT(size).realForward(data);
+      double error = Math.max(Math.abs(data[0] - re[0]), Math.abs(data[1] - re[size / 2]));
+      for (int k = 1; k < size / 2; k++) {
+        error = Math.max(error, Math.abs(data[2 * k] - re[k]));
+        error = Math.max(error, Math.abs(data[2 * k + 1] - im[k]));
+      }
+      check.that(error <= TOLERANCE * size, String.format(
+          "FFT of %d samples differs from the DFT by %g", size, error));
+    }
+  }
+
+  // X[k] = sum of x[n] e^(-2 pi i k n / N), for k from 0 to N / 2
+  private static void dft(float[] x, double[] re, double[] im)
+  {
+    int n = x.length;
+    for (int k = 0; k <= n / 2; k++) {
+      double sumRe = 0;
+      double sumIm = 0;
+      for (int i = 0; i < n; i++) {
+        // Reduced first, so the angle stays accurate for large k * i
+        double angle = 2 * Math.PI * ((long) k * i % n) / n;
+        sumRe += x[i] * Math.cos(angle);
+        sumIm -= x[i] * Math.sin(angle);
+      }
+      re[k] = sumRe;
+      im[k] = sumIm;
+    }
+  }
+
+  private static void checkWindows(Check check)
+  {
+    float[] window = new float[65];
+    // Ends, then middle
+    Window.HANN.fill(window);
+    check.near("Hann start", 0, window[0], 1e-6);
+    check.near("Hann middle", 1, window[32], 1e-6);
+    Window.HAMMING.fill(window);
+    check.near("Hamming start", 0.08, window[0], 1e-6);
+    check.near("Hamming middle", 1, window[32], 1e-6);
+    Window.BLACKMAN.fill(window);
+    check.near("Blackman start", 0, window[0], 1e-6);
+    check.near("Blackman middle", 1, window[32], 1e-6);
+    Window.RECTANGULAR.fill(window);
+    check.near("Rectangular start", 1, window[0], 0);
+    for (Window w : Window.values()) {
+      w.fill(window);
+      check.near(w + " symmetry", window[10], window[window.length - 11], 1e-6);
+    }
+  }
+
+  private static void checkAnalyzer(Check check)
+  {
+    int size = 1024;
+    int bin = 64;
+    float[] sine = new float[size * 4];
+    for (int i = 0; i < sine.length; i++) {
+      sine[i] = (float) Math.sin(2 * Math.PI * bin * i / size);
+    }
+
+    for (Window window : Window.values()) {
+      // A full scale sine on a bin comes out at magnitude 1, with little
+      // leaking far from it
+      SpectrumAnalyzer analyzer = new SpectrumAnalyzer(size, window, 0);
+      check.that(analyzer.process(sine, 0, size), window + ": no spectrum after a block");
+      float[] magnitudes = analyzer.getMagnitudes();
+      check.near(window + " peak", 1, magnitudes[bin], 1e-3);
+      float leak = 0;
+      for (int k = 0; k < magnitudes.length; k++) {
+        if (Math.abs(k - bin) > 4) {
+          leak = Math.max(leak, magnitudes[k]);
+        }
+      }
+      check.that(leak < 1e-3, window + ": leaks " + leak + " more than 4 bins away");
+    }
+
+    // A new spectrum every hop once the first block is in
+    float[] overlaps = { 0, 0.5f, 0.75f };
+    for (float overlap : overlaps) {
+      SpectrumAnalyzer analyzer = new SpectrumAnalyzer(size, Window.HANN, overlap);
+      int hop = Math.round(size * (1 - overlap));
+      int spectra = 0;
+      for (int i = 0; i < sine.length; i++) {
+        if (analyzer.process(sine, i, 1)) {
+          spectra++;
+          check.that(i + 1 >= size && (i + 1 - size) % hop == 0, String.format(
+              "Overlap %.2f: spectrum after %d samples", overlap, i + 1));
+        }
+      }
+      check.that(spectra == 1 + (sine.length - size) / hop, String.format(
+          "Overlap %.2f: %d spectra from %d samples", overlap, spectra, sine.length));
+    }
+  }
+
+  private static void checkDecibels(Check check)
+  {
+    Random random = new Random(3);
+    double error = 0;
+    for (int i = 0; i < 10000; i++) {
+      float power = (float) Math.pow(10, random.nextDouble() * 30 - 15);
+      error = Math.max(error, Math.abs(SpectralMath.decibels(power) - 10 * Math.log10(power)));
+    }
+    check.that(error <= 1e-3, "Float decibels out by up to " + error + " dB");
+    check.that(SpectralMath.decibels(0f) == Float.NEGATIVE_INFINITY, "Decibels of 0 aren't -Infinity");
+  }
+
+  // A sine 60 dB below full scale, whose FFT bytes are all but 0
+  private static void checkFrameSpectrum(Check check)
+  {
+    int size = 1024;
+    int bin = 64;
+    float[] samples = new float[size];
+    for (int i = 0; i < size; i++) {
+      samples[i] = (float) (0.001 * Math.sin(2 * Math.PI * bin * i / size));
+    }
+    byte[] bytes = new byte[size];
+    new CaptureEncoder(size).encode(samples, 0, null, bytes);
+
+    FrameAnalyzer analyzer = new FrameAnalyzer();
+    analyzer.setSpectrumAnalyzer(new SpectrumAnalyzer(size, Window.HANN, 0));
+    AudioData audio = new AudioData(null);
+    FFTData fft = new FFTData(null);
+    audio.setSamples(samples, 0, size, 0);
+    fft.set(bytes, 0);
+    analyzer.analyze(audio);
+    analyzer.analyze(fft);
+
+    check.that(fft.spectrumBins == size / 2, "Float spectrum has " + fft.spectrumBins + " bins");
+    check.that(fft.levels() == fft.spectrumDecibels && fft.levelBins() == size / 2,
+        "Levels aren't the float spectrum");
+    check.that(fft.levelIndex(bin) == bin, "Bin " + bin + " maps to level " + fft.levelIndex(bin));
+    // 20 * log10(64) for a full scale sine, 60 dB down
+    check.near("Float spectrum of a -60 dB sine", 36.12 - 60, fft.spectrumDecibels[bin], 0.1);
+    check.that(fft.decibels[bin] < fft.spectrumDecibels[bin] - 10 || fft.decibels[bin] < 0,
+        "FFT bytes resolve the quiet sine to " + fft.decibels[bin] + " dB");
+    check.that(fft.spectrumDecibels[bin + 20] < fft.spectrumDecibels[bin] - 40,
+        "Float spectrum leaks " + fft.spectrumDecibels[bin + 20] + " dB 20 bins away");
+
+    // Straight from the waveform, its samples rather than its bytes
+    SpectrumAnalyzer direct = new SpectrumAnalyzer(size, Window.HANN, 0);
+    direct.process(audio);
+    check.near("Float spectrum of AudioData samples", 36.12 - 60,
+        20 * Math.log10(64 * direct.getMagnitudes()[bin]), 0.1);
+
+    // No spectrum analyzer, no float spectrum
+    FFTData plain = new FFTData(null);
+    plain.set(bytes, 0);
+    new FrameAnalyzer().analyze(plain);
+    check.that(plain.spectrumBins == 0 && plain.levels() == plain.decibels,
+        "Float spectrum without a spectrum analyzer");
+  }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.check;
+
+import com.pheelicks.tools.RenderClip;
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.FrameScheduler;
+import com.pheelicks.visualizer.dsp.CaptureEncoder;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.DirtyTrackingCanvas;
+import com.pheelicks.visualizer.graphics.SoftwareCanvas;
+import com.pheelicks.visualizer.renderer.Renderer;
+
+/**
+ * Checks that FrameScheduler merges waveform and FFT updates into at most
+ * one frame per interval, driving it with a fake clock and a host which runs
+ * posted frames when the clock reaches them, so the timing is exact and the
+ * same every run. Also checks that the dirty bounds renderers report cover
+ * everything they draw.
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/check/FrameSchedulerCheck.java
+ *   java -cp out com.pheelicks.tools.check.FrameSchedulerCheck
+ */
+public class FrameSchedulerCheck
+{
+  private static final long SECOND = 1000000000L;
+  private static final long MILLISECOND = 1000000L;
+
+  public static void main(String[] args)
+  {
+    Check.exit(run());
+  }
+
+  public static boolean run()
+  {
+    Check check = new Check("FrameSchedulerCheck");
+    checkFirstRequest(check);
+    checkCaptures(check);
+    checkFlood(check, 60);
+    checkFlood(check, 30);
+    checkCancel(check);
+    checkDirtyBounds(check);
+    return check.finish();
+  }
+
+  private static void checkFirstRequest(Check check)
+  {
+    Simulation simulation = new Simulation();
+    simulation.scheduler.requestFrame();
+    check.that(simulation.posts == 1 && simulation.due == simulation.now,
+        "First request isn't run straight away");
+  }
+
+  // A waveform and an FFT per capture, 20 times a second. The Visualizer
+  // delivers them back to back, so each pair should make one frame
+  private static void checkCaptures(Check check)
+  {
+    Simulation simulation = new Simulation();
+    int captures = 60;
+    long[] requests = new long[captures * 2];
+    for (int i = 0; i < captures; i++) {
+      requests[2 * i] = i * SECOND / 20;
+      requests[2 * i + 1] = i * SECOND / 20;
+    }
+    simulation.run(requests);
+
+    FrameScheduler scheduler = simulation.scheduler;
+    check.that(scheduler.getRequestCount() == captures * 2,
+        scheduler.getRequestCount() + " requests counted, expected " + captures * 2);
+    check.that(scheduler.getFrameCount() == captures,
+        captures + " captures made " + scheduler.getFrameCount() + " frames");
+    check.that(simulation.posts == captures, captures + " captures posted " + simulation.posts + " frames");
+
+    // With the FFT a little later, the frame for the waveform has already
+    // run, so the FFT gets the next one, a whole interval on
+    simulation = new Simulation();
+    for (int i = 0; i < captures; i++) {
+      requests[2 * i + 1] = i * SECOND / 20 + MILLISECOND;
+    }
+    simulation.run(requests);
+    long interval = simulation.scheduler.getFrameIntervalNanos();
+    check.that(simulation.shortestGap >= interval, String.format(
+        "Staggered captures made frames %d ns apart, under the interval of %d ns",
+        simulation.shortestGap, interval));
+  }
+
+  // Requests every millisecond for a second are held to the frame rate
+  private static void checkFlood(Check check, int framesPerSecond)
+  {
+    Simulation simulation = new Simulation();
+    simulation.scheduler.setFrameRate(framesPerSecond);
+    long[] requests = new long[1000];
+    for (int i = 0; i < requests.length; i++) {
+      requests[i] = i * MILLISECOND;
+    }
+    simulation.run(requests);
+
+    long frames = simulation.scheduler.getFrameCount();
+    long interval = simulation.scheduler.getFrameIntervalNanos();
+    check.that(frames >= framesPerSecond && frames <= framesPerSecond + 1, String.format(
+        "%d requests at %d fps made %d frames", requests.length, framesPerSecond, frames));
+    check.that(simulation.shortestGap >= interval, String.format(
+        "At %d fps frames were %d ns apart, under the interval of %d ns",
+        framesPerSecond, simulation.shortestGap, interval));
+    check.that(!simulation.scheduler.isFrameScheduled(), "Frame still scheduled after the last one ran");
+  }
+
+  // A dropped callback blocks requests until cancel
+  private static void checkCancel(Check check)
+  {
+    Simulation simulation = new Simulation();
+    FrameScheduler scheduler = simulation.scheduler;
+    scheduler.requestFrame();
+    simulation.due = -1;
+    scheduler.requestFrame();
+    check.that(simulation.posts == 1, "Request posted again while a frame was scheduled");
+    scheduler.cancel();
+    check.that(!scheduler.isFrameScheduled(), "Frame still scheduled after cancel");
+    scheduler.requestFrame();
+    check.that(simulation.posts == 2, "Request after cancel wasn't posted");
+  }
+
+  // Every pixel drawn is inside the dirty bounds reported for it
+  private static void checkDirtyBounds(Check check)
+  {
+    int width = 320;
+    int height = 180;
+    Renderer[] renderers = RenderClip.createSampleRenderers();
+    SoftwareCanvas canvas = new SoftwareCanvas(width, height);
+    DirtyTrackingCanvas tracker = new DirtyTrackingCanvas();
+    tracker.setCanvas(canvas);
+    Bounds bounds = new Bounds(0, 0, width, height);
+
+    CaptureEncoder encoder = new CaptureEncoder(1024);
+    float[] samples = new float[1024];
+    byte[] waveform = new byte[1024];
+    byte[] fft = new byte[1024];
+    FrameAnalyzer analyzer = new FrameAnalyzer();
+    AudioData audioData = new AudioData(null);
+    FFTData fftData = new FFTData(null);
+
+    for (int frame = 0; frame < 20; frame++) {
+      for (int i = 0; i < samples.length; i++) {
+        samples[i] = (float) (0.8 * Math.sin(i * (0.01 + frame * 0.005)));
+      }
+      encoder.encode(samples, 0, waveform, fft);
+      audioData.set(waveform, frame);
+      fftData.set(fft, frame);
+      analyzer.analyze(audioData);
+      analyzer.analyze(fftData);
+
+      for (int r = 0; r < renderers.length; r++) {
+        canvas.clear(0);
+        tracker.reset();
+        renderers[r].render(tracker, audioData, bounds);
+        renderers[r].render(tracker, fftData, bounds);
+
+        Bounds dirty = tracker.getDirtyBounds();
+        int outside = 0;
+        int[] pixels = canvas.getPixels();
+        for (int y = 0; y < height; y++) {
+          for (int x = 0; x < width; x++) {
+            boolean inside = x >= dirty.left && x < dirty.right && y >= dirty.top && y < dirty.bottom;
+            if (pixels[y * width + x] != 0 && !inside) {
+              outside++;
+            }
+          }
+        }
+        check.that(outside == 0, String.format("%s frame %d: %d pixels drawn outside %s",
+            renderers[r].getClass().getSimpleName(), frame, outside, dirty));
+      }
+    }
+  }
+
+  // Runs requests at given times, and posted frames when the clock reaches
+  // them, in order. Like a Handler, a frame posted with no delay runs after
+  // requests made at the same time
+  private static class Simulation implements FrameScheduler.Clock, FrameScheduler.Host
+  {
+    // Not 0, so nothing relies on the clock starting there
+    long now = 5 * SECOND;
+    final FrameScheduler scheduler = new FrameScheduler(this, this);
+    // Time the posted frame runs, or -1 if none is posted
+    long due = -1;
+    int posts = 0;
+    long lastFrame = -1;
+    long shortestGap = Long.MAX_VALUE;
+
+    public long nanoTime() {
+      return now;
+    }
+
+    public void postFrame(long delayNanos) {
+      posts++;
+      due = now + delayNanos;
+    }
+
+    // Times are relative to the start, and in order
+    void run(long[] requests) {
+      long start = now;
+      int next = 0;
+      while (next < requests.length || due >= 0) {
+        long request = next < requests.length ? start + requests[next] : Long.MAX_VALUE;
+        if (due >= 0 && due < request) {
+          now = due;
+          due = -1;
+          long frame = scheduler.doFrame();
+          if (lastFrame >= 0) {
+            shortestGap = Math.min(shortestGap, frame - lastFrame);
+          }
+          lastFrame = frame;
+        } else {
+          now = request;
+          next++;
+          scheduler.requestFrame();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.check;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.pheelicks.visualizer.CaptureGovernor;
+
+/**
+ * Checks CaptureGovernor's control loop against simulated devices, whose
+ * render time depends on the capture size. Frames are drawn at up to 60 per
+ * second, and captures arriving faster than that are dropped, as the view's
+ * triple buffer would drop them. No real time passes, so every run makes
+ * the same decisions.
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/check/GovernorCheck.java
+ *   java -cp out com.pheelicks.tools.check.GovernorCheck
+ */
+public class GovernorCheck
+{
+  private static final int MIN_SIZE = 128;
+  private static final int MAX_SIZE = 1024;
+  // Visualizer capture rates are in milliHertz
+  private static final int MIN_RATE = 5000;
+  private static final int MAX_RATE = 120000;
+  private static final long BUDGET_NANOS = 1000000000L / 60;
+
+  public static void main(String[] args)
+  {
+    Check.exit(run());
+  }
+
+  public static boolean run()
+  {
+    Check check = new Check("GovernorCheck");
+    checkSlowDevice(check);
+    checkFastDevice(check);
+    checkDrops(check);
+    checkVisibility(check);
+    checkThrottling(check);
+    checkDeterminism(check);
+    return check.finish();
+  }
+
+  // 30 us per sample: 1024 and 512 are over budget, 256 is comfortable
+  private static void checkSlowDevice(Check check)
+  {
+    Simulation simulation = new Simulation(30000, 0);
+    simulation.run(20);
+    check.that(simulation.governor.getCaptureSize() == 256,
+        "Slow device settled on size " + simulation.governor.getCaptureSize() + ", expected 256");
+    int changes = simulation.changes.size();
+    simulation.run(20);
+    check.that(simulation.changes.size() == changes,
+        "Slow device kept changing: " + simulation.changes.subList(changes, simulation.changes.size()));
+  }
+
+  // 1 ms whatever the size: rises to the largest size, then the rate rises
+  // until captures come faster than frames and are dropped
+  private static void checkFastDevice(Check check)
+  {
+    Simulation simulation = new Simulation(0, 1000000);
+    simulation.governor.setCapture(MIN_SIZE, MIN_RATE);
+    // Three quiet windows of half a second before the first step up
+    int changes = simulation.changes.size();
+    long start = simulation.now;
+    while (simulation.changes.size() == changes) {
+      simulation.frame();
+    }
+    long wait = simulation.now - start;
+    check.that(wait >= 1500000000L && wait < 2000000000L,
+        "Fast device first stepped up after " + wait / 1000000 + " ms");
+    simulation.run(60);
+    check.that(simulation.governor.getCaptureSize() == MAX_SIZE,
+        "Fast device stayed at size " + simulation.governor.getCaptureSize());
+    check.that(simulation.governor.getCaptureRate() > 40000,
+        "Fast device stayed at rate " + simulation.governor.getCaptureRate());
+  }
+
+  // At the highest rate twice as many captures arrive as frames are drawn
+  private static void checkDrops(Check check)
+  {
+    Simulation simulation = new Simulation(0, 1000000);
+    simulation.governor.setCapture(MAX_SIZE, MAX_RATE);
+    simulation.run(30);
+    int rate = simulation.governor.getCaptureRate();
+    // A quarter of captures dropped is tolerated: 80 Hz against 60 frames
+    check.that(rate <= 80000, "Rate stayed at " + rate + " with captures dropped");
+    check.that(simulation.droppedInLastWindow() <= 0.25,
+        String.format("Still dropping %.0f%% of captures", simulation.droppedInLastWindow() * 100));
+  }
+
+  // Hidden a frame into a window, on a device too slow for the largest size
+  private static void checkVisibility(Check check)
+  {
+    Simulation simulation = new Simulation(30000, 0);
+    simulation.frame();
+    int size = simulation.governor.getCaptureSize();
+    int rate = simulation.governor.getCaptureRate();
+
+    simulation.governor.setVisible(false);
+    check.that(simulation.lastSize == MIN_SIZE && simulation.lastRate == MIN_RATE,
+        "Hidden view reported " + simulation.lastSize + " / " + simulation.lastRate);
+    simulation.now += 60 * 1000000000L;
+    simulation.governor.setVisible(true);
+    check.that(simulation.lastSize == size && simulation.lastRate == rate,
+        "Shown again at " + simulation.lastSize + " / " + simulation.lastRate
+        + ", expected " + size + " / " + rate);
+
+    // The minute hidden isn't a window, so the next frame starts one
+    simulation.frame();
+    check.that(simulation.lastSize == size, "First frame after showing changed the size to "
+        + simulation.lastSize);
+    simulation.run(1);
+    check.that(simulation.lastSize < size, "Slow frames after showing kept the size");
+  }
+
+  private static void checkThrottling(Check check)
+  {
+    Simulation simulation = new Simulation(0, 1000000);
+    simulation.governor.setCapture(MAX_SIZE, MAX_RATE);
+    simulation.governor.setThermalThrottled(true);
+    check.that(simulation.lastSize <= MAX_SIZE / 2 && simulation.lastRate <= MAX_RATE / 2,
+        "Throttled at " + simulation.lastSize + " / " + simulation.lastRate);
+    simulation.run(30);
+    check.that(simulation.governor.getCaptureSize() <= MAX_SIZE / 2
+        && simulation.governor.getCaptureRate() <= MAX_RATE / 2,
+        "Rose to " + simulation.governor.getCaptureSize() + " / "
+        + simulation.governor.getCaptureRate() + " while throttled");
+
+    simulation.governor.setThermalThrottled(false);
+    simulation.run(30);
+    check.that(simulation.governor.getCaptureSize() == MAX_SIZE,
+        "Stayed at size " + simulation.governor.getCaptureSize() + " after throttling ended");
+  }
+
+  private static void checkDeterminism(Check check)
+  {
+    Simulation first = new Simulation(12000, 2000000);
+    Simulation second = new Simulation(12000, 2000000);
+    first.run(30);
+    second.run(30);
+    check.that(!first.changes.isEmpty() && first.changes.equals(second.changes),
+        "Runs differ: " + first.changes + " and " + second.changes);
+  }
+
+  // A device drawing frames as fast as its render time and the display allow
+  private static class Simulation implements CaptureGovernor.Listener
+  {
+    final CaptureGovernor governor = new CaptureGovernor(MIN_SIZE, MAX_SIZE, MIN_RATE, MAX_RATE);
+    final List<String> changes = new ArrayList<String>();
+    private final long mNanosPerSample;
+    private final long mFixedNanos;
+    long now = 1000000000L;
+    int lastSize;
+    int lastRate;
+    // Captures which have arrived, as a fraction so slow rates add up
+    private double mArrived = 0;
+    private long mDropped = 0;
+    private long mFramesInWindow = 0;
+    private long mDroppedInWindow = 0;
+    private long mWindowStart = 0;
+    private double mLastWindowDrops = 0;
+
+    Simulation(long nanosPerSample, long fixedNanos)
+    {
+      mNanosPerSample = nanosPerSample;
+      mFixedNanos = fixedNanos;
+      governor.setListener(this);
+      governor.setTargetFrameRate(60);
+      lastSize = governor.getCaptureSize();
+      lastRate = governor.getCaptureRate();
+    }
+
+    public void onCaptureChanged(int captureSize, int captureRate) {
+      lastSize = captureSize;
+      lastRate = captureRate;
+      changes.add(captureSize + "/" + captureRate);
+    }
+
+    void run(int seconds) {
+      long end = now + seconds * 1000000000L;
+      while (now < end) {
+        frame();
+      }
+    }
+
+    void frame() {
+      int size = governor.getCaptureSize();
+      long render = mFixedNanos + mNanosPerSample * size;
+      long frame = Math.max(BUDGET_NANOS, render);
+      now += frame;
+
+      // Only the newest capture is drawn, the rest are dropped
+      mArrived += governor.getCaptureRate() / 1000.0 * frame / 1e9;
+      if (mArrived >= 1) {
+        long dropped = (long) mArrived - 1;
+        mDropped += dropped;
+        mDroppedInWindow += dropped;
+        mArrived -= (long) mArrived;
+      }
+      mFramesInWindow++;
+      if (now - mWindowStart >= 1000000000L) {
+        mLastWindowDrops = mDroppedInWindow / (double) (mDroppedInWindow + mFramesInWindow);
+        mWindowStart = now;
+        mDroppedInWindow = 0;
+        mFramesInWindow = 0;
+      }
+      governor.onFrame(now, render, mDropped);
+    }
+
+    // Fraction of captures dropped over the last whole second
+    double droppedInLastWindow() {
+      return mLastWindowDrops;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.check;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.pheelicks.visualizer.record.CaptureRecorder;
+import com.pheelicks.visualizer.record.CaptureReplayer;
+
+/**
+ * Checks that CaptureReplayer replays what CaptureRecorder recorded, with
+ * the recorded timestamps, and that a recording cut off at any point is
+ * replayed up to its last whole frame.
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/check/ReplayCheck.java
+ *   java -cp out com.pheelicks.tools.check.ReplayCheck
+ */
+public class ReplayCheck
+{
+  private static final int CAPTURES = 20;
+  private static final int SIZE = 64;
+
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    Check.exit(run());
+  }
+
+  public static boolean run() throws IOException, InterruptedException
+  {
+    Check check = new Check("ReplayCheck");
+    File file = File.createTempFile("replay", ".vcap");
+    try {
+      List<String> recorded = record(file);
+      byte[] whole = read(file);
+
+      CaptureReplayer replayer = new CaptureReplayer(file);
+      check.that(!replayer.isTruncated(), "Whole recording reported as truncated");
+      check.that(replay(replayer).equals(recorded), "Replay differs from the recording");
+
+      // Every length through the last few frames, so each part of a frame
+      // is cut off at least once
+      int frameBytes = (whole.length - 8) / recorded.size();
+      for (int length = whole.length - 3 * frameBytes; length < whole.length; length++) {
+        write(file, whole, length);
+        int frames = 0;
+        for (int end = 8; end + frameBytes(recorded, frames) <= length; frames++) {
+          end += frameBytes(recorded, frames);
+        }
+        try {
+          replayer = new CaptureReplayer(file);
+        } catch (IOException e) {
+          check.that(false, "Cut to " + length + " bytes: " + e.getMessage());
+          continue;
+        }
+        boolean cut = length > 8 + bytesOf(recorded, frames);
+        check.that(replayer.isTruncated() == cut, "Cut to " + length + " bytes, truncated is "
+            + replayer.isTruncated());
+        check.that(replay(replayer).equals(recorded.subList(0, frames)), "Cut to " + length
+            + " bytes, didn't replay the first " + frames + " frames");
+      }
+    } finally {
+      file.delete();
+    }
+    return check.finish();
+  }
+
+  // Alternate waveforms and FFTs, described as type, timestamp and first byte
+  private static List<String> record(File file) throws IOException
+  {
+    List<String> recorded = new ArrayList<String>();
+    CaptureRecorder recorder = new CaptureRecorder(file);
+    byte[] bytes = new byte[SIZE];
+    for (int i = 0; i < CAPTURES; i++) {
+      long timestamp = 7000000000L + i * 16666667L;
+      bytes[0] = (byte) i;
+      if (i % 2 == 0) {
+        recorder.recordWaveform(bytes, timestamp);
+        recorded.add("waveform " + timestamp + " " + i);
+      } else {
+        recorder.recordFFT(bytes, 44100, timestamp);
+        recorded.add("fft " + timestamp + " " + i);
+      }
+    }
+    recorder.close();
+    return recorded;
+  }
+
+  private static List<String> replay(CaptureReplayer replayer) throws InterruptedException
+  {
+    final List<String> replayed = new ArrayList<String>();
+    replayer.replay(new CaptureReplayer.Target() {
+      public void onWaveform(byte[] bytes, long timestampNanos) {
+        replayed.add("waveform " + timestampNanos + " " + bytes[0]);
+      }
+
+      public void onFFT(byte[] bytes, int samplingRate, long timestampNanos) {
+        replayed.add("fft " + timestampNanos + " " + bytes[0]);
+      }
+    }, false);
+    return replayed;
+  }
+
+  // Type, timestamp, sampling rate for FFTs, length, then the bytes
+  private static int frameBytes(List<String> recorded, int frame)
+  {
+    if (frame >= recorded.size()) {
+      return Integer.MAX_VALUE / 2;
+    }
+    return 1 + 8 + (recorded.get(frame).startsWith("fft") ? 4 : 0) + 4 + SIZE;
+  }
+
+  private static int bytesOf(List<String> recorded, int frames)
+  {
+    int bytes = 0;
+    for (int i = 0; i < frames; i++) {
+      bytes += frameBytes(recorded, i);
+    }
+    return bytes;
+  }
+
+  private static byte[] read(File file) throws IOException
+  {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      byte[] bytes = new byte[(int) in.length()];
+      in.readFully(bytes);
+      return bytes;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void write(File file, byte[] bytes, int length) throws IOException
+  {
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      out.setLength(0);
+      out.write(bytes, 0, length);
+    } finally {
+      out.close();
+    }
+  }
+}
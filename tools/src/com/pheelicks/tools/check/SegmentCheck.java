@@ -0,0 +1,222 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.pheelicks.tools.RenderClip;
+import com.pheelicks.visualizer.AudioData;
+import com.pheelicks.visualizer.FFTData;
+import com.pheelicks.visualizer.FrameAnalyzer;
+import com.pheelicks.visualizer.dsp.CaptureEncoder;
+import com.pheelicks.visualizer.graphics.Bounds;
+import com.pheelicks.visualizer.graphics.SoftwareCanvas;
+import com.pheelicks.visualizer.offline.OfflineRenderer;
+import com.pheelicks.visualizer.offline.WavFile;
+import com.pheelicks.visualizer.renderer.Renderer;
+
+/**
+ * Checks that OfflineRenderer gives the same frames rendering segments in
+ * parallel as rendering the whole clip in one go.
+ *
+ * Renderers started part way through with seekFrame must draw exactly what
+ * renderers which drew every frame before draw. The fade trail and beat
+ * detection are only rebuilt by the pre-roll, so whole frames are compared
+ * with a small tolerance: on average a fraction of a level per channel, with
+ * the odd pixel further out.
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/check/SegmentCheck.java
+ *   java -cp out com.pheelicks.tools.check.SegmentCheck [file.wav]
+ *
+ * Without a file it renders a few seconds of synthetic audio.
+ */
+public class SegmentCheck
+{
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 180;
+  private static final int CAPTURE_SIZE = 1024;
+  private static final int SEEK_FRAMES = 200;
+  private static final int SEEK_TO = 150;
+  // Short segments, so there are many joins to check
+  private static final int SEGMENT_FRAMES = 45;
+  // Mean difference per channel allowed in a frame, in levels of 255
+  private static final double MEAN_TOLERANCE = 2;
+  // The fade leaves levels up to 7 behind for good, so a pixel can be out by
+  // that much. Only a few may be out by more
+  private static final int OUTLIER_LEVELS = 8;
+  private static final double OUTLIER_TOLERANCE = 0.01;
+
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    WavFile audio = args.length > 0 ? WavFile.read(new File(args[0])) : synthesize(6);
+    Check.exit(run(audio));
+  }
+
+  public static boolean run(WavFile audio) throws IOException, InterruptedException
+  {
+    Check check = new Check("SegmentCheck");
+    checkSeek(check);
+    checkClip(check, audio, false);
+    // Beats and smoothing carry state too
+    checkClip(check, audio, true);
+    return check.finish();
+  }
+
+  // Each sample renderer, seeked to a frame, against one which drew every frame
+  private static void checkSeek(Check check)
+  {
+    int renderers = RenderClip.createSampleRenderers().length;
+    for (int r = 0; r < renderers; r++) {
+      Renderer sequential = RenderClip.createSampleRenderers()[r];
+      Renderer seeked = RenderClip.createSampleRenderers()[r];
+      seeked.seekFrame(SEEK_TO);
+
+      SoftwareCanvas expected = new SoftwareCanvas(WIDTH, HEIGHT);
+      SoftwareCanvas actual = new SoftwareCanvas(WIDTH, HEIGHT);
+      Bounds bounds = new Bounds(0, 0, WIDTH, HEIGHT);
+      FrameAnalyzer analyzer = new FrameAnalyzer();
+      CaptureEncoder encoder = new CaptureEncoder(CAPTURE_SIZE);
+      float[] window = new float[CAPTURE_SIZE];
+      byte[] fft = new byte[CAPTURE_SIZE];
+      AudioData audioData = new AudioData(null);
+      FFTData fftData = new FFTData(null);
+
+      int mismatched = 0;
+      for (int frame = 0; frame < SEEK_FRAMES; frame++) {
+        for (int i = 0; i < CAPTURE_SIZE; i++) {
+          window[i] = (float) (0.5 * Math.sin(i * (0.02 + frame * 0.001))
+              + 0.3 * Math.sin(i * 0.3 + frame));
+        }
+        long timestamp = frame * 1000000000L / 30;
+        audioData.setSamples(window, 0, CAPTURE_SIZE, timestamp);
+        encoder.encode(window, 0, null, fft);
+        fftData.set(fft, timestamp);
+        analyzer.analyze(fftData);
+        analyzer.analyze(audioData);
+        audioData.beat = frame % 10 == 0;
+
+        expected.clear(0);
+        sequential.render(expected, audioData, bounds);
+        sequential.render(expected, fftData, bounds);
+        if (frame >= SEEK_TO) {
+          actual.clear(0);
+          seeked.render(actual, audioData, bounds);
+          seeked.render(actual, fftData, bounds);
+          if (!Arrays.equals(expected.getPixels(), actual.getPixels())) {
+            mismatched++;
+          }
+        }
+      }
+      check.that(mismatched == 0, String.format("%s seeked to frame %d: %d of %d frames differ",
+          sequential.getClass().getSimpleName(), SEEK_TO, mismatched, SEEK_FRAMES - SEEK_TO));
+    }
+  }
+
+  // The whole pipeline, in one segment and in many
+  private static void checkClip(Check check, WavFile audio, boolean flashOnBeat)
+      throws IOException, InterruptedException
+  {
+    OfflineRenderer renderer = new OfflineRenderer(WIDTH, HEIGHT);
+    renderer.setFlashOnBeat(flashOnBeat);
+    if (flashOnBeat) {
+      renderer.setSmoothing(0.05f, 0.3f);
+    }
+    int frames = renderer.getFrameCount(audio);
+    renderer.setThreads(1);
+    renderer.setSegments(frames, 0);
+    int[][] sequential = render(renderer, audio, frames);
+    renderer.setThreads(Runtime.getRuntime().availableProcessors());
+    renderer.setSegments(SEGMENT_FRAMES, 60);
+    int[][] segmented = render(renderer, audio, frames);
+
+    double worstMean = 0;
+    int worstFrame = 0;
+    int failed = 0;
+    for (int frame = 0; frame < frames; frame++) {
+      long total = 0;
+      int outliers = 0;
+      for (int i = 0; i < sequential[frame].length; i++) {
+        int a = sequential[frame][i];
+        int b = segmented[frame][i];
+        int difference = 0;
+        for (int shift = 0; shift < 24; shift += 8) {
+          int channel = Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff));
+          total += channel;
+          difference = Math.max(difference, channel);
+        }
+        if (difference > OUTLIER_LEVELS) {
+          outliers++;
+        }
+      }
+      double mean = (double) total / (sequential[frame].length * 3);
+      if (mean > worstMean) {
+        worstMean = mean;
+        worstFrame = frame;
+      }
+      if (mean > MEAN_TOLERANCE || outliers > OUTLIER_TOLERANCE * sequential[frame].length) {
+        failed++;
+      }
+    }
+    String name = flashOnBeat ? "with flashes" : "without flashes";
+    System.out.println(String.format("  %s, %d frames in segments of %d: worst mean difference %.3f at frame %d",
+        name, frames, SEGMENT_FRAMES, worstMean, worstFrame));
+    check.that(failed == 0, String.format("%s, %d of %d segmented frames differ from sequential",
+        name, failed, frames));
+  }
+
+  private static int[][] render(OfflineRenderer renderer, WavFile audio, int frames)
+      throws IOException, InterruptedException
+  {
+    final int[][] output = new int[frames][];
+    renderer.render(audio, new OfflineRenderer.RendererFactory() {
+      public Renderer[] createRenderers() {
+        return RenderClip.createSampleRenderers();
+      }
+    }, new OfflineRenderer.FrameSink() {
+      public void onFrame(int index, int[] pixels, int width, int height) {
+        output[index] = pixels.clone();
+      }
+    });
+    return output;
+  }
+
+  // A rising tone with noisy kicks every half second, as a 16-bit WAV
+  static WavFile synthesize(int seconds) throws IOException
+  {
+    int sampleRate = 44100;
+    int count = seconds * sampleRate;
+    Random random = new Random(1);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(44 + count * 2);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeBytes("RIFF");
+    out.writeInt(Integer.reverseBytes(36 + count * 2));
+    out.writeBytes("WAVEfmt ");
+    out.writeInt(Integer.reverseBytes(16));
+    out.writeShort(Short.reverseBytes((short) 1));
+    out.writeShort(Short.reverseBytes((short) 1));
+    out.writeInt(Integer.reverseBytes(sampleRate));
+    out.writeInt(Integer.reverseBytes(sampleRate * 2));
+    out.writeShort(Short.reverseBytes((short) 2));
+    out.writeShort(Short.reverseBytes((short) 16));
+    out.writeBytes("data");
+    out.writeInt(Integer.reverseBytes(count * 2));
+
+    for (int i = 0; i < count; i++) {
+      double t = (double) i / sampleRate;
+      double kick = Math.exp(-(t % 0.5) * 20) * (random.nextDouble() * 2 - 1);
+      double sample = 0.3 * Math.sin(2 * Math.PI * (200 + 100 * t) * t) + 0.5 * kick;
+      out.writeShort(Short.reverseBytes((short) (sample * 32767)));
+    }
+    return WavFile.read(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+}
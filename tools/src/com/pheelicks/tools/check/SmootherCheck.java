@@ -0,0 +1,114 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.check;
+
+import com.pheelicks.visualizer.dsp.SpectrumSmoother;
+
+/**
+ * Checks that SpectrumSmoother is frame rate independent: the same input
+ * at 30, 60 and 120 fps gives the same level, peak and moving average at the
+ * times the frames share. The input only changes every 1 / 30 s, so every
+ * rate sees the same signal.
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/check/SmootherCheck.java
+ *   java -cp out com.pheelicks.tools.check.SmootherCheck
+ */
+public class SmootherCheck
+{
+  private static final long SECOND = 1000000000L;
+  // Not 0, so nothing relies on timestamps starting there
+  private static final long START = 5 * SECOND;
+  private static final float SECONDS = 2.4f;
+  private static final int BINS = 3;
+  private static final float ATTACK = 0.05f;
+  private static final float RELEASE = 0.3f;
+  private static final float TOLERANCE = 1e-3f;
+
+  public static void main(String[] args)
+  {
+    Check.exit(run());
+  }
+
+  public static boolean run()
+  {
+    Check check = new Check("SmootherCheck");
+    float[][][] at30 = simulate(30);
+    checkRate(check, at30, simulate(60), 60);
+    checkRate(check, at30, simulate(120), 120);
+    checkCurves(check, at30);
+    return check.finish();
+  }
+
+  private static void checkRate(Check check, float[][][] at30, float[][][] other, int fps)
+  {
+    String[] names = { "level", "peak", "average" };
+    for (int value = 0; value < names.length; value++) {
+      double error = 0;
+      for (int frame = 0; frame < at30.length; frame++) {
+        for (int bin = 0; bin < BINS; bin++) {
+          error = Math.max(error, Math.abs(at30[frame][value][bin] - other[frame][value][bin]));
+        }
+      }
+      check.that(error <= TOLERANCE, String.format("%s at %d fps differs from 30 fps by %g",
+          names[value], fps, error));
+    }
+  }
+
+  // Against the closed forms, at 30 fps
+  private static void checkCurves(Check check, float[][][] at30)
+  {
+    // Released from 60 to 10 at 1 s, one time constant later
+    check.near("Level after one release time", 10 + 50 / Math.E,
+        at30[frameAt(1 + RELEASE)][0][0], 0.01);
+    // Held for 0.5 s, then falling under 100 units / s^2 for 0.5 s
+    check.near("Peak a second after the drop", 60 - 0.5 * 100 * 0.5 * 0.5,
+        at30[frameAt(2)][1][0], 0.01);
+    check.near("Average of a constant", 30, at30[frameAt(SECONDS)][2][2], 1e-4);
+  }
+
+  // Index of the 30 fps frame at seconds
+  private static int frameAt(float seconds)
+  {
+    return Math.round(seconds * 30);
+  }
+
+  // Level, peak and average of each bin at each 30 fps frame time
+  private static float[][][] simulate(int fps)
+  {
+    SpectrumSmoother smoother = new SpectrumSmoother(ATTACK, RELEASE);
+    smoother.setPeakHold(0.5f, 100);
+    int perShared = fps / 30;
+    int frames = Math.round(SECONDS * fps) + 1;
+    float[][][] shared = new float[(frames - 1) / perShared + 1][3][BINS];
+    float[] input = new float[BINS];
+
+    for (int i = 0; i < frames; i++) {
+      // Rounded the same way at every rate, so shared frames match exactly
+      long timestamp = START + Math.round((double) i * SECOND / fps);
+      // The smoother takes a frame's value as the input since the last
+      // frame, so use the value from the start of the 1 / 30 s interval
+      int interval = (i + perShared - 1) / perShared;
+      fill(input, (interval - 1) / 30f);
+      smoother.process(input, BINS, timestamp);
+
+      if (i % perShared == 0) {
+        System.arraycopy(smoother.getSmoothed(), 0, shared[i / perShared][0], 0, BINS);
+        System.arraycopy(smoother.getPeaks(), 0, shared[i / perShared][1], 0, BINS);
+        System.arraycopy(smoother.getAverage(), 0, shared[i / perShared][2], 0, BINS);
+      }
+    }
+    return shared;
+  }
+
+  // A burst which is released and whose peak falls, a rise, and a constant
+  private static void fill(float[] input, float seconds)
+  {
+    input[0] = seconds < 0.2f ? 0 : (seconds < 1 ? 60 : 10);
+    input[1] = seconds < 0.5f ? 20 : 50;
+    input[2] = 30;
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2011, Felix Palmer
+ *
+ * Licensed under the MIT license:
+ * http://creativecommons.org/licenses/MIT/
+ */
+package com.pheelicks.tools.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.pheelicks.visualizer.offline.WavFile;
+
+/**
+ * Checks WavFile on WAVs built in memory: exact sizes, the 0xFFFFFFFF size
+ * of streamed WAVs, sizes larger than the file, and files cut off part way
+ * through a sample frame.
+ *
+ *   javac -d out -sourcepath src:tools/src tools/src/com/pheelicks/tools/check/WavFileCheck.java
+ *   java -cp out com.pheelicks.tools.check.WavFileCheck
+ */
+public class WavFileCheck
+{
+  private static final int FRAMES = 10000;
+
+  public static void main(String[] args)
+  {
+    Check.exit(run());
+  }
+
+  public static boolean run()
+  {
+    Check check = new Check("WavFileCheck");
+    int dataBytes = FRAMES * 4;
+    check(check, "Exact size", dataBytes, 0, FRAMES);
+    check(check, "Size 0xFFFFFFFF", 0xffffffff, 0, FRAMES);
+    check(check, "Size past the end", dataBytes * 2, 0, FRAMES);
+    check(check, "Size over 2 GB", 0x90000000, 0, FRAMES);
+    check(check, "Cut off mid frame", dataBytes * 2, 3, FRAMES);
+    check(check, "Size short of the data", dataBytes / 2, 0, FRAMES / 2);
+    return check.finish();
+  }
+
+  // 16-bit stereo, each channel a different ramp, then extra bytes of a
+  // partial frame
+  private static void check(Check check, String name, int declaredSize, int extra, int expected)
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeTag(out, "RIFF");
+    writeInt(out, 0);
+    writeTag(out, "WAVE");
+    writeTag(out, "fmt ");
+    writeInt(out, 16);
+    writeShort(out, 1);
+    writeShort(out, 2);
+    writeInt(out, 44100);
+    writeInt(out, 44100 * 4);
+    writeShort(out, 4);
+    writeShort(out, 16);
+    // An odd sized chunk, which is padded
+    writeTag(out, "LIST");
+    writeInt(out, 3);
+    out.write(new byte[4], 0, 4);
+    writeTag(out, "data");
+    writeInt(out, declaredSize);
+    for (int i = 0; i < FRAMES; i++) {
+      writeShort(out, left(i));
+      writeShort(out, right(i));
+    }
+    out.write(new byte[extra], 0, extra);
+
+    WavFile wav;
+    try {
+      wav = WavFile.read(new ByteArrayInputStream(out.toByteArray()));
+    } catch (IOException e) {
+      check.that(false, name + ": " + e);
+      return;
+    } catch (RuntimeException e) {
+      check.that(false, name + ": " + e);
+      return;
+    }
+
+    check.that(wav.sampleRate == 44100, name + ": sample rate " + wav.sampleRate);
+    check.that(wav.samples.length == expected, name + ": " + wav.samples.length + " frames, expected "
+        + expected);
+    double error = 0;
+    for (int i = 0; i < Math.min(expected, wav.samples.length); i++) {
+      double mixed = (left(i) + right(i)) / 2.0 / 32768;
+      error = Math.max(error, Math.abs(wav.samples[i] - mixed));
+    }
+    check.that(error < 1e-6, name + ": samples out by " + error);
+  }
+
+  private static short left(int frame)
+  {
+    return (short) ((frame % 200 - 100) * 300);
+  }
+
+  private static short right(int frame)
+  {
+    return (short) (-(frame % 50) * 600);
+  }
+
+  private static void writeTag(ByteArrayOutputStream out, String tag)
+  {
+    for (int i = 0; i < 4; i++) {
+      out.write(tag.charAt(i));
+    }
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value)
+  {
+    writeShort(out, value);
+    writeShort(out, value >> 16);
+  }
+
+  private static void writeShort(ByteArrayOutputStream out, int value)
+  {
+    out.write(value & 0xff);
+    out.write((value >> 8) & 0xff);
+  }
+}